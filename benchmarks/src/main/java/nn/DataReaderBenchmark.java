@@ -0,0 +1,93 @@
+package nn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks loading Fashion-MNIST style CSV files, reported as rows per second.
+ * <p>
+ * A synthetic pair of vectors and labels files with random pixels is written to a
+ * temporary directory once per fork, so the benchmark does not depend on the data folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DataReaderBenchmark {
+
+    private static final int ROWS = 10_000;
+    private static final int COLUMNS = 784;
+
+    private Path directory;
+    private String vectorsPath;
+    private String labelsPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("nn-bench");
+        vectorsPath = directory.resolve("vectors.csv").toString();
+        labelsPath = directory.resolve("labels.csv").toString();
+
+        Random random = new Random(0);
+        try (BufferedWriter vectors = Files.newBufferedWriter(Path.of(vectorsPath));
+             BufferedWriter labels = Files.newBufferedWriter(Path.of(labelsPath))) {
+            for (int row = 0; row < ROWS; row++) {
+                for (int column = 0; column < COLUMNS; column++) {
+                    if (column > 0) {
+                        vectors.write(',');
+                    }
+                    //Mostly background pixels, like the real images
+                    vectors.write(Integer.toString(random.nextInt(3) == 0 ? random.nextInt(256) : 0));
+                }
+                vectors.newLine();
+                labels.write(Integer.toString(random.nextInt(10)));
+                labels.newLine();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(vectorsPath));
+        Files.deleteIfExists(Path.of(labelsPath));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<MnistImage> loadData() {
+        return DataReader.loadData(vectorsPath, labelsPath);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public byte[] parseBytes() throws IOException {
+        return DataReader.parseBytes(vectorsPath, COLUMNS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public Dataset packedDataset() throws IOException {
+        return PackedDataset.fromCsv(vectorsPath, labelsPath, COLUMNS);
+    }
+}
@@ -0,0 +1,196 @@
+package nn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link MathUtils} kernels at the layer shapes of the real network
+ * (784x128, 128x64 and 64x10), for single samples and for mini-batches of 32. The sparse
+ * variants run on inputs with about half of the elements zero, like Fashion-MNIST images.
+ * <p>
+ * Every benchmark writes into preallocated buffers, so the GC profiler should report
+ * (close to) zero bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+
+    private static final int BATCH_SIZE = 32;
+
+    private static final double SPARSE_DENSITY = 0.5;
+
+    /**
+     * The layer shape as inputs x outputs.
+     */
+    @Param({"784x128", "128x64", "64x10"})
+    public String shape;
+
+    private int inputs;
+    private int outputs;
+
+    //Weight matrix [outputs][inputs], row-major
+    private double[] weights;
+    private double[] input;
+    private double[] output;
+    private double[] delta;
+    private double[] backpropagated;
+
+    private double[][] batchInputs;
+    private double[][] batchOutputs;
+    private double[][] batchDeltas;
+    private double[][] batchBackpropagated;
+    private double[] gradients;
+    private SparseInput[] sparseBatchInputs;
+
+    private double[] moments;
+    private double[] secondMoments;
+    private float[] moments32;
+    private float[] secondMoments32;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = shape.split("x");
+        inputs = Integer.parseInt(dimensions[0]);
+        outputs = Integer.parseInt(dimensions[1]);
+        Random random = new Random(0);
+
+        weights = randomArray(outputs * inputs, random);
+        input = randomArray(inputs, random);
+        output = new double[outputs];
+        delta = randomArray(outputs, random);
+        backpropagated = new double[inputs];
+
+        batchInputs = new double[BATCH_SIZE][];
+        batchDeltas = new double[BATCH_SIZE][];
+        for (int s = 0; s < BATCH_SIZE; s++) {
+            batchInputs[s] = randomArray(inputs, random);
+            batchDeltas[s] = randomArray(outputs, random);
+        }
+        batchOutputs = new double[BATCH_SIZE][outputs];
+        batchBackpropagated = new double[BATCH_SIZE][inputs];
+        gradients = new double[outputs * inputs];
+
+        sparseBatchInputs = new SparseInput[BATCH_SIZE];
+        for (int s = 0; s < BATCH_SIZE; s++) {
+            double[] sparse = batchInputs[s].clone();
+            for (int k = 0; k < inputs; k++) {
+                if (random.nextDouble() >= SPARSE_DENSITY) {
+                    sparse[k] = 0.0;
+                }
+            }
+            sparseBatchInputs[s] = SparseInput.of(sparse);
+        }
+
+        moments = new double[outputs * inputs];
+        secondMoments = new double[outputs * inputs];
+        moments32 = new float[outputs * inputs];
+        secondMoments32 = new float[outputs * inputs];
+    }
+
+    private static double[] randomArray(int length, Random random) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextGaussian() * 0.1;
+        }
+        return values;
+    }
+
+    @Benchmark
+    public double dot() {
+        return MathUtils.kernels().dot(weights, 0, input, 0, inputs);
+    }
+
+    @Benchmark
+    public double[] axpy() {
+        MathUtils.kernels().axpy(0.5, input, 0, backpropagated, 0, inputs);
+        return backpropagated;
+    }
+
+    @Benchmark
+    public double[] multiplyInto() {
+        MathUtils.multiplyInto(weights, 0, outputs, inputs, input, output);
+        return output;
+    }
+
+    @Benchmark
+    public double[] transposeMultiplyInto() {
+        MathUtils.transposeMultiplyInto(weights, 0, outputs, inputs, delta, backpropagated);
+        return backpropagated;
+    }
+
+    @Benchmark
+    public double[] leakyReluInPlace() {
+        System.arraycopy(delta, 0, output, 0, outputs);
+        MathUtils.leakyReluInPlace(output);
+        return output;
+    }
+
+    @Benchmark
+    public double[] softmaxInto() {
+        MathUtils.softmaxInto(delta, output);
+        return output;
+    }
+
+    @Benchmark
+    public double[][] batchForward() {
+        MathUtils.matrixMultiplyBTransposed(batchInputs, weights, 0, outputs, inputs, batchOutputs, BATCH_SIZE);
+        return batchOutputs;
+    }
+
+    @Benchmark
+    public double[][] batchBackward() {
+        MathUtils.matrixMultiply(batchDeltas, weights, 0, outputs, inputs, batchBackpropagated, BATCH_SIZE);
+        return batchBackpropagated;
+    }
+
+    @Benchmark
+    public double[] batchGradients() {
+        MathUtils.matrixMultiplyATransposedAccumulate(batchDeltas, batchInputs, gradients, 0, outputs, inputs,
+                BATCH_SIZE);
+        return gradients;
+    }
+
+    @Benchmark
+    public double[][] sparseBatchForward() {
+        MathUtils.matrixMultiplyBTransposed(sparseBatchInputs, weights, 0, outputs, inputs, batchOutputs, BATCH_SIZE);
+        return batchOutputs;
+    }
+
+    @Benchmark
+    public double[] sparseBatchGradients() {
+        MathUtils.matrixMultiplyATransposedAccumulate(batchDeltas, sparseBatchInputs, gradients, 0, outputs, inputs,
+                BATCH_SIZE);
+        return gradients;
+    }
+
+    @Benchmark
+    public void adamUpdate(Blackhole blackhole) {
+        MathUtils.kernels().adamUpdate(weights, moments, secondMoments, 0, weights.length, gradients, 0, 1e-9, 0.0,
+                1.0, 0.9, 0.999, 1e-9, 1.0, 1e-8);
+        blackhole.consume(weights);
+    }
+
+    @Benchmark
+    public void adamUpdateFloat32(Blackhole blackhole) {
+        MathUtils.kernels().adamUpdate(weights, moments32, secondMoments32, 0, weights.length, gradients, 0, 1e-9,
+                0.0, 1.0, 0.9, 0.999, 1e-9, 1.0, 1e-8);
+        blackhole.consume(weights);
+    }
+}
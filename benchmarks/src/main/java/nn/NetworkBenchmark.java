@@ -0,0 +1,105 @@
+package nn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks whole-network operations on the 784-128-64-10 topology used by {@code Main}:
+ * the forward pass, one training step per sample with each optimizer, a mini-batch step,
+ * and single-sample prediction latency.
+ * <p>
+ * Every invocation uses the next sample of a fixed pool of random inputs, so the branch
+ * predictors do not learn a single input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class NetworkBenchmark {
+
+    private static final int SAMPLE_COUNT = 256;
+    private static final int BATCH_SIZE = 32;
+
+    private NeuralNetwork network;
+    private Workspace workspace;
+    private double[][] inputs;
+    private double[][] targets;
+    private double[][] batchInputs;
+    private double[][] batchTargets;
+    private int next;
+    private final int[] topClasses = new int[3];
+    private final double[] topProbabilities = new double[3];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        network = new NeuralNetwork(0.001, 0.6, 0, random, 784, 128, 64, 10);
+        workspace = network.createWorkspace();
+
+        inputs = new double[SAMPLE_COUNT][784];
+        targets = new double[SAMPLE_COUNT][10];
+        for (int s = 0; s < SAMPLE_COUNT; s++) {
+            for (int i = 0; i < 784; i++) {
+                inputs[s][i] = random.nextInt(256) / 255.0;
+            }
+            targets[s][random.nextInt(10)] = 1.0;
+        }
+        batchInputs = new double[BATCH_SIZE][];
+        batchTargets = new double[BATCH_SIZE][];
+        System.arraycopy(inputs, 0, batchInputs, 0, BATCH_SIZE);
+        System.arraycopy(targets, 0, batchTargets, 0, BATCH_SIZE);
+    }
+
+    private int nextSample() {
+        int sample = next;
+        next = (next + 1) % SAMPLE_COUNT;
+        return sample;
+    }
+
+    @Benchmark
+    public double[] feedForward() {
+        return network.feedForward(inputs[nextSample()], workspace);
+    }
+
+    @Benchmark
+    public double trainMomentum() {
+        int sample = nextSample();
+        return network.train(inputs[sample], targets[sample]);
+    }
+
+    @Benchmark
+    public double trainAdam() {
+        int sample = nextSample();
+        return network.trainADAM(inputs[sample], targets[sample]);
+    }
+
+    @Benchmark
+    public double trainBatch() {
+        return network.trainBatch(batchInputs, batchTargets);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public int predict() {
+        return network.predict(inputs[nextSample()], workspace);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public int topK() {
+        return network.topK(inputs[nextSample()], topClasses.length, topClasses, topProbabilities, workspace);
+    }
+}
@@ -5,7 +5,7 @@
 module add jdk
 
 mkdir -p bin
-javac -d bin src/*.java
+javac --add-modules jdk.incubator.vector -d bin src/*.java
 
 echo "Running Neural Network with low priority..."
-nice -n 19 java -Xmx4g -cp bin Main
\ No newline at end of file
+nice -n 19 java --add-modules jdk.incubator.vector -Xmx4g -cp bin Main
\ No newline at end of file
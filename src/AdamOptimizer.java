@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Adam (Adaptive Moment Estimation) optimizer.
+ * <p>
+ * Maintains moving averages of the gradients (m) and squared gradients (v) and scales every
+ * step by their bias-corrected ratio. The bias corrections only depend on the time step, so
+ * {@link #beginStep()} folds them into two scalars and the per-element update needs a single
+ * square root and division. Weight decay is applied as L2 regularization (added to the gradient).
+ */
+public class AdamOptimizer implements Optimizer {
+
+    protected final double learningRate;
+    protected final double beta1;
+    protected final double beta2;
+    protected final double epsilon;
+
+    //Moment estimates; only the arrays matching the state precision are allocated
+    protected final double[] firstMoments;
+    protected final double[] secondMoments;
+    protected final float[] firstMoments32;
+    protected final float[] secondMoments32;
+
+    private int t = 0;
+    private double beta1_t = 1.0;
+    private double beta2_t = 1.0;
+
+    //Scalars of the current step
+    protected double stepSize;
+    protected double correctionScale;
+
+    /**
+     * Creates the optimizer with the default decay rates (beta1 = 0.9, beta2 = 0.999, epsilon = 1e-8).
+     *
+     * @param parameterCount The number of parameters of the network.
+     * @param learningRate   The step size (alpha).
+     * @param statePrecision The precision of the moment estimates.
+     */
+    public AdamOptimizer(int parameterCount, double learningRate, Precision statePrecision) {
+        this(parameterCount, learningRate, 0.9, 0.999, 1e-8, statePrecision);
+    }
+
+    /**
+     * Creates the optimizer with zeroed moment estimates.
+     *
+     * @param parameterCount The number of parameters of the network.
+     * @param learningRate   The step size (alpha).
+     * @param beta1          The decay rate of the first moment.
+     * @param beta2          The decay rate of the second moment.
+     * @param epsilon        The term added to the denominator for numerical stability.
+     * @param statePrecision The precision of the moment estimates.
+     */
+    public AdamOptimizer(int parameterCount, double learningRate, double beta1, double beta2, double epsilon,
+                         Precision statePrecision) {
+        this.learningRate = learningRate;
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+        boolean single = statePrecision == Precision.FLOAT32;
+        this.firstMoments = single ? null : new double[parameterCount];
+        this.secondMoments = single ? null : new double[parameterCount];
+        this.firstMoments32 = single ? new float[parameterCount] : null;
+        this.secondMoments32 = single ? new float[parameterCount] : null;
+    }
+
+    @Override
+    public String name() {
+        return "Adam";
+    }
+
+    @Override
+    public int parameterCount() {
+        return firstMoments != null ? firstMoments.length : firstMoments32.length;
+    }
+
+    @Override
+    public void beginStep() {
+        t++;
+        beta1_t *= beta1;
+        beta2_t *= beta2;
+        stepSize = learningRate / (1 - beta1_t);
+        correctionScale = 1 / Math.sqrt(1 - beta2_t);
+    }
+
+    @Override
+    public void update(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        update(parameters, offset, length, gradientSource, sourceOffset, gradientScale, decay, 1.0);
+    }
+
+    @Override
+    public void update(float[] parameters, int offset, int length, float[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        update(parameters, offset, length, gradientSource, sourceOffset, gradientScale, decay, 1.0);
+    }
+
+    /**
+     * Returns the number of steps taken so far (the Adam time step t).
+     *
+     * @return The number of completed {@link #beginStep()} calls.
+     */
+    public int step() {
+        return t;
+    }
+
+    @Override
+    public int stateSize() {
+        return Integer.BYTES + 2 * Double.BYTES
+                + OptimizerState.size(firstMoments, firstMoments32)
+                + OptimizerState.size(secondMoments, secondMoments32);
+    }
+
+    @Override
+    public void writeState(ByteBuffer target) {
+        target.putInt(t).putDouble(beta1_t).putDouble(beta2_t);
+        OptimizerState.write(target, firstMoments, firstMoments32);
+        OptimizerState.write(target, secondMoments, secondMoments32);
+    }
+
+    @Override
+    public void readState(ByteBuffer source) throws IOException {
+        t = source.getInt();
+        beta1_t = source.getDouble();
+        beta2_t = source.getDouble();
+        OptimizerState.read(source, firstMoments, firstMoments32);
+        OptimizerState.read(source, secondMoments, secondMoments32);
+    }
+
+    /**
+     * Runs the fused Adam kernel over a range of parameters.
+     *
+     * @param parameters     The parameters of the whole network.
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The L2 regularization strength added to the gradient.
+     * @param parameterScale The factor applied to every parameter before the step.
+     */
+    protected final void update(double[] parameters, int offset, int length, double[] gradientSource,
+                                int sourceOffset, double gradientScale, double decay, double parameterScale) {
+        KernelBackend kernels = MathUtils.kernels();
+        if (firstMoments != null) {
+            kernels.adamUpdate(parameters, firstMoments, secondMoments, offset, length,
+                    gradientSource, sourceOffset, gradientScale, decay,
+                    parameterScale, beta1, beta2, stepSize, correctionScale, epsilon);
+        } else {
+            kernels.adamUpdate(parameters, firstMoments32, secondMoments32, offset, length,
+                    gradientSource, sourceOffset, gradientScale, decay,
+                    parameterScale, beta1, beta2, stepSize, correctionScale, epsilon);
+        }
+    }
+
+    /**
+     * Runs the single-precision Adam kernel over a range of parameters.
+     *
+     * @param parameters     The parameters of the whole network.
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The L2 regularization strength added to the gradient.
+     * @param parameterScale The factor applied to every parameter before the step.
+     * @throws IllegalStateException if the moments are double precision.
+     */
+    protected final void update(float[] parameters, int offset, int length, float[] gradientSource,
+                                int sourceOffset, double gradientScale, double decay, double parameterScale) {
+        if (firstMoments32 == null) {
+            throw new IllegalStateException("A single-precision network needs single-precision Adam moments.");
+        }
+        MathUtils.kernels().adamUpdate(parameters, firstMoments32, secondMoments32, offset, length,
+                gradientSource, sourceOffset, gradientScale, decay,
+                parameterScale, beta1, beta2, stepSize, correctionScale, epsilon);
+    }
+}
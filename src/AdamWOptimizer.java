@@ -0,0 +1,55 @@
+/**
+ * Adam with decoupled weight decay (AdamW).
+ * <p>
+ * Instead of adding {@code decay * parameter} to the gradient, where it would be rescaled by
+ * the adaptive denominator, the parameters are shrunk directly by
+ * {@code learningRate * decay} on every step. The shrink is fused into the Adam kernel, so
+ * the update is still a single pass.
+ */
+public class AdamWOptimizer extends AdamOptimizer {
+
+    /**
+     * Creates the optimizer with the default decay rates (beta1 = 0.9, beta2 = 0.999, epsilon = 1e-8).
+     *
+     * @param parameterCount The number of parameters of the network.
+     * @param learningRate   The step size (alpha).
+     * @param statePrecision The precision of the moment estimates.
+     */
+    public AdamWOptimizer(int parameterCount, double learningRate, Precision statePrecision) {
+        super(parameterCount, learningRate, statePrecision);
+    }
+
+    /**
+     * Creates the optimizer with zeroed moment estimates.
+     *
+     * @param parameterCount The number of parameters of the network.
+     * @param learningRate   The step size (alpha).
+     * @param beta1          The decay rate of the first moment.
+     * @param beta2          The decay rate of the second moment.
+     * @param epsilon        The term added to the denominator for numerical stability.
+     * @param statePrecision The precision of the moment estimates.
+     */
+    public AdamWOptimizer(int parameterCount, double learningRate, double beta1, double beta2, double epsilon,
+                          Precision statePrecision) {
+        super(parameterCount, learningRate, beta1, beta2, epsilon, statePrecision);
+    }
+
+    @Override
+    public String name() {
+        return "AdamW";
+    }
+
+    @Override
+    public void update(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        update(parameters, offset, length, gradientSource, sourceOffset, gradientScale, 0.0,
+                1 - learningRate * decay);
+    }
+
+    @Override
+    public void update(float[] parameters, int offset, int length, float[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        update(parameters, offset, length, gradientSource, sourceOffset, gradientScale, 0.0,
+                1 - learningRate * decay);
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scores snapshots of a network on a validation range in the background.
+ * <p>
+ * {@link #submit} returns immediately: the validation samples are split into one slice per
+ * worker thread, every slice is decoded and predicted chunk by chunk against the immutable
+ * {@link InferenceModel} snapshot, and the returned future completes with the accuracy once
+ * all slices are done. Training can therefore continue with the next epoch while the
+ * previous one is being scored; the snapshot is unaffected by the ongoing updates.
+ * <p>
+ * Several submissions may be in flight at once; each one uses its own buffers.
+ */
+public class AsyncValidator implements AutoCloseable {
+
+    /**
+     * The number of samples propagated at once by every worker.
+     */
+    private static final int CHUNK_SIZE = 128;
+
+    /**
+     * The score of one snapshot.
+     */
+    public static final class Result {
+
+        /**
+         * The epoch after which the snapshot was taken.
+         */
+        public final int epoch;
+
+        /**
+         * The fraction of correctly predicted validation samples.
+         */
+        public final double accuracy;
+
+        /**
+         * The scored snapshot.
+         */
+        public final InferenceModel model;
+
+        Result(int epoch, double accuracy, InferenceModel model) {
+            this.epoch = epoch;
+            this.accuracy = accuracy;
+            this.model = model;
+        }
+    }
+
+    private final Dataset dataset;
+    private final int from;
+    private final int to;
+    private final int threadCount;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a validator with a fixed pool of worker threads.
+     *
+     * @param dataset     The dataset holding the validation samples.
+     * @param from        The index of the first validation sample (inclusive).
+     * @param to          The index of the last validation sample (exclusive).
+     * @param threadCount The number of worker threads.
+     * @throws IllegalArgumentException if the thread count is not positive or the range is empty.
+     */
+    public AsyncValidator(Dataset dataset, int from, int to, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        if (from >= to) {
+            throw new IllegalArgumentException("The validation range is empty.");
+        }
+        this.dataset = dataset;
+        this.from = from;
+        this.to = to;
+        this.threadCount = threadCount;
+        this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "validator-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts scoring a snapshot on the worker threads.
+     *
+     * @param epoch The epoch after which the snapshot was taken, reported back in the result.
+     * @param model The snapshot to score.
+     * @return A future completed with the accuracy of the snapshot.
+     */
+    public CompletableFuture<Result> submit(int epoch, InferenceModel model) {
+        long start = Telemetry.start();
+        int count = to - from;
+        List<CompletableFuture<Integer>> slices = new ArrayList<>(threadCount);
+        for (int w = 0; w < threadCount; w++) {
+            int sliceFrom = from + (int) ((long) count * w / threadCount);
+            int sliceTo = from + (int) ((long) count * (w + 1) / threadCount);
+            slices.add(CompletableFuture.supplyAsync(() -> countCorrect(model, sliceFrom, sliceTo), executor));
+        }
+        return CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            int correct = 0;
+            for (CompletableFuture<Integer> slice : slices) {
+                correct += slice.join();
+            }
+            Telemetry.stop(Telemetry.Phase.VALIDATION, start);
+            return new Result(epoch, (double) correct / count, model);
+        });
+    }
+
+    /**
+     * Decodes and predicts one slice of the validation range, chunk by chunk.
+     *
+     * @return The number of correctly predicted samples of the slice.
+     */
+    private int countCorrect(InferenceModel model, int sliceFrom, int sliceTo) {
+        if (sliceFrom >= sliceTo) {
+            return 0;
+        }
+        int chunkSize = Math.min(CHUNK_SIZE, sliceTo - sliceFrom);
+        double[][] chunk = new double[chunkSize][dataset.inputSize()];
+        int[] predictions = new int[chunkSize];
+        InferenceModel.Buffers buffers = model.createBuffers(chunkSize);
+
+        int correct = 0;
+        for (int start = sliceFrom; start < sliceTo; start += chunkSize) {
+            int size = Math.min(chunkSize, sliceTo - start);
+            for (int s = 0; s < size; s++) {
+                dataset.readPixels(start + s, chunk[s]);
+            }
+            model.predictBatch(chunk, size, predictions, buffers);
+            for (int s = 0; s < size; s++) {
+                if (predictions[s] == dataset.label(start + s)) {
+                    correct++;
+                }
+            }
+        }
+        return correct;
+    }
+
+    /**
+     * Shuts down the worker threads. Scorings still running are abandoned.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-threaded batch inference for a {@link NeuralNetwork}.
+ * <p>
+ * The samples are split into one contiguous slice per worker thread. Each worker decodes
+ * its slice chunk by chunk into its own preallocated rows and runs matrix-matrix forward
+ * passes through its own {@link BatchWorkspace}. Every prediction is written at the index
+ * of its sample, so the result is in the original order regardless of scheduling.
+ * <p>
+ * The network must not be trained while a prediction is running.
+ */
+public class BatchPredictor implements AutoCloseable {
+
+    /**
+     * The number of samples propagated at once by every worker.
+     */
+    private static final int CHUNK_SIZE = 128;
+
+    private final NeuralNetwork network;
+    private final int threadCount;
+    private final ExecutorService executor;
+    private final BatchWorkspace[] workspaces;
+    private final double[][][] rows;
+    private final float[][][] rows32;
+    private final int[][] chunkPredictions;
+
+    /**
+     * Creates a predictor with a fixed pool of worker threads.
+     *
+     * @param network     The network to run.
+     * @param threadCount The number of worker threads.
+     */
+    public BatchPredictor(NeuralNetwork network, int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.network = network;
+        this.threadCount = threadCount;
+        this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "predictor-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.workspaces = new BatchWorkspace[threadCount];
+        this.rows = new double[threadCount][][];
+        this.rows32 = new float[threadCount][][];
+        this.chunkPredictions = new int[threadCount][CHUNK_SIZE];
+        for (int w = 0; w < threadCount; w++) {
+            this.workspaces[w] = network.createBatchWorkspace(CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Predicts the class labels of all input vectors.
+     *
+     * @param inputs      The input vectors.
+     * @param predictions The array receiving the predicted label of every input (same indices).
+     */
+    public void predictBatch(double[][] inputs, int[] predictions) {
+        int count = inputs.length;
+        List<Callable<Object>> tasks = new ArrayList<>(threadCount);
+        for (int w = 0; w < threadCount; w++) {
+            int from = sliceStart(w, count);
+            int to = sliceStart(w + 1, count);
+            BatchWorkspace workspace = workspaces[w];
+            if (from < to) {
+                tasks.add(() -> {
+                    network.predictBatch(inputs, from, to, predictions, workspace);
+                    return null;
+                });
+            }
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Predicts the class labels of a range of samples of a dataset.
+     *
+     * @param dataset     The dataset holding the samples.
+     * @param from        The index of the first sample to predict (inclusive).
+     * @param to          The index of the last sample to predict (exclusive).
+     * @param predictions The array receiving the predicted labels; sample {@code i} goes to index {@code i - from}.
+     */
+    public void predict(Dataset dataset, int from, int to, int[] predictions) {
+        int count = to - from;
+        List<Callable<Object>> tasks = new ArrayList<>(threadCount);
+        for (int w = 0; w < threadCount; w++) {
+            int sliceFrom = sliceStart(w, count);
+            int sliceTo = sliceStart(w + 1, count);
+            int worker = w;
+            if (sliceFrom < sliceTo) {
+                tasks.add(() -> {
+                    predictSlice(worker, dataset, from + sliceFrom, from + sliceTo, predictions, from);
+                    return null;
+                });
+            }
+        }
+        runAll(tasks);
+    }
+
+    /**
+     * Predicts all samples of a dataset.
+     *
+     * @param dataset The dataset to predict.
+     * @return The predicted label of every sample, in dataset order.
+     */
+    public int[] predict(Dataset dataset) {
+        int[] predictions = new int[dataset.size()];
+        predict(dataset, 0, dataset.size(), predictions);
+        return predictions;
+    }
+
+    /**
+     * Decodes and predicts one worker's slice of a dataset, chunk by chunk.
+     */
+    private void predictSlice(int worker, Dataset dataset, int from, int to, int[] predictions, int base) {
+        if (network.precision() == Precision.FLOAT32) {
+            predictSlice32(worker, dataset, from, to, predictions, base);
+            return;
+        }
+        if (rows[worker] == null) {
+            rows[worker] = new double[CHUNK_SIZE][dataset.inputSize()];
+        }
+        double[][] chunk = rows[worker];
+        int[] chunkResult = chunkPredictions[worker];
+        for (int start = from; start < to; start += CHUNK_SIZE) {
+            int size = Math.min(CHUNK_SIZE, to - start);
+            for (int s = 0; s < size; s++) {
+                dataset.readPixels(start + s, chunk[s]);
+            }
+            network.predictBatch(chunk, 0, size, chunkResult, workspaces[worker]);
+            System.arraycopy(chunkResult, 0, predictions, start - base, size);
+        }
+    }
+
+    /**
+     * Same as {@link #predictSlice}, decoding the samples straight into single-precision rows.
+     */
+    private void predictSlice32(int worker, Dataset dataset, int from, int to, int[] predictions, int base) {
+        if (rows32[worker] == null) {
+            rows32[worker] = new float[CHUNK_SIZE][dataset.inputSize()];
+        }
+        float[][] chunk = rows32[worker];
+        int[] chunkResult = chunkPredictions[worker];
+        for (int start = from; start < to; start += CHUNK_SIZE) {
+            int size = Math.min(CHUNK_SIZE, to - start);
+            for (int s = 0; s < size; s++) {
+                dataset.readPixels(start + s, chunk[s]);
+            }
+            network.predictBatch(chunk, 0, size, chunkResult, workspaces[worker]);
+            System.arraycopy(chunkResult, 0, predictions, start - base, size);
+        }
+    }
+
+    /**
+     * Returns the first index of a worker's slice.
+     */
+    private int sliceStart(int worker, int count) {
+        return (int) ((long) count * worker / threadCount);
+    }
+
+    /**
+     * Runs the given tasks on the worker pool, waits for all of them and rethrows
+     * the first failure.
+     *
+     * @param tasks The tasks to run.
+     */
+    private void runAll(List<Callable<Object>> tasks) {
+        try {
+            for (Future<Object> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Prediction was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Prediction worker failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
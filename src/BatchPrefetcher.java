@@ -0,0 +1,212 @@
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams mini-batches of a {@link Dataset} in a given order, decoding them on a background thread.
+ * <p>
+ * A small ring of preallocated {@link Batch} buffers circulates between the loader thread
+ * and the consumer: the loader takes a free buffer, decodes the next samples into it and
+ * hands it over; the consumer gives it back when it asks for the following batch. Reading
+ * and normalizing the data therefore overlaps with training, and memory use is bounded by
+ * the ring size no matter how large the dataset is (with a memory-mapped
+ * {@link BinaryDataset}, the raw data is not even on the heap).
+ * <p>
+ * One prefetcher covers a single pass over the given indices. It is not thread-safe;
+ * {@link #nextBatch()} must be called from one thread.
+ */
+public class BatchPrefetcher implements AutoCloseable {
+
+    /**
+     * A mini-batch of decoded samples. Owned by the prefetcher and reused.
+     */
+    public static final class Batch {
+
+        /**
+         * The input vectors of the batch, one row per sample. Its length is the number of samples.
+         * {@code null} if the prefetcher decodes single-precision inputs.
+         */
+        public double[][] inputs;
+
+        /**
+         * The single-precision input vectors of the batch, or {@code null} if the prefetcher decodes
+         * double-precision inputs.
+         */
+        public float[][] inputs32;
+
+        /**
+         * The one-hot target vectors of the batch, one row per sample. Rows are shared and must not be modified.
+         */
+        public double[][] targets;
+
+        /**
+         * The labels of the samples of the batch.
+         */
+        public final int[] labels;
+
+        /**
+         * The number of samples in the batch.
+         */
+        public int size;
+
+        //Full-capacity buffers; inputs/targets alias them unless the batch is partial
+        private final double[][] rows;
+        private final float[][] rows32;
+        private final double[][] rowTargets;
+
+        private Batch(int capacity, int inputSize, Precision precision) {
+            boolean single = precision == Precision.FLOAT32;
+            this.rows = single ? null : new double[capacity][inputSize];
+            this.rows32 = single ? new float[capacity][inputSize] : null;
+            this.rowTargets = new double[capacity][];
+            this.labels = new int[capacity];
+        }
+    }
+
+    //Marks the end of the pass
+    private static final Batch END = new Batch(0, 0, Precision.FLOAT64);
+
+    private final Dataset dataset;
+    private final int[] indices;
+    private final int batchSize;
+    private final double[][] oneHotTargets;
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> filled;
+    private final Thread loader;
+
+    private volatile Throwable failure;
+    private Batch current;
+    private boolean finished;
+
+    /**
+     * Creates a prefetcher and starts its loader thread.
+     *
+     * @param dataset    The dataset to read.
+     * @param indices    The indices of the samples to stream, in the order they should be delivered.
+     * @param batchSize  The number of samples per batch (the last batch may be smaller).
+     * @param classCount The number of classes, used to build the one-hot targets.
+     * @param depth      The number of batch buffers in the ring (at least 2 to overlap loading and training).
+     * @throws IllegalArgumentException if the batch size or the depth is not positive.
+     */
+    public BatchPrefetcher(Dataset dataset, int[] indices, int batchSize, int classCount, int depth) {
+        this(dataset, indices, batchSize, classCount, depth, Precision.FLOAT64);
+    }
+
+    /**
+     * Creates a prefetcher decoding the inputs in the given precision and starts its loader thread.
+     *
+     * @param dataset    The dataset to read.
+     * @param indices    The indices of the samples to stream, in the order they should be delivered.
+     * @param batchSize  The number of samples per batch (the last batch may be smaller).
+     * @param classCount The number of classes, used to build the one-hot targets.
+     * @param depth      The number of batch buffers in the ring (at least 2 to overlap loading and training).
+     * @param precision  FLOAT32 to fill {@link Batch#inputs32} (for a single-precision network),
+     *                   FLOAT64 to fill {@link Batch#inputs}.
+     * @throws IllegalArgumentException if the batch size or the depth is not positive.
+     */
+    public BatchPrefetcher(Dataset dataset, int[] indices, int batchSize, int classCount, int depth,
+                           Precision precision) {
+        if (batchSize < 1 || depth < 1) {
+            throw new IllegalArgumentException("Batch size and depth must be positive.");
+        }
+        this.dataset = dataset;
+        this.indices = indices;
+        this.batchSize = batchSize;
+
+        this.oneHotTargets = new double[classCount][classCount];
+        for (int label = 0; label < classCount; label++) {
+            oneHotTargets[label][label] = 1.0;
+        }
+
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.filled = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++) {
+            free.add(new Batch(batchSize, dataset.inputSize(), precision));
+        }
+
+        this.loader = new Thread(this::load, "batch-prefetcher");
+        this.loader.setDaemon(true);
+        this.loader.start();
+    }
+
+    /**
+     * Returns the next batch, waiting for the loader thread if it is not ready yet.
+     * <p>
+     * The returned batch stays valid until the next call; its buffers are then reused.
+     *
+     * @return The next batch, or {@code null} when all samples have been delivered.
+     * @throws IllegalStateException if the loader thread failed or the wait was interrupted.
+     */
+    public Batch nextBatch() {
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        if (finished) {
+            return null;
+        }
+
+        Batch batch;
+        try {
+            batch = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next batch", e);
+        }
+        if (batch == END) {
+            finished = true;
+            if (failure != null) {
+                throw new IllegalStateException("Loading a batch failed", failure);
+            }
+            return null;
+        }
+        current = batch;
+        return batch;
+    }
+
+    /**
+     * Decodes all batches in order; runs on the loader thread.
+     */
+    private void load() {
+        try {
+            for (int start = 0; start < indices.length; start += batchSize) {
+                int size = Math.min(batchSize, indices.length - start);
+                Batch batch = free.take();
+                for (int i = 0; i < size; i++) {
+                    int index = indices[start + i];
+                    int label = dataset.label(index);
+                    if (batch.rows32 != null) {
+                        dataset.readPixels(index, batch.rows32[i]);
+                    } else {
+                        dataset.readPixels(index, batch.rows[i]);
+                    }
+                    batch.labels[i] = label;
+                    batch.rowTargets[i] = oneHotTargets[label];
+                }
+                batch.size = size;
+                if (batch.rows32 != null) {
+                    batch.inputs32 = size == batchSize ? batch.rows32 : Arrays.copyOf(batch.rows32, size);
+                } else {
+                    batch.inputs = size == batchSize ? batch.rows : Arrays.copyOf(batch.rows, size);
+                }
+                batch.targets = size == batchSize ? batch.rowTargets : Arrays.copyOf(batch.rowTargets, size);
+                filled.put(batch);
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (Throwable e) {
+            //Errors too: without the marker, the consumer would wait for the next batch forever
+            failure = e;
+        }
+        //The ring never holds more than depth batches, so there is always room for the marker
+        filled.add(END);
+    }
+
+    /**
+     * Stops the loader thread. Batches that were not consumed are discarded.
+     */
+    @Override
+    public void close() {
+        loader.interrupt();
+    }
+}
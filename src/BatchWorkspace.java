@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Preallocated buffers for propagating a mini-batch through a network.
+ * <p>
+ * Holds the layer outputs, the backpropagated errors and the accumulated gradients
+ * for up to {@code capacity} samples, so a batch can be processed without allocating.
+ * Every thread that trains on a part of a batch owns its own workspace.
+ * <p>
+ * For a single-precision network, only the float buffers (the fields ending in {@code 32})
+ * are allocated and the double ones are {@code null}, and vice versa.
+ */
+public class BatchWorkspace {
+
+    /**
+     * The maximum number of samples this workspace can hold.
+     */
+    public final int capacity;
+
+    /**
+     * References to the input vectors of the samples currently being processed.
+     * Dimensions: [capacity].
+     */
+    public final double[][] inputs;
+
+    /**
+     * Sparse copies of the input vectors, used by the first layer when the batch is sparse enough.
+     * Dimensions: [capacity].
+     */
+    public final SparseInput[] sparseInputs;
+
+    /**
+     * Whether {@link #sparseInputs} holds the current batch, i.e. the first layer runs on the sparse kernels.
+     */
+    public boolean sparse;
+
+    /**
+     * Activations produced by every layer.
+     * Dimensions: [layer][capacity][outputSize].
+     */
+    public final double[][][] outputs;
+
+    /**
+     * Errors backpropagated to every layer.
+     * Dimensions: [layer][capacity][outputSize].
+     */
+    public final double[][][] deltas;
+
+    /**
+     * Gradients summed over all processed samples, laid out like {@link ParameterStore#parameters}.
+     */
+    public final double[] gradients;
+
+    /**
+     * References to the single-precision input vectors of the samples currently being processed.
+     * Dimensions: [capacity].
+     */
+    public final float[][] inputs32;
+
+    /**
+     * Buffers receiving double-precision inputs narrowed to single precision.
+     * Dimensions: [capacity][inputSize].
+     */
+    public final float[][] rows32;
+
+    /**
+     * Single-precision activations produced by every layer.
+     * Dimensions: [layer][capacity][outputSize].
+     */
+    public final float[][][] outputs32;
+
+    /**
+     * Single-precision errors backpropagated to every layer.
+     * Dimensions: [layer][capacity][outputSize].
+     */
+    public final float[][][] deltas32;
+
+    /**
+     * Single-precision gradients summed over all processed samples, laid out like
+     * {@link ParameterStore#parameters32}.
+     */
+    public final float[] gradients32;
+
+    /**
+     * Allocates a double-precision workspace matching the shapes of the given layers.
+     *
+     * @param layers         The layers of the network this workspace is used with.
+     * @param parameterCount The total number of parameters of the network.
+     * @param capacity       The maximum number of samples processed at once.
+     */
+    public BatchWorkspace(List<Layer> layers, int parameterCount, int capacity) {
+        this(layers, parameterCount, capacity, Precision.FLOAT64);
+    }
+
+    /**
+     * Allocates a workspace matching the shapes and the precision of the given layers.
+     *
+     * @param layers         The layers of the network this workspace is used with.
+     * @param parameterCount The total number of parameters of the network.
+     * @param capacity       The maximum number of samples processed at once.
+     * @param precision      The precision of the network's parameters.
+     */
+    public BatchWorkspace(List<Layer> layers, int parameterCount, int capacity, Precision precision) {
+        this.capacity = capacity;
+        int inputSize = layers.get(0).inputSize;
+        if (precision == Precision.FLOAT32) {
+            this.inputs = null;
+            this.sparseInputs = null;
+            this.outputs = null;
+            this.deltas = null;
+            this.gradients = null;
+            this.inputs32 = new float[capacity][];
+            this.rows32 = new float[capacity][inputSize];
+            this.outputs32 = new float[layers.size()][][];
+            this.deltas32 = new float[layers.size()][][];
+            this.gradients32 = new float[parameterCount];
+            for (int i = 0; i < layers.size(); i++) {
+                int outputSize = layers.get(i).outputSize;
+                this.outputs32[i] = new float[capacity][outputSize];
+                this.deltas32[i] = new float[capacity][outputSize];
+            }
+            return;
+        }
+
+        this.inputs32 = null;
+        this.rows32 = null;
+        this.outputs32 = null;
+        this.deltas32 = null;
+        this.gradients32 = null;
+        this.inputs = new double[capacity][];
+        this.outputs = new double[layers.size()][][];
+        this.deltas = new double[layers.size()][][];
+        this.gradients = new double[parameterCount];
+        this.sparseInputs = new SparseInput[capacity];
+        for (int s = 0; s < capacity; s++) {
+            this.sparseInputs[s] = new SparseInput(inputSize);
+        }
+
+        for (int i = 0; i < layers.size(); i++) {
+            int outputSize = layers.get(i).outputSize;
+            this.outputs[i] = new double[capacity][outputSize];
+            this.deltas[i] = new double[capacity][outputSize];
+        }
+    }
+
+    /**
+     * Resets all accumulated gradients to zero.
+     */
+    public void clearGradients() {
+        if (gradients32 != null) {
+            Arrays.fill(gradients32, 0.0f);
+        } else {
+            Arrays.fill(gradients, 0.0);
+        }
+    }
+
+    /**
+     * Adds the gradients accumulated in another workspace to this one.
+     *
+     * @param other A workspace created for the same network.
+     */
+    public void addGradients(BatchWorkspace other) {
+        if (gradients32 != null) {
+            float[] source = other.gradients32;
+            for (int i = 0; i < gradients32.length; i++) {
+                gradients32[i] += source[i];
+            }
+            return;
+        }
+        double[] source = other.gradients;
+        for (int i = 0; i < gradients.length; i++) {
+            gradients[i] += source[i];
+        }
+    }
+}
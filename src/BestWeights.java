@@ -0,0 +1,134 @@
+/**
+ * Keeps a copy of the best weights and biases seen during training, for early stopping.
+ * <p>
+ * The buffer is allocated once, with the size of the network's flat parameter array.
+ * Capturing an improvement is a single copy into it (widening the parameters of a
+ * single-precision network), and restoring is a single copy back; nothing is reallocated
+ * or serialized.
+ */
+public final class BestWeights {
+
+    private final double[] parameters;
+    private double score = Double.NEGATIVE_INFINITY;
+    private int epoch = -1;
+
+    /**
+     * Allocates a buffer for the parameters of a network.
+     *
+     * @param network The network whose weights will be captured.
+     */
+    public BestWeights(NeuralNetwork network) {
+        this.parameters = new double[network.parameterCount()];
+    }
+
+    /**
+     * Captures the network's current weights if the score beats the best one so far.
+     *
+     * @param epoch   The epoch that produced the weights.
+     * @param score   The validation score of the weights (higher is better).
+     * @param network The network to copy the weights from.
+     * @return {@code true} if the score was an improvement and the weights were captured.
+     * @throws IllegalArgumentException if the network has a different number of parameters.
+     */
+    public boolean offer(int epoch, double score, NeuralNetwork network) {
+        checkSize(network.parameterCount());
+        if (!(score > this.score)) {
+            return false;
+        }
+        network.copyParameters(parameters);
+        this.score = score;
+        this.epoch = epoch;
+        return true;
+    }
+
+    /**
+     * Captures the weights of a scored snapshot if its score beats the best one so far.
+     *
+     * @param result The score of a snapshot, from {@link AsyncValidator}.
+     * @return {@code true} if the score was an improvement and the weights were captured.
+     * @throws IllegalArgumentException if the snapshot has a different number of parameters.
+     */
+    public boolean offer(AsyncValidator.Result result) {
+        return offer(result.epoch, result.accuracy, result.model.parameters());
+    }
+
+    private boolean offer(int epoch, double score, double[] source) {
+        checkSize(source.length);
+        if (!(score > this.score)) {
+            return false;
+        }
+        System.arraycopy(source, 0, parameters, 0, parameters.length);
+        this.score = score;
+        this.epoch = epoch;
+        return true;
+    }
+
+    /**
+     * Tells whether any weights have been captured.
+     *
+     * @return {@code true} after the first successful offer.
+     */
+    public boolean isEmpty() {
+        return epoch < 0;
+    }
+
+    /**
+     * Returns the best score so far.
+     *
+     * @return The score of the captured weights, or negative infinity if nothing was captured.
+     */
+    public double score() {
+        return score;
+    }
+
+    /**
+     * Returns the epoch of the captured weights.
+     *
+     * @return The epoch passed with the best score, or -1 if nothing was captured.
+     */
+    public int epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the live buffer of captured weights, used by {@link Checkpoint}.
+     *
+     * @return The parameter buffer.
+     */
+    double[] parameters() {
+        return parameters;
+    }
+
+    /**
+     * Records the epoch and score of weights that were written into {@link #parameters()} directly,
+     * when a {@link Checkpoint} is restored.
+     *
+     * @param epoch The epoch of the weights, or -1 if none were captured.
+     * @param score The score of the weights.
+     */
+    void restored(int epoch, double score) {
+        this.epoch = epoch;
+        this.score = score;
+    }
+
+    /**
+     * Copies the captured weights back into a network. The optimizer state is left untouched.
+     *
+     * @param network The network to restore.
+     * @throws IllegalStateException    if nothing has been captured.
+     * @throws IllegalArgumentException if the network has a different number of parameters.
+     */
+    public void restore(NeuralNetwork network) {
+        if (isEmpty()) {
+            throw new IllegalStateException("No weights have been captured.");
+        }
+        checkSize(network.parameterCount());
+        network.setParameters(parameters);
+    }
+
+    private void checkSize(int count) {
+        if (count != parameters.length) {
+            throw new IllegalArgumentException("Expected " + parameters.length + " parameters but got " + count + ".");
+        }
+    }
+}
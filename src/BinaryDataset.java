@@ -0,0 +1,274 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Fashion-MNIST dataset stored in a compact binary file and memory-mapped on load.
+ * <p>
+ * The file layout (all integers big-endian) is:
+ * <pre>
+ *   int    magic       0x464D4E42 ("FMNB")
+ *   int    version     1
+ *   int    count       number of images
+ *   int    rows        image height (28)
+ *   int    columns     image width (28)
+ *   byte   pixels      [count][rows * columns], unsigned 0-255
+ *   byte   labels      [count]
+ * </pre>
+ * Opening a file only maps it; nothing is parsed. Images are decoded on access (see
+ * {@link #readPixels} and {@link Dataset#asList()}), straight from the page cache, so
+ * loading is near-instant and the raw data costs one byte per pixel.
+ * Reads use absolute positions only, so one instance can be shared by many threads.
+ */
+public final class BinaryDataset implements Dataset {
+
+    /**
+     * The magic number identifying the file format ("FMNB").
+     */
+    public static final int MAGIC = 0x464D4E42;
+
+    /**
+     * The current version of the file format.
+     */
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int rows;
+    private final int columns;
+    private final int imageSize;
+    private final int labelsOffset;
+
+    /**
+     * Wraps a mapped file whose header has already been validated.
+     */
+    private BinaryDataset(MappedByteBuffer buffer, int count, int rows, int columns) {
+        this.buffer = buffer;
+        this.count = count;
+        this.rows = rows;
+        this.columns = columns;
+        this.imageSize = rows * columns;
+        this.labelsOffset = HEADER_SIZE + count * imageSize;
+    }
+
+    /**
+     * Memory-maps a binary dataset file.
+     *
+     * @param path The path of the binary file.
+     * @return The mapped dataset.
+     * @throws IOException if the file cannot be read or is not a valid dataset file.
+     */
+    public static BinaryDataset open(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("File " + path + " is too small to be a dataset file.");
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("File " + path + " is too large to be mapped.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            int magic = buffer.getInt(0);
+            int version = buffer.getInt(4);
+            int count = buffer.getInt(8);
+            int rows = buffer.getInt(12);
+            int columns = buffer.getInt(16);
+            if (magic != MAGIC) {
+                throw new IOException("File " + path + " is not a dataset file (bad magic number).");
+            }
+            if (version != VERSION) {
+                throw new IOException("File " + path + " has unsupported version " + version + ".");
+            }
+            if (count < 0 || rows <= 0 || columns <= 0
+                    || HEADER_SIZE + (long) count * rows * columns + count != fileSize) {
+                throw new IOException("File " + path + " is truncated or has an inconsistent header.");
+            }
+            return new BinaryDataset(buffer, count, rows, columns);
+        }
+    }
+
+    /**
+     * Opens the binary twin of a CSV dataset, converting the CSV files first if the binary
+     * file does not exist yet or is older than either of them.
+     * <p>
+     * The binary file is stored next to the vectors file, with the {@code .csv} extension
+     * replaced by {@code .bin}.
+     *
+     * @param vectorsPath The CSV file with one comma-separated pixel vector (0-255) per line.
+     * @param labelsPath  The CSV file with one label per line.
+     * @param rows        The image height.
+     * @param columns     The image width.
+     * @return The mapped dataset.
+     * @throws IOException if the conversion fails or the binary file cannot be mapped.
+     */
+    public static BinaryDataset openOrConvert(String vectorsPath, String labelsPath, int rows, int columns)
+            throws IOException {
+        String binaryPath = binaryPathFor(vectorsPath);
+        File binary = new File(binaryPath);
+        if (!binary.isFile()
+                || binary.lastModified() < new File(vectorsPath).lastModified()
+                || binary.lastModified() < new File(labelsPath).lastModified()) {
+            convert(vectorsPath, labelsPath, binaryPath, rows, columns);
+        }
+        return open(binaryPath);
+    }
+
+    /**
+     * Returns the path of the binary file belonging to a CSV vectors file.
+     *
+     * @param vectorsPath The CSV file with the pixel vectors.
+     * @return The same path with the {@code .csv} extension replaced by {@code .bin}.
+     */
+    public static String binaryPathFor(String vectorsPath) {
+        String base = vectorsPath.endsWith(".csv") ? vectorsPath.substring(0, vectorsPath.length() - 4) : vectorsPath;
+        return base + ".bin";
+    }
+
+    /**
+     * Converts a pair of Fashion-MNIST CSV files (pixel vectors and labels) into a binary dataset file.
+     * <p>
+     * Both files are parsed with the parallel byte-level parser of {@link DataReader}. If the
+     * files have a different number of lines, only the lines present in both are converted.
+     *
+     * @param vectorsPath The CSV file with one comma-separated pixel vector (0-255) per line.
+     * @param labelsPath  The CSV file with one label per line.
+     * @param outputPath  The binary file to create (overwritten if it exists).
+     * @param rows        The image height.
+     * @param columns     The image width.
+     * @return The number of converted images.
+     * @throws IOException if a file cannot be read or written, or the CSV files are malformed.
+     */
+    public static int convert(String vectorsPath, String labelsPath, String outputPath, int rows, int columns)
+            throws IOException {
+        int imageSize = rows * columns;
+        byte[] pixels = DataReader.parseBytes(vectorsPath, imageSize);
+        byte[] labels = DataReader.parseBytes(labelsPath, 1);
+        int count = Math.min(pixels.length / imageSize, labels.length);
+
+        try (FileChannel channel = FileChannel.open(Path.of(outputPath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(rows).putInt(columns);
+            long position = writeFully(channel, header.flip(), 0);
+            position += writeFully(channel, ByteBuffer.wrap(pixels, 0, count * imageSize), position);
+            writeFully(channel, ByteBuffer.wrap(labels, 0, count), position);
+        }
+        return count;
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer at the given position.
+     *
+     * @return The number of bytes written.
+     */
+    private static long writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+        long written = 0;
+        while (source.hasRemaining()) {
+            written += channel.write(source, position + written);
+        }
+        return written;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public int inputSize() {
+        return imageSize;
+    }
+
+    /**
+     * Returns the image height.
+     *
+     * @return The number of pixel rows of every image.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the image width.
+     *
+     * @return The number of pixel columns of every image.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    @Override
+    public int label(int index) {
+        checkIndex(index);
+        return buffer.get(labelsOffset + index) & 0xFF;
+    }
+
+    /**
+     * Returns the raw value of one pixel.
+     *
+     * @param index The index of the image.
+     * @param pixel The index of the pixel within the image.
+     * @return The pixel value (0-255).
+     */
+    public int rawPixel(int index, int pixel) {
+        checkIndex(index);
+        return buffer.get(HEADER_SIZE + index * imageSize + pixel) & 0xFF;
+    }
+
+    @Override
+    public void readPixels(int index, double[] target) {
+        checkIndex(index);
+        int position = HEADER_SIZE + index * imageSize;
+        for (int i = 0; i < imageSize; i++) {
+            target[i] = DataReader.NORMALIZED_PIXELS[buffer.get(position + i) & 0xFF];
+        }
+    }
+
+    @Override
+    public void readPixels(int index, float[] target) {
+        checkIndex(index);
+        int position = HEADER_SIZE + index * imageSize;
+        for (int i = 0; i < imageSize; i++) {
+            target[i] = DataReader.NORMALIZED_PIXELS_32[buffer.get(position + i) & 0xFF];
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Image " + index + " out of range [0, " + count + ")");
+        }
+    }
+
+    /**
+     * Converts the Fashion-MNIST CSV files in the data folder to binary dataset files.
+     * <p>
+     * Usage: {@code java BinaryDataset [vectors.csv labels.csv]}. Without arguments, both the
+     * training and the test set in {@code data/} are converted. Each output file is written
+     * next to its vectors file (see {@link #binaryPathFor}).
+     *
+     * @param args Optional paths of one CSV pair.
+     * @throws IOException if a conversion fails.
+     */
+    public static void main(String[] args) throws IOException {
+        String[][] pairs = args.length == 2
+                ? new String[][]{args}
+                : new String[][]{
+                {"data/fashion_mnist_train_vectors.csv", "data/fashion_mnist_train_labels.csv"},
+                {"data/fashion_mnist_test_vectors.csv", "data/fashion_mnist_test_labels.csv"}};
+
+        for (String[] pair : pairs) {
+            long start = System.currentTimeMillis();
+            String binaryPath = binaryPathFor(pair[0]);
+            int count = convert(pair[0], pair[1], binaryPath, 28, 28);
+            System.out.println("Converted " + count + " images to " + binaryPath
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+}
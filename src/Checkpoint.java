@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Saves and restores {@link NeuralNetwork}s in a versioned binary checkpoint file.
+ * <p>
+ * The file layout (all values little-endian) is:
+ * <pre>
+ *   int     magic            0x46464E43 ("FFNC")
+ *   int     version          3
+ *   int     layerCount       number of layer sizes, including the input layer
+ *   int     sizes            [layerCount]
+ *   double  learningRate, momentum, lambda
+ *   int     statePrecision   ordinal of the optimizer state {@link Precision}
+ *   int     precision        ordinal of the network's {@link Precision}
+ *   int     parameterCount
+ *   pad to a multiple of 8 bytes
+ *   double  parameters       [parameterCount], all weights (row-major) then all biases, widened to
+ *                            double for a single-precision network
+ *   int     optimizerCount
+ *   repeated optimizerCount times:
+ *     int   slot             1 = momentum optimizer, 2 = Adam optimizer
+ *     int   stateSize        size of the following state in bytes
+ *   byte    state            [stateSize], see {@link Optimizer#writeState}
+ *   int     completedEpochs, validatedEpochs, epochsWithoutImprovement
+ *   int     stopping         1 if early stopping ended the run, else 0
+ *   int     bestEpoch        epoch of the best weights, -1 if none were captured
+ *   double  bestScore
+ *   double  bestParameters   [parameterCount], only if bestEpoch is not -1
+ * </pre>
+ * Only the optimizers the network has actually used are stored, including the Adam step
+ * counter and bias-correction powers. Together with the {@link TrainingProgress} (completed
+ * epochs, early-stopping counter and best weights), training resumes exactly where it stopped.
+ * <p>
+ * The parameters are 8-byte aligned so {@link #mapForInference} can serve them from the page
+ * cache: the weights are never heap-resident as a whole, each forward pass streams them one row
+ * at a time through a small per-thread buffer.
+ */
+public final class Checkpoint {
+
+    /**
+     * The magic number identifying the file format ("FFNC").
+     */
+    public static final int MAGIC = 0x46464E43;
+
+    /**
+     * The current version of the file format.
+     */
+    public static final int VERSION = 3;
+
+    private static final int MOMENTUM_SLOT = 1;
+    private static final int ADAM_SLOT = 2;
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private Checkpoint() {
+    }
+
+    /**
+     * Writes a checkpoint of the network, with the progress of a run that has not started.
+     *
+     * @param network The network to save.
+     * @param path    The checkpoint file (overwritten if it exists).
+     * @throws IOException if the file cannot be written.
+     */
+    public static void save(NeuralNetwork network, String path) throws IOException {
+        save(network, new TrainingProgress(network), path);
+    }
+
+    /**
+     * Writes a checkpoint of the network and of the training loop's progress.
+     * <p>
+     * The checkpoint is written to a temporary file next to the target and then moved over
+     * it, so an interrupted save never leaves a truncated checkpoint behind.
+     *
+     * @param network  The network to save.
+     * @param progress The progress of the training loop.
+     * @param path     The checkpoint file (overwritten if it exists).
+     * @throws IOException if the file cannot be written.
+     */
+    public static void save(NeuralNetwork network, TrainingProgress progress, String path) throws IOException {
+        int[] sizes = network.layerSizes();
+        double[] parameters = new double[network.parameterCount()];
+        network.copyParameters(parameters);
+        Optimizer momentum = network.momentumOptimizerOrNull();
+        Optimizer adam = network.adamOptimizerOrNull();
+
+        long parametersOffset = parametersOffset(sizes.length);
+        BestWeights best = progress.bestWeights;
+        long fileSize = parametersOffset + (long) parameters.length * Double.BYTES + Integer.BYTES
+                + 5L * Integer.BYTES + Double.BYTES + (best.isEmpty() ? 0 : (long) parameters.length * Double.BYTES);
+        int optimizerCount = 0;
+        for (Optimizer optimizer : new Optimizer[]{momentum, adam}) {
+            if (optimizer != null) {
+                fileSize += 2 * Integer.BYTES + optimizer.stateSize();
+                optimizerCount++;
+            }
+        }
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Network is too large for a checkpoint file.");
+        }
+
+        Path target = Path.of(path).toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(sizes.length);
+            for (int size : sizes) {
+                buffer.putInt(size);
+            }
+            buffer.putDouble(network.learningRate()).putDouble(network.momentum()).putDouble(network.lambda());
+            buffer.putInt(network.statePrecision().ordinal()).putInt(network.precision().ordinal());
+            buffer.putInt(parameters.length);
+
+            buffer.position((int) parametersOffset);
+            buffer.asDoubleBuffer().put(parameters);
+            buffer.position(buffer.position() + parameters.length * Double.BYTES);
+
+            buffer.putInt(optimizerCount);
+            writeOptimizer(buffer, MOMENTUM_SLOT, momentum);
+            writeOptimizer(buffer, ADAM_SLOT, adam);
+
+            buffer.putInt(progress.completedEpochs).putInt(progress.validatedEpochs)
+                    .putInt(progress.epochsWithoutImprovement).putInt(progress.stopping ? 1 : 0);
+            buffer.putInt(best.epoch()).putDouble(best.score());
+            if (!best.isEmpty()) {
+                buffer.asDoubleBuffer().put(best.parameters());
+            }
+            buffer.force();
+        }
+
+        try {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes one optimizer slot, if the optimizer exists.
+     */
+    private static void writeOptimizer(ByteBuffer buffer, int slot, Optimizer optimizer) {
+        if (optimizer == null) {
+            return;
+        }
+        buffer.putInt(slot).putInt(optimizer.stateSize());
+        optimizer.writeState(buffer);
+    }
+
+    /**
+     * Restores a network, including its optimizer state, from a checkpoint file.
+     *
+     * @param path The checkpoint file.
+     * @return A network with the saved topology, hyperparameters, parameters and optimizer state.
+     * @throws IOException if the file cannot be read or is not a valid checkpoint.
+     */
+    public static NeuralNetwork load(String path) throws IOException {
+        ByteBuffer buffer = map(path);
+        Header header = readHeader(buffer, path);
+
+        NeuralNetwork network = new NeuralNetwork(header.learningRate, header.momentum, header.lambda,
+                header.precision, header.statePrecision, new Random(0), header.sizes);
+        if (network.parameterCount() != header.parameterCount) {
+            throw new IOException("Checkpoint " + path + " has " + header.parameterCount
+                    + " parameters but its topology needs " + network.parameterCount() + ".");
+        }
+
+        buffer.position(header.parametersOffset);
+        double[] parameters = new double[header.parameterCount];
+        buffer.asDoubleBuffer().get(parameters);
+        network.setParameters(parameters);
+        buffer.position(buffer.position() + header.parameterCount * Double.BYTES);
+
+        int optimizerCount = buffer.getInt();
+        for (int i = 0; i < optimizerCount; i++) {
+            int slot = buffer.getInt();
+            int stateSize = buffer.getInt();
+            Optimizer optimizer;
+            if (slot == MOMENTUM_SLOT) {
+                optimizer = network.momentumOptimizer();
+            } else if (slot == ADAM_SLOT) {
+                optimizer = network.adamOptimizer();
+            } else {
+                throw new IOException("Checkpoint " + path + " has unknown optimizer slot " + slot + ".");
+            }
+            int end = buffer.position() + stateSize;
+            optimizer.readState(buffer);
+            if (buffer.position() != end) {
+                throw new IOException("Checkpoint " + path + " has an inconsistent optimizer state size.");
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Restores the progress of the training loop from a checkpoint file.
+     *
+     * @param path     The checkpoint file.
+     * @param progress The progress to fill, created for the network restored by {@link #load}.
+     * @throws IOException if the file cannot be read, is not a valid checkpoint or was saved for a
+     *                     network with a different number of parameters.
+     */
+    public static void loadProgress(String path, TrainingProgress progress) throws IOException {
+        ByteBuffer buffer = map(path);
+        Header header = readHeader(buffer, path);
+        double[] bestParameters = progress.bestWeights.parameters();
+        if (bestParameters.length != header.parameterCount) {
+            throw new IOException("Checkpoint " + path + " has " + header.parameterCount
+                    + " parameters but the network has " + bestParameters.length + ".");
+        }
+
+        try {
+            buffer.position(header.parametersOffset + header.parameterCount * Double.BYTES);
+            int optimizerCount = buffer.getInt();
+            for (int i = 0; i < optimizerCount; i++) {
+                buffer.getInt();
+                int stateSize = buffer.getInt();
+                buffer.position(buffer.position() + stateSize);
+            }
+
+            progress.completedEpochs = buffer.getInt();
+            progress.validatedEpochs = buffer.getInt();
+            progress.epochsWithoutImprovement = buffer.getInt();
+            progress.stopping = buffer.getInt() != 0;
+            int bestEpoch = buffer.getInt();
+            double bestScore = buffer.getDouble();
+            if (bestEpoch >= 0) {
+                buffer.asDoubleBuffer().get(bestParameters);
+            }
+            progress.bestWeights.restored(bestEpoch, bestScore);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Checkpoint " + path + " is truncated.", e);
+        }
+    }
+
+    /**
+     * Memory-maps the parameters of a checkpoint for inference.
+     * <p>
+     * The weights stay in the mapped file and are never copied onto the heap as a whole: every
+     * forward pass copies one weight row at a time out of the page cache into a per-thread
+     * {@link MappedModel.Buffers buffer}. Optimizer state is ignored.
+     *
+     * @param path The checkpoint file.
+     * @return An immutable, thread-safe inference model backed by the file.
+     * @throws IOException if the file cannot be read or is not a valid checkpoint.
+     */
+    public static MappedModel mapForInference(String path) throws IOException {
+        ByteBuffer buffer = map(path);
+        Header header = readHeader(buffer, path);
+        long expected = 0;
+        for (int i = 0; i < header.sizes.length - 1; i++) {
+            expected += (long) header.sizes[i] * header.sizes[i + 1] + header.sizes[i + 1];
+        }
+        if (expected != header.parameterCount) {
+            throw new IOException("Checkpoint " + path + " has " + header.parameterCount
+                    + " parameters but its topology needs " + expected + ".");
+        }
+        ByteBuffer parameters = buffer.slice(header.parametersOffset, header.parameterCount * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        return new MappedModel(parameters.asDoubleBuffer(), header.sizes);
+    }
+
+    /**
+     * Maps a whole checkpoint file read-only.
+     */
+    private static ByteBuffer map(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("File " + path + " is too large to be mapped.");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Reads and validates the header, leaving the buffer positioned after it.
+     */
+    private static Header readHeader(ByteBuffer buffer, String path) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("File " + path + " is not a checkpoint (bad magic number).");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Checkpoint " + path + " has unsupported version " + version + ".");
+            }
+            int layerCount = buffer.getInt();
+            if (layerCount < 2 || layerCount > 1024) {
+                throw new IOException("Checkpoint " + path + " has an invalid layer count " + layerCount + ".");
+            }
+            Header header = new Header();
+            header.sizes = new int[layerCount];
+            for (int i = 0; i < layerCount; i++) {
+                header.sizes[i] = buffer.getInt();
+                if (header.sizes[i] <= 0) {
+                    throw new IOException("Checkpoint " + path + " has an invalid layer size.");
+                }
+            }
+            header.learningRate = buffer.getDouble();
+            header.momentum = buffer.getDouble();
+            header.lambda = buffer.getDouble();
+            header.statePrecision = readPrecision(buffer, path);
+            header.precision = readPrecision(buffer, path);
+            if (header.precision == Precision.FLOAT32 && header.statePrecision != Precision.FLOAT32) {
+                throw new IOException("Checkpoint " + path + " has double optimizer state for a float network.");
+            }
+            header.parameterCount = buffer.getInt();
+            header.parametersOffset = (int) parametersOffset(layerCount);
+            if (header.parameterCount < 0
+                    || header.parametersOffset + (long) header.parameterCount * Double.BYTES + Integer.BYTES
+                    > buffer.limit()) {
+                throw new IOException("Checkpoint " + path + " is truncated or has an inconsistent header.");
+            }
+            return header;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Checkpoint " + path + " is truncated.", e);
+        }
+    }
+
+    /**
+     * Reads and validates the ordinal of a {@link Precision}.
+     */
+    private static Precision readPrecision(ByteBuffer buffer, String path) throws IOException {
+        int precision = buffer.getInt();
+        if (precision < 0 || precision >= Precision.values().length) {
+            throw new IOException("Checkpoint " + path + " has an unknown precision " + precision + ".");
+        }
+        return Precision.values()[precision];
+    }
+
+    /**
+     * Returns the 8-byte aligned offset of the parameters for a given number of layer sizes.
+     */
+    private static long parametersOffset(int layerCount) {
+        long headerSize = 3L * Integer.BYTES + (long) layerCount * Integer.BYTES
+                + 3L * Double.BYTES + 3L * Integer.BYTES;
+        return (headerSize + 7) & ~7L;
+    }
+
+    /**
+     * The decoded header of a checkpoint file.
+     */
+    private static final class Header {
+        int[] sizes;
+        double learningRate;
+        double momentum;
+        double lambda;
+        Precision statePrecision;
+        Precision precision;
+        int parameterCount;
+        int parametersOffset;
+    }
+}
@@ -1,60 +1,277 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
  * Utility class responsible for loading and parsing the Fashion-MNIST dataset
  * from CSV files.
+ * <p>
+ * The CSV files are parsed at the byte level: large chunks are read from a {@link FileChannel}
+ * and digits are accumulated directly into a reusable row buffer, without creating a single
+ * String per value. Big files are split at line boundaries into segments that are parsed in
+ * parallel and joined back in file order.
  */
 public class DataReader {
 
+    /**
+     * Lookup table mapping a raw pixel value (0-255) to its normalized value (0.0 to 1.0).
+     */
+    static final double[] NORMALIZED_PIXELS = new double[256];
+
+    /**
+     * The same table rounded to single precision, for single-precision networks.
+     */
+    static final float[] NORMALIZED_PIXELS_32 = new float[256];
+
+    static {
+        for (int i = 0; i < NORMALIZED_PIXELS.length; i++) {
+            NORMALIZED_PIXELS[i] = i / 255.0;
+            NORMALIZED_PIXELS_32[i] = (float) NORMALIZED_PIXELS[i];
+        }
+    }
+
+    /**
+     * Size of the chunks read from the file by each parser.
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Files smaller than this (per available core) are not worth splitting.
+     */
+    private static final long MIN_SEGMENT_SIZE = 1 << 20;
+
     /**
      * Loads image data and labels from the specified CSV files.
      * <p>
-     * It reads both files simultaneously line-by-line. Pixel values are parsed
-     * from the vector file and normalized from the range [0, 255] to [0.0, 1.0].
+     * Pixel values are parsed from the vector file and normalized from the range
+     * [0, 255] to [0.0, 1.0]. If the files have a different number of lines, only
+     * the lines present in both are loaded.
      *
      * @param vectorsPath The file path to the CSV containing the image pixel vectors.
      * @param labelsPath  The file path to the CSV containing the corresponding labels.
-     * @return A list of MnistImage objects containing the normalized pixels and labels.
+     * @return A list of MnistImage objects containing the normalized pixels and labels, in file order.
      */
     public static List<MnistImage> loadData(String vectorsPath, String labelsPath) {
         List<MnistImage> images = new ArrayList<>();
 
-        try (BufferedReader brVectors = new BufferedReader(new FileReader(vectorsPath));
-             BufferedReader brLabels = new BufferedReader(new FileReader(labelsPath))) {
+        try {
+            final int imageSize = 784;
+            byte[] pixels = parseBytes(vectorsPath, imageSize);
+            byte[] labels = parseBytes(labelsPath, 1);
 
-
-            String vectorLine;
-            String labelLine;
-
-            while ((vectorLine = brVectors.readLine()) != null && (labelLine = brLabels.readLine()) != null) {
-                int label = Integer.parseInt(labelLine);
-
-                String[] pixelStrings = vectorLine.split(",");
-                double[] pixels = new double[784];
-                for (int i = 0; i < 784; i++) {
-                    pixels[i] = Integer.parseInt(pixelStrings[i]) / 255.0;
+            int count = Math.min(pixels.length / imageSize, labels.length);
+            for (int i = 0; i < count; i++) {
+                double[] normalized = new double[imageSize];
+                int offset = i * imageSize;
+                for (int j = 0; j < imageSize; j++) {
+                    normalized[j] = NORMALIZED_PIXELS[pixels[offset + j] & 0xFF];
                 }
-
-                images.add(new MnistImage(pixels, label));
+                images.add(new MnistImage(normalized, labels[i] & 0xFF));
             }
 
         } catch (IOException e) {
             System.err.println("Error reading data files");
             e.printStackTrace();
-        } catch (NumberFormatException e) {
-            System.err.println("Error parsing a number from the data files");
-            e.printStackTrace();
         }
 
         return images;
     }
 
+    /**
+     * Parses a CSV file of unsigned byte values (0-255) with a fixed number of columns.
+     * <p>
+     * Empty lines are skipped. The file is split into up to one segment per available core,
+     * each starting right after a line break; the segments are parsed in parallel and
+     * concatenated in file order.
+     *
+     * @param path    The CSV file.
+     * @param columns The number of values on every line.
+     * @return All values of the file, row after row ([rows * columns]).
+     * @throws IOException if the file cannot be read, or a line is malformed or has the wrong number of values.
+     */
+    public static byte[] parseBytes(String path, int columns) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int cores = Runtime.getRuntime().availableProcessors();
+            int segments = (int) Math.max(1, Math.min(cores, size / MIN_SEGMENT_SIZE));
+
+            long[] bounds = new long[segments + 1];
+            bounds[segments] = size;
+            for (int s = 1; s < segments; s++) {
+                bounds[s] = Math.max(bounds[s - 1], nextLineStart(channel, size * s / segments, size));
+            }
+
+            if (segments == 1) {
+                return new SegmentParser(channel, path, 0, size, columns).call();
+            }
+
+            List<Callable<byte[]>> tasks = new ArrayList<>(segments);
+            for (int s = 0; s < segments; s++) {
+                tasks.add(new SegmentParser(channel, path, bounds[s], bounds[s + 1], columns));
+            }
+            List<byte[]> parts = runAll(tasks);
+
+            int total = 0;
+            for (byte[] part : parts) {
+                total += part.length;
+            }
+            byte[] result = new byte[total];
+            int offset = 0;
+            for (byte[] part : parts) {
+                System.arraycopy(part, 0, result, offset, part.length);
+                offset += part.length;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Finds the first position at or after {@code position} that starts a line.
+     *
+     * @return The index right after the first line break at or after {@code position - 1}, or the file size.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long current = Math.max(0, position - 1);
+        while (current < size) {
+            buffer.clear();
+            int read = channel.read(buffer, current);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return current + i + 1;
+                }
+            }
+            current += read;
+        }
+        return size;
+    }
+
+    /**
+     * Runs the tasks on a temporary thread pool and returns their results in task order.
+     */
+    private static <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size(), runnable -> {
+            Thread thread = new Thread(runnable, "csv-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Parsing was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Parsing failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Parses the lines of one segment of a CSV file.
+     */
+    private static final class SegmentParser implements Callable<byte[]> {
+
+        private final FileChannel channel;
+        private final String path;
+        private final long start;
+        private final long end;
+        private final int columns;
+
+        //Reusable buffer of the row being parsed
+        private final byte[] row;
+        private int column;
+        private final PixelValueParser pixel = new PixelValueParser();
+
+        private byte[] output;
+        private int outputSize;
+
+        SegmentParser(FileChannel channel, String path, long start, long end, int columns) {
+            this.channel = channel;
+            this.path = path;
+            this.start = start;
+            this.end = end;
+            this.columns = columns;
+            this.row = new byte[columns];
+            this.output = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(columns, (end - start) / 2))];
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            byte[] bytes = buffer.array();
+            long position = start;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(CHUNK_SIZE, end - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    byte b = bytes[i];
+                    if (b == ',') {
+                        endValue(position + i);
+                    } else if (b == '\n') {
+                        endRow(position + i);
+                    } else if (!pixel.accept(b)) {
+                        throw new IOException("Unexpected character '" + (char) b + "' at byte " + (position + i)
+                                + " of " + path);
+                    }
+                }
+                position += read;
+            }
+            endRow(end);
+            return Arrays.copyOf(output, outputSize);
+        }
+
+        private void endValue(long position) throws IOException {
+            if (!pixel.isValid() || column == columns) {
+                throw new IOException("Malformed value at byte " + position + " of " + path);
+            }
+            row[column++] = (byte) pixel.value();
+            pixel.reset();
+        }
+
+        private void endRow(long position) throws IOException {
+            if (column == 0 && !pixel.hasDigits()) {
+                return;
+            }
+            endValue(position);
+            if (column != columns) {
+                throw new IOException("Expected " + columns + " values but found " + column
+                        + " on the line ending at byte " + position + " of " + path);
+            }
+            if (outputSize + columns > output.length) {
+                output = Arrays.copyOf(output, Math.max(output.length * 2, outputSize + columns));
+            }
+            System.arraycopy(row, 0, output, outputSize, columns);
+            outputSize += columns;
+            column = 0;
+        }
+    }
+
 
     /**
      * A simple test method to verify that data loading works correctly.
@@ -70,10 +287,12 @@ public class DataReader {
         System.out.println("Vectors: " + trainVectorsPath);
         System.out.println("Labels:  " + trainLabelsPath);
 
+        long start = System.currentTimeMillis();
         List<MnistImage> trainingImages = loadData(trainVectorsPath, trainLabelsPath);
+        long elapsed = System.currentTimeMillis() - start;
 
         if (!trainingImages.isEmpty()) {
-            System.out.println("\nSuccessfully loaded " + trainingImages.size() + " images.");
+            System.out.println("\nSuccessfully loaded " + trainingImages.size() + " images in " + elapsed + " ms.");
 
             MnistImage firstImage = trainingImages.get(0);
             System.out.println("Details of the first image:");
@@ -85,4 +304,4 @@ public class DataReader {
             System.out.println("\nFailed to load any images");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only, indexed access to a labeled image dataset.
+ * <p>
+ * Implementations decide how samples are stored (memory-mapped bytes, decoded arrays, ...);
+ * consumers only decode the samples they need, into buffers they own. All methods must be
+ * safe to call from several threads at once.
+ */
+public interface Dataset {
+
+    /**
+     * Returns the number of samples.
+     *
+     * @return The number of samples in the dataset.
+     */
+    int size();
+
+    /**
+     * Returns the length of every input vector.
+     *
+     * @return The number of pixels of every image.
+     */
+    int inputSize();
+
+    /**
+     * Returns the label of a sample.
+     *
+     * @param index The index of the sample.
+     * @return The class label.
+     */
+    int label(int index);
+
+    /**
+     * Decodes the normalized pixels of a sample into a caller-provided array.
+     *
+     * @param index  The index of the sample.
+     * @param target The array receiving the pixel values (0.0 to 1.0), of length at least {@link #inputSize()}.
+     */
+    void readPixels(int index, double[] target);
+
+    /**
+     * Decodes the normalized pixels of a sample into a caller-provided single-precision array,
+     * for single-precision networks.
+     * <p>
+     * The default implementation decodes into a temporary double array; implementations
+     * holding raw bytes override it to decode straight into the target.
+     *
+     * @param index  The index of the sample.
+     * @param target The array receiving the pixel values (0.0 to 1.0), of length at least {@link #inputSize()}.
+     */
+    default void readPixels(int index, float[] target) {
+        double[] pixels = new double[inputSize()];
+        readPixels(index, pixels);
+        MathUtils.narrowInto(pixels, target, pixels.length);
+    }
+
+    /**
+     * Decodes a sample into a new {@link MnistImage}.
+     *
+     * @param index The index of the sample.
+     * @return The image with normalized pixels and its label.
+     */
+    default MnistImage get(int index) {
+        double[] pixels = new double[inputSize()];
+        readPixels(index, pixels);
+        return new MnistImage(pixels, label(index));
+    }
+
+    /**
+     * Returns a read-only list view of the dataset.
+     * <p>
+     * Nothing is decoded up front; every {@code get} decodes the requested sample,
+     * so the view can replace the list returned by {@link DataReader#loadData}.
+     *
+     * @return A list of the samples, decoded on access.
+     */
+    default List<MnistImage> asList() {
+        Dataset dataset = this;
+        class ImageList extends AbstractList<MnistImage> implements RandomAccess {
+            @Override
+            public MnistImage get(int index) {
+                return dataset.get(index);
+            }
+
+            @Override
+            public int size() {
+                return dataset.size();
+            }
+        }
+        return new ImageList();
+    }
+
+    /**
+     * Wraps already decoded images (for example from {@link DataReader#loadData}) as a dataset.
+     *
+     * @param images The images; all pixel vectors must have the same length.
+     * @return A dataset view of the list.
+     */
+    static Dataset of(List<MnistImage> images) {
+        return new Dataset() {
+            @Override
+            public int size() {
+                return images.size();
+            }
+
+            @Override
+            public int inputSize() {
+                return images.isEmpty() ? 0 : images.get(0).pixels().length;
+            }
+
+            @Override
+            public int label(int index) {
+                return images.get(index).label();
+            }
+
+            @Override
+            public void readPixels(int index, double[] target) {
+                double[] pixels = images.get(index).pixels();
+                System.arraycopy(pixels, 0, target, 0, pixels.length);
+            }
+
+            @Override
+            public void readPixels(int index, float[] target) {
+                double[] pixels = images.get(index).pixels();
+                MathUtils.narrowInto(pixels, target, pixels.length);
+            }
+
+            @Override
+            public MnistImage get(int index) {
+                return images.get(index);
+            }
+
+            @Override
+            public List<MnistImage> asList() {
+                return images;
+            }
+        };
+    }
+}
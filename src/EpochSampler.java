@@ -0,0 +1,213 @@
+import java.util.Random;
+
+/**
+ * Produces a reproducible, shuffled order of the training samples for every epoch.
+ * <p>
+ * The sampler never moves the samples themselves: it permutes an {@code int[]} of their
+ * indices with a Fisher-Yates shuffle (O(n), no boxing), and the batches are gathered from
+ * the dataset in that order (see {@link BatchPrefetcher}). The permutation of an epoch
+ * depends only on the seed and the epoch number, so a run can be repeated exactly, and a
+ * resumed run continues with the same orders it would have used.
+ * <p>
+ * In stratified mode, the samples of every class are shuffled separately and then
+ * interleaved evenly, so every stretch of the permutation (and therefore every batch)
+ * holds the classes in about the same proportions as the whole set.
+ * <p>
+ * The returned array is reused by the next call; a sampler is not thread-safe.
+ */
+public final class EpochSampler {
+
+    private final int[] indices;
+    private final long seed;
+    private final int[] permutation;
+
+    //Stratified mode only: the indices of every class in original order, and buffers to shuffle and merge them
+    private final int[][] classIndices;
+    private final int[][] classPermutations;
+    private final int[] taken;
+    private final double[] phases;
+    //Min-heap of the classes with samples left, ordered by the position their next sample is due at
+    private final int[] heap;
+    private final double[] dueAt;
+
+    private EpochSampler(int[] indices, long seed, int[][] classIndices) {
+        this.indices = indices.clone();
+        this.seed = seed;
+        this.permutation = new int[indices.length];
+        this.classIndices = classIndices;
+        this.classPermutations = classIndices != null ? new int[classIndices.length][] : null;
+        if (classIndices != null) {
+            for (int c = 0; c < classIndices.length; c++) {
+                classPermutations[c] = new int[classIndices[c].length];
+            }
+        }
+        this.taken = classIndices != null ? new int[classIndices.length] : null;
+        this.phases = classIndices != null ? new double[classIndices.length] : null;
+        this.heap = classIndices != null ? new int[classIndices.length] : null;
+        this.dueAt = classIndices != null ? new double[classIndices.length] : null;
+    }
+
+    /**
+     * Creates a sampler shuffling the given indices uniformly.
+     *
+     * @param indices The indices of the training samples.
+     * @param seed    The seed of the permutations.
+     * @return A new sampler.
+     */
+    public static EpochSampler shuffled(int[] indices, long seed) {
+        return new EpochSampler(indices, seed, null);
+    }
+
+    /**
+     * Creates a sampler that shuffles within every class and spreads the classes evenly.
+     *
+     * @param dataset    The dataset providing the labels.
+     * @param indices    The indices of the training samples.
+     * @param classCount The number of classes (labels are 0 to {@code classCount - 1}).
+     * @param seed       The seed of the permutations.
+     * @return A new sampler.
+     * @throws IllegalArgumentException if a label is out of range.
+     */
+    public static EpochSampler stratified(Dataset dataset, int[] indices, int classCount, long seed) {
+        int[] counts = new int[classCount];
+        int[] labels = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            int label = dataset.label(indices[i]);
+            if (label < 0 || label >= classCount) {
+                throw new IllegalArgumentException("Label " + label + " of sample " + indices[i] + " is out of range.");
+            }
+            labels[i] = label;
+            counts[label]++;
+        }
+        int[][] classIndices = new int[classCount][];
+        for (int c = 0; c < classCount; c++) {
+            classIndices[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            classIndices[labels[i]][counts[labels[i]]++] = indices[i];
+        }
+        return new EpochSampler(indices, seed, classIndices);
+    }
+
+    /**
+     * Returns the number of samples per epoch.
+     *
+     * @return The length of every permutation.
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * Returns the sample order of an epoch.
+     *
+     * @param epoch The epoch number (starting at 0).
+     * @return The permuted indices, valid until the next call.
+     */
+    public int[] permutation(int epoch) {
+        Random random = new Random(seed ^ (0x9E3779B97F4A7C15L * (epoch + 1)));
+        if (classIndices == null) {
+            System.arraycopy(indices, 0, permutation, 0, indices.length);
+            shuffle(permutation, permutation.length, random);
+        } else {
+            interleaveClasses(random);
+        }
+        return permutation;
+    }
+
+    /**
+     * Shuffles every class and merges them so that the k-th sample of a class with n samples
+     * lands near position {@code (k + phase) / n} of the permutation.
+     * <p>
+     * The merge always takes the class whose next sample is due first (the lowest class on ties)
+     * from a binary heap, so it costs O(n log C) for n samples and C classes.
+     */
+    private void interleaveClasses(Random random) {
+        int total = permutation.length;
+        for (int c = 0; c < classIndices.length; c++) {
+            System.arraycopy(classIndices[c], 0, classPermutations[c], 0, classIndices[c].length);
+            shuffle(classPermutations[c], classPermutations[c].length, random);
+            taken[c] = 0;
+            phases[c] = random.nextDouble();
+        }
+        int heapSize = 0;
+        for (int c = 0; c < classIndices.length; c++) {
+            if (classIndices[c].length > 0) {
+                dueAt[c] = phases[c] / classIndices[c].length;
+                heap[heapSize] = c;
+                siftUp(heapSize++);
+            }
+        }
+        for (int position = 0; position < total; position++) {
+            int next = heap[0];
+            permutation[position] = classPermutations[next][taken[next]++];
+            if (taken[next] == classIndices[next].length) {
+                heap[0] = heap[--heapSize];
+            } else {
+                dueAt[next] = (taken[next] + phases[next]) / classIndices[next].length;
+            }
+            siftDown(0, heapSize);
+        }
+    }
+
+    /**
+     * Tells whether the next sample of class {@code a} is due before the next sample of class {@code b}.
+     */
+    private boolean dueBefore(int a, int b) {
+        return dueAt[a] < dueAt[b] || (dueAt[a] == dueAt[b] && a < b);
+    }
+
+    /**
+     * Moves the heap entry at {@code index} up until its parent is due before it.
+     */
+    private void siftUp(int index) {
+        int c = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (!dueBefore(c, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = c;
+    }
+
+    /**
+     * Moves the heap entry at {@code index} down until it is due before both children.
+     */
+    private void siftDown(int index, int size) {
+        if (size == 0) {
+            return;
+        }
+        int c = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && dueBefore(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!dueBefore(heap[child], c)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = c;
+    }
+
+    /**
+     * Fisher-Yates shuffle of the first {@code length} elements.
+     */
+    private static void shuffle(int[] values, int length, Random random) {
+        for (int i = length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
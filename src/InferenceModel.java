@@ -0,0 +1,234 @@
+import java.util.Arrays;
+
+/**
+ * An immutable, read-only snapshot of the weights and biases of a {@link NeuralNetwork}.
+ * <p>
+ * The snapshot owns a private copy of the flat parameter array (all weights row-major, then
+ * all biases) and nothing else: no optimizer state, no shared buffers. Training the network
+ * afterwards does not affect it, so any number of threads may run inference on one snapshot
+ * concurrently, each with its own {@link Buffers}.
+ * <p>
+ * Forward passes use the same blocked matrix-matrix kernels as {@link NeuralNetwork#predictBatch},
+ * including its sparse first layer for batches of mostly-zero inputs, and stop at the logits:
+ * softmax is only computed when {@link #topK} asks for probabilities.
+ * Snapshots are published to inference threads, and swapped while they run, through a {@link ModelHolder}.
+ */
+public final class InferenceModel {
+
+    private final double[] parameters;
+    private final int[] sizes;
+    private final int[] weightOffsets;
+    private final int[] biasOffsets;
+
+    /**
+     * Per-thread activation buffers for batched forward passes through an {@link InferenceModel}.
+     */
+    public static final class Buffers {
+
+        /**
+         * The maximum number of inputs propagated at once.
+         */
+        public final int capacity;
+
+        //[layer][capacity][outputSize]
+        private final double[][][] outputs;
+        private final SparseInput[] sparseInputs;
+        private final int[] sizes;
+        //Wraps the input of a single-input pass as a batch of one
+        private final double[][] single = new double[1][];
+
+        private Buffers(int[] sizes, int capacity) {
+            this.capacity = capacity;
+            this.sizes = sizes;
+            this.sparseInputs = new SparseInput[capacity];
+            for (int s = 0; s < capacity; s++) {
+                sparseInputs[s] = new SparseInput(sizes[0]);
+            }
+            this.outputs = new double[sizes.length - 1][][];
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = new double[capacity][sizes[i + 1]];
+            }
+        }
+    }
+
+    /**
+     * Creates a snapshot from a copy of a network's parameters.
+     *
+     * @param sizes      The number of neurons of every layer, starting with the input layer.
+     * @param parameters The parameters (all weights, then all biases). The array is copied.
+     * @throws IllegalArgumentException if the number of parameters does not match the topology.
+     */
+    public InferenceModel(int[] sizes, double[] parameters) {
+        if (sizes.length < 2) {
+            throw new IllegalArgumentException("A model needs at least an input and an output layer.");
+        }
+        this.sizes = sizes.clone();
+        int layerCount = sizes.length - 1;
+        this.weightOffsets = new int[layerCount];
+        this.biasOffsets = new int[layerCount];
+
+        int weightCount = 0;
+        int biasCount = 0;
+        for (int i = 0; i < layerCount; i++) {
+            weightOffsets[i] = weightCount;
+            weightCount += sizes[i] * sizes[i + 1];
+            biasCount += sizes[i + 1];
+        }
+        if (parameters.length != weightCount + biasCount) {
+            throw new IllegalArgumentException("Expected " + (weightCount + biasCount) + " parameters but got "
+                    + parameters.length + ".");
+        }
+        int biasOffset = weightCount;
+        for (int i = 0; i < layerCount; i++) {
+            biasOffsets[i] = biasOffset;
+            biasOffset += sizes[i + 1];
+        }
+        this.parameters = parameters.clone();
+    }
+
+    /**
+     * Returns the size of the input vector.
+     *
+     * @return The number of input neurons.
+     */
+    public int inputSize() {
+        return sizes[0];
+    }
+
+    /**
+     * Returns the number of classes.
+     *
+     * @return The number of output neurons.
+     */
+    public int outputSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Returns the topology of the model.
+     *
+     * @return The number of neurons of every layer, starting with the input layer.
+     */
+    public int[] layerSizes() {
+        return sizes.clone();
+    }
+
+    /**
+     * Returns the snapshot's parameter array, for copying it back into a network. Must not be modified.
+     *
+     * @return The parameters (all weights, then all biases).
+     */
+    double[] parameters() {
+        return parameters;
+    }
+
+    /**
+     * Tells whether buffers can be used with this model, i.e. were created by a model with the same topology.
+     *
+     * @param buffers The buffers to check.
+     * @return {@code true} if the layer sizes match.
+     */
+    public boolean fits(Buffers buffers) {
+        return Arrays.equals(sizes, buffers.sizes);
+    }
+
+    /**
+     * Allocates the buffers for batched forward passes. Each thread needs its own.
+     *
+     * @param capacity The maximum number of inputs propagated at once.
+     * @return New buffers sized for this model.
+     */
+    public Buffers createBuffers(int capacity) {
+        return new Buffers(sizes, capacity);
+    }
+
+    /**
+     * Predicts the class labels of the first {@code count} inputs with one batched forward pass.
+     *
+     * @param inputs      The input vectors; only the first {@code count} are read.
+     * @param count       The number of inputs to predict (at most {@code buffers.capacity}).
+     * @param predictions The array receiving the predicted labels, at the same indices as the inputs.
+     * @param buffers     Buffers created by {@link #createBuffers(int)} of a model with the same topology.
+     * @throws IllegalArgumentException if {@code count} exceeds the capacity of the buffers or they do not fit.
+     */
+    public void predictBatch(double[][] inputs, int count, int[] predictions, Buffers buffers) {
+        double[][] logits = forward(inputs, count, buffers);
+        int outputSize = outputSize();
+        for (int s = 0; s < count; s++) {
+            predictions[s] = MathUtils.argmax(logits[s], outputSize);
+        }
+    }
+
+    /**
+     * Finds the {@code k} most likely classes of one input, with their probabilities.
+     *
+     * @param input         The input vector.
+     * @param k             The number of classes to return.
+     * @param classes       The array receiving the classes, most likely first.
+     * @param probabilities The array receiving the probability of every returned class.
+     * @param buffers       Buffers created by {@link #createBuffers(int)} of a model with the same topology.
+     * @return The number of classes written, {@code min(k, outputSize())}.
+     * @throws IllegalArgumentException if the buffers do not fit.
+     */
+    public int topK(double[] input, int k, int[] classes, double[] probabilities, Buffers buffers) {
+        double[][] single = buffers.single;
+        single[0] = input;
+        double[][] logits = forward(single, 1, buffers);
+        single[0] = null;
+        return MathUtils.topK(logits[0], outputSize(), k, classes, probabilities);
+    }
+
+    /**
+     * Propagates the first {@code count} inputs through all layers, up to the logits.
+     * <p>
+     * The product of every layer is followed by one fused pass adding the biases and applying
+     * Leaky ReLU; the output layer only adds its biases.
+     *
+     * @return The logits of every input (owned by the buffers, overwritten by the next pass).
+     * @throws IllegalArgumentException if {@code count} exceeds the capacity of the buffers or they do not fit.
+     */
+    private double[][] forward(double[][] inputs, int count, Buffers buffers) {
+        if (!fits(buffers)) {
+            throw new IllegalArgumentException("The buffers were created for a different topology.");
+        }
+        if (count > buffers.capacity) {
+            throw new IllegalArgumentException("Batch of " + count + " exceeds the buffer capacity "
+                    + buffers.capacity + ".");
+        }
+        double[][][] outputs = buffers.outputs;
+        int lastLayer = outputs.length - 1;
+
+        //Stops converting as soon as the batch is known to be too dense
+        long budget = MathUtils.maxSparseNonZeros((long) count * sizes[0]);
+        long nonZeros = 0;
+        boolean sparse = budget >= 0;
+        for (int s = 0; s < count && sparse; s++) {
+            SparseInput sparseInput = buffers.sparseInputs[s];
+            sparse = sparseInput.setIfSparse(inputs[s], budget - nonZeros);
+            nonZeros += sparseInput.nonZeros;
+        }
+
+        for (int i = 0; i <= lastLayer; i++) {
+            int inputSize = sizes[i];
+            int outputSize = sizes[i + 1];
+            double[][] layerOutputs = outputs[i];
+            if (i == 0 && sparse) {
+                MathUtils.matrixMultiplyBTransposed(buffers.sparseInputs, parameters, weightOffsets[i], outputSize,
+                        inputSize, layerOutputs, count);
+            } else {
+                MathUtils.matrixMultiplyBTransposed(i == 0 ? inputs : outputs[i - 1], parameters, weightOffsets[i],
+                        outputSize, inputSize, layerOutputs, count);
+            }
+
+            KernelBackend kernels = MathUtils.kernels();
+            for (int s = 0; s < count; s++) {
+                if (i == lastLayer) {
+                    kernels.addBias(layerOutputs[s], parameters, biasOffsets[i], outputSize);
+                } else {
+                    kernels.addBiasLeakyRelu(layerOutputs[s], parameters, biasOffsets[i], outputSize);
+                }
+            }
+        }
+        return outputs[lastLayer];
+    }
+}
@@ -0,0 +1,239 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An embedded HTTP server answering predictions of an {@link InferenceModel}.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *   <li>{@code POST /predict} - the body holds one image per line, as comma-separated pixel
+ *       values (0-255) in the format of the dataset CSV files. The response holds the
+ *       predicted label of every image, one per line.</li>
+ *   <li>{@code GET /stats} - a JSON object with the request and batch counts, the throughput,
+ *       the p50/p99 latencies in microseconds and the number of model swaps.</li>
+ * </ul>
+ * Requests are handled on a fixed pool of threads that hand every image to a shared
+ * {@link MicroBatcher}, so concurrent requests are answered by batched forward passes.
+ */
+public class InferenceServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final MicroBatcher batcher;
+
+    /**
+     * Creates and starts a server for a fixed model.
+     *
+     * @param model          The model to serve.
+     * @param port           The TCP port to listen on (0 picks a free port).
+     * @param maxBatchSize   The maximum number of images per forward pass.
+     * @param maxWaitNanos   How long an image may wait for more images to batch with, in nanoseconds.
+     * @param handlerThreads The number of threads handling HTTP requests.
+     * @throws IOException if the port cannot be bound.
+     */
+    public InferenceServer(InferenceModel model, int port, int maxBatchSize, long maxWaitNanos, int handlerThreads)
+            throws IOException {
+        this(new ModelHolder(model), port, maxBatchSize, maxWaitNanos, handlerThreads);
+    }
+
+    /**
+     * Creates and starts a server for the model published in a holder. Publishing a new
+     * snapshot in the holder swaps the served model without interrupting requests.
+     *
+     * @param models         The holder of the model to serve.
+     * @param port           The TCP port to listen on (0 picks a free port).
+     * @param maxBatchSize   The maximum number of images per forward pass.
+     * @param maxWaitNanos   How long an image may wait for more images to batch with, in nanoseconds.
+     * @param handlerThreads The number of threads handling HTTP requests.
+     * @throws IOException if the port cannot be bound.
+     */
+    public InferenceServer(ModelHolder models, int port, int maxBatchSize, long maxWaitNanos, int handlerThreads)
+            throws IOException {
+        if (handlerThreads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.batcher = new MicroBatcher(models, maxBatchSize, maxWaitNanos, 64 * maxBatchSize);
+        this.handlers = Executors.newFixedThreadPool(handlerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "inference-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/predict", this::handlePredict);
+        this.server.createContext("/stats", this::handleStats);
+        this.server.setExecutor(handlers);
+        this.server.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The bound TCP port.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the batcher serving the predictions, with its latency and throughput counters.
+     *
+     * @return The server's batcher.
+     */
+    public MicroBatcher batcher() {
+        return batcher;
+    }
+
+    private void handlePredict(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Use POST\n");
+            return;
+        }
+        List<double[]> images;
+        try (InputStream body = exchange.getRequestBody()) {
+            images = parseImages(body.readAllBytes(), batcher.inputSize());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+            return;
+        }
+
+        try {
+            List<CompletableFuture<Integer>> results = new ArrayList<>(images.size());
+            for (double[] image : images) {
+                results.add(batcher.submit(image));
+            }
+            StringBuilder response = new StringBuilder(images.size() * 2);
+            for (CompletableFuture<Integer> result : results) {
+                response.append(result.get()).append('\n');
+            }
+            respond(exchange, 200, response.toString());
+        } catch (IllegalStateException e) {
+            respond(exchange, 503, e.getMessage() + "\n");
+        } catch (ExecutionException e) {
+            respond(exchange, 500, "Prediction failed: " + e.getCause() + "\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "Interrupted\n");
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, statsJson() + "\n");
+    }
+
+    /**
+     * Formats the batcher's counters as a JSON object.
+     *
+     * @return The request and batch counts, throughput (requests per second) and latency percentiles (microseconds).
+     */
+    public String statsJson() {
+        long requests = batcher.requestCount();
+        long batches = batcher.batchCount();
+        LatencyHistogram latency = batcher.latency();
+        return String.format(Locale.ROOT,
+                "{\"requests\":%d,\"batches\":%d,\"meanBatchSize\":%.2f,\"throughput\":%.1f,"
+                        + "\"p50Micros\":%d,\"p99Micros\":%d,\"modelSwaps\":%d}",
+                requests, batches, batches > 0 ? (double) requests / batches : 0.0, batcher.throughput(),
+                latency.percentile(50), latency.percentile(99), batcher.models().swapCount());
+    }
+
+    /**
+     * Parses images given as lines of comma-separated pixel values (0-255). Empty lines are skipped.
+     * Spaces may surround a value but not split it (see {@link PixelValueParser}).
+     *
+     * @param body      The request body.
+     * @param inputSize The number of pixels per image.
+     * @return The normalized images.
+     * @throws IllegalArgumentException if a line is malformed or has the wrong number of values.
+     */
+    static List<double[]> parseImages(byte[] body, int inputSize) {
+        List<double[]> images = new ArrayList<>();
+        double[] image = new double[inputSize];
+        int column = 0;
+        PixelValueParser pixel = new PixelValueParser();
+
+        for (int i = 0; i <= body.length; i++) {
+            byte b = i < body.length ? body[i] : (byte) '\n';
+            if (b == ',' || b == '\n') {
+                if (b == '\n' && column == 0 && !pixel.hasDigits()) {
+                    continue;
+                }
+                if (!pixel.isValid() || column == inputSize) {
+                    throw new IllegalArgumentException("Malformed pixel value at byte " + i);
+                }
+                image[column++] = DataReader.NORMALIZED_PIXELS[pixel.value()];
+                pixel.reset();
+                if (b == '\n') {
+                    if (column != inputSize) {
+                        throw new IllegalArgumentException("Expected " + inputSize + " values but found " + column
+                                + " on line " + (images.size() + 1));
+                    }
+                    images.add(image);
+                    image = new double[inputSize];
+                    column = 0;
+                }
+            } else if (!pixel.accept(b)) {
+                throw new IllegalArgumentException("Unexpected character at byte " + i);
+            }
+        }
+        return images;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                body.startsWith("{") ? "application/json" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Stops accepting requests and shuts down the batcher and the handler threads.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        batcher.close();
+        handlers.shutdown();
+    }
+
+    /**
+     * Serves a checkpointed network over HTTP.
+     * <p>
+     * Usage: {@code java InferenceServer <checkpoint> [port] [maxBatchSize] [maxWaitMicros]}.
+     * Defaults: port 8080, batches of up to 64 images, 500 microseconds of waiting.
+     *
+     * @param args The checkpoint file and the optional settings.
+     * @throws IOException if the checkpoint cannot be loaded or the port cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java InferenceServer <checkpoint> [port] [maxBatchSize] [maxWaitMicros]");
+            return;
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int maxBatchSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long maxWaitMicros = args.length > 3 ? Long.parseLong(args[3]) : 500;
+
+        InferenceModel model = Checkpoint.load(args[0]).snapshot();
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        InferenceServer server = new InferenceServer(model, port, maxBatchSize, maxWaitMicros * 1000, threads);
+        System.out.println("Serving " + args[0] + " on port " + server.port()
+                + " (POST /predict, GET /stats)");
+    }
+}
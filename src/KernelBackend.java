@@ -0,0 +1,347 @@
+/**
+ * The innermost numeric loops used by {@link MathUtils} and the optimizers.
+ * <p>
+ * Every matrix kernel of the network is built from these few primitives, so swapping the
+ * backend (plain scalar loops or explicit SIMD through the Vector API) changes the speed of
+ * every forward pass, backward pass and optimizer step at once. The backend is chosen once
+ * at startup by {@link MathUtils}.
+ */
+public interface KernelBackend {
+
+    /**
+     * Returns a short human-readable name of the backend.
+     *
+     * @return The backend name.
+     */
+    String name();
+
+    /**
+     * Computes the dot product of two vector segments.
+     *
+     * @param a       The first array.
+     * @param aOffset The index of the first element in a.
+     * @param b       The second array.
+     * @param bOffset The index of the first element in b.
+     * @param length  The number of elements.
+     * @return sum(a[aOffset + i] * b[bOffset + i]).
+     */
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * Adds a scaled vector segment to another one: y += alpha * x.
+     *
+     * @param alpha   The scale factor.
+     * @param x       The array to read from.
+     * @param xOffset The index of the first element in x.
+     * @param y       The array to add to.
+     * @param yOffset The index of the first element in y.
+     * @param length  The number of elements.
+     */
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * Computes the dot product of two segments of 8-bit integers with 32-bit accumulation.
+     * <p>
+     * Used by the quantized forward pass. The caller must keep the sum within the int range,
+     * e.g. at most 2^17 products of values in [-127, 127].
+     *
+     * @param a       The first array.
+     * @param aOffset The index of the first element in a.
+     * @param b       The second array.
+     * @param bOffset The index of the first element in b.
+     * @param length  The number of elements.
+     * @return sum(a[aOffset + i] * b[bOffset + i]).
+     */
+    int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    /**
+     * Computes the dot product of two single-precision vector segments, accumulating in single precision.
+     *
+     * @param a       The first array.
+     * @param aOffset The index of the first element in a.
+     * @param b       The second array.
+     * @param bOffset The index of the first element in b.
+     * @param length  The number of elements.
+     * @return sum(a[aOffset + i] * b[bOffset + i]).
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Computes the dot product of two single-precision vector segments, accumulating in double precision.
+     * <p>
+     * Every product is widened before it is added, so long sums do not lose the low bits of
+     * small terms; the price is half the lanes of {@link #dot(float[], int, float[], int, int)}.
+     *
+     * @param a       The first array.
+     * @param aOffset The index of the first element in a.
+     * @param b       The second array.
+     * @param bOffset The index of the first element in b.
+     * @param length  The number of elements.
+     * @return sum(a[aOffset + i] * b[bOffset + i]).
+     */
+    double wideDot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Adds a scaled single-precision vector segment to another one: y += alpha * x.
+     *
+     * @param alpha   The scale factor.
+     * @param x       The array to read from.
+     * @param xOffset The index of the first element in x.
+     * @param y       The array to add to.
+     * @param yOffset The index of the first element in y.
+     * @param length  The number of elements.
+     */
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * Computes the dot product of a dense vector segment and a sparse vector.
+     *
+     * @param a       The dense array.
+     * @param aOffset The index in a of the dense element matching sparse index 0.
+     * @param indices The indices of the nonzero elements of the sparse vector.
+     * @param values  The values of the nonzero elements of the sparse vector.
+     * @param count   The number of nonzero elements.
+     * @return sum(a[aOffset + indices[t]] * values[t]).
+     */
+    double sparseDot(double[] a, int aOffset, int[] indices, double[] values, int count);
+
+    /**
+     * Adds a scaled sparse vector to a dense vector segment: y[yOffset + indices[t]] += alpha * values[t].
+     * The indices must be distinct.
+     *
+     * @param alpha   The scale factor.
+     * @param indices The indices of the nonzero elements of the sparse vector.
+     * @param values  The values of the nonzero elements of the sparse vector.
+     * @param count   The number of nonzero elements.
+     * @param y       The array to add to.
+     * @param yOffset The index in y of the element matching sparse index 0.
+     */
+    void sparseAxpy(double alpha, int[] indices, double[] values, int count, double[] y, int yOffset);
+
+    /**
+     * Returns the input density below which the sparse kernels beat their dense counterparts.
+     * <p>
+     * Indexed loads and stores cost several times more than contiguous ones, so skipping zeros
+     * only pays off once enough of them are skipped; where that happens depends on how well
+     * the backend does the dense loops.
+     *
+     * @return The fraction of nonzero elements below which sparse kernels should be used.
+     */
+    double sparseDensityThreshold();
+
+    /**
+     * Adds two vectors element-wise. The result may be the same array as either operand.
+     *
+     * @param a      The first vector.
+     * @param b      The second vector.
+     * @param result The vector receiving a[i] + b[i].
+     * @param length The number of elements.
+     */
+    void add(double[] a, double[] b, double[] result, int length);
+
+    /**
+     * Multiplies two vectors element-wise. The result may be the same array as either operand.
+     *
+     * @param a      The first vector.
+     * @param b      The second vector.
+     * @param result The vector receiving a[i] * b[i].
+     * @param length The number of elements.
+     */
+    void multiply(double[] a, double[] b, double[] result, int length);
+
+    /**
+     * Applies the Leaky ReLU activation in place.
+     *
+     * @param values The values to activate.
+     * @param length The number of elements.
+     */
+    void leakyRelu(double[] values, int length);
+
+    /**
+     * Adds a bias vector in place.
+     *
+     * @param values     The values receiving the biases.
+     * @param biases     The array holding the biases.
+     * @param biasOffset The index of the first bias.
+     * @param length     The number of elements.
+     */
+    void addBias(double[] values, double[] biases, int biasOffset, int length);
+
+    /**
+     * Adds a bias vector and applies the Leaky ReLU activation in place, in one pass.
+     * Same result as {@link #addBias} followed by {@link #leakyRelu}.
+     *
+     * @param values     The values receiving the biases.
+     * @param biases     The array holding the biases.
+     * @param biasOffset The index of the first bias.
+     * @param length     The number of elements.
+     */
+    void addBiasLeakyRelu(double[] values, double[] biases, int biasOffset, int length);
+
+    /**
+     * Same as {@link #addBias(double[], double[], int, int)}, in single precision.
+     *
+     * @param values     The values receiving the biases.
+     * @param biases     The array holding the biases.
+     * @param biasOffset The index of the first bias.
+     * @param length     The number of elements.
+     */
+    void addBias(float[] values, float[] biases, int biasOffset, int length);
+
+    /**
+     * Same as {@link #addBiasLeakyRelu(double[], double[], int, int)}, in single precision.
+     *
+     * @param values     The values receiving the biases.
+     * @param biases     The array holding the biases.
+     * @param biasOffset The index of the first bias.
+     * @param length     The number of elements.
+     */
+    void addBiasLeakyRelu(float[] values, float[] biases, int biasOffset, int length);
+
+    /**
+     * Applies one fused Adam update to a contiguous range of parameters.
+     * <p>
+     * The gradient of parameter {@code offset + i} is
+     * {@code gradientScale * gradientSource[sourceOffset + i] + decay * parameter}, which covers
+     * both averaged batch gradients (source = summed gradients, scale = 1 / batch size) and
+     * per-sample outer products (source = previous activations, scale = neuron delta).
+     * <p>
+     * The bias corrections are folded into two scalars computed once per step, so every
+     * element costs one square root and one division:
+     * {@code p = parameterScale * p - stepSize * m / (sqrt(v) * correctionScale + epsilon)},
+     * where {@code stepSize = learningRate / (1 - beta1^t)} and
+     * {@code correctionScale = 1 / sqrt(1 - beta2^t)}.
+     *
+     * @param parameters      The parameters to update.
+     * @param m               The first moment estimates (same layout as the parameters).
+     * @param v               The second moment estimates (same layout as the parameters).
+     * @param offset          The index of the first parameter to update.
+     * @param length          The number of parameters to update.
+     * @param gradientSource  The array the raw gradients are read from.
+     * @param sourceOffset    The index of the first raw gradient.
+     * @param gradientScale   The factor applied to every raw gradient.
+     * @param decay           The L2 regularization strength (added to the gradient).
+     * @param parameterScale  The factor applied to every parameter before the step (1 - learningRate * weightDecay
+     *                        for decoupled weight decay, otherwise 1).
+     * @param beta1           The decay rate of the first moment.
+     * @param beta2           The decay rate of the second moment.
+     * @param stepSize        The bias-corrected step size, learningRate / (1 - beta1^t).
+     * @param correctionScale The second moment bias correction, 1 / sqrt(1 - beta2^t).
+     * @param epsilon         The term added to the denominator for numerical stability.
+     */
+    void adamUpdate(double[] parameters, double[] m, double[] v, int offset, int length,
+                    double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                    double parameterScale, double beta1, double beta2, double stepSize,
+                    double correctionScale, double epsilon);
+
+    /**
+     * Same as {@link #adamUpdate(double[], double[], double[], int, int, double[], int, double, double,
+     * double, double, double, double, double, double)}, with the moments stored in single precision.
+     * The update itself is computed in double precision.
+     *
+     * @param parameters      The parameters to update.
+     * @param m               The first moment estimates (same layout as the parameters).
+     * @param v               The second moment estimates (same layout as the parameters).
+     * @param offset          The index of the first parameter to update.
+     * @param length          The number of parameters to update.
+     * @param gradientSource  The array the raw gradients are read from.
+     * @param sourceOffset    The index of the first raw gradient.
+     * @param gradientScale   The factor applied to every raw gradient.
+     * @param decay           The L2 regularization strength (added to the gradient).
+     * @param parameterScale  The factor applied to every parameter before the step.
+     * @param beta1           The decay rate of the first moment.
+     * @param beta2           The decay rate of the second moment.
+     * @param stepSize        The bias-corrected step size, learningRate / (1 - beta1^t).
+     * @param correctionScale The second moment bias correction, 1 / sqrt(1 - beta2^t).
+     * @param epsilon         The term added to the denominator for numerical stability.
+     */
+    void adamUpdate(double[] parameters, float[] m, float[] v, int offset, int length,
+                    double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                    double parameterScale, double beta1, double beta2, double stepSize,
+                    double correctionScale, double epsilon);
+
+    /**
+     * Applies the SGD with Momentum update rule to a contiguous range of parameters.
+     * <p>
+     * The gradient is formed exactly like in {@link #adamUpdate(double[], double[], double[], int, int,
+     * double[], int, double, double, double, double, double, double, double, double)}.
+     *
+     * @param parameters     The parameters to update.
+     * @param velocities     The velocity accumulators (same layout as the parameters).
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The L2 regularization strength.
+     * @param momentum       The momentum factor (gamma).
+     * @param learningRate   The step size.
+     */
+    void momentumUpdate(double[] parameters, double[] velocities, int offset, int length,
+                        double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                        double momentum, double learningRate);
+
+    /**
+     * Same as {@link #momentumUpdate(double[], double[], int, int, double[], int, double, double, double, double)},
+     * with the velocities stored in single precision.
+     *
+     * @param parameters     The parameters to update.
+     * @param velocities     The velocity accumulators (same layout as the parameters).
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The L2 regularization strength.
+     * @param momentum       The momentum factor (gamma).
+     * @param learningRate   The step size.
+     */
+    void momentumUpdate(double[] parameters, float[] velocities, int offset, int length,
+                        double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                        double momentum, double learningRate);
+
+    /**
+     * Same as {@link #adamUpdate(double[], double[], double[], int, int, double[], int, double, double,
+     * double, double, double, double, double, double)}, for a single-precision network: the parameters,
+     * the moments and the raw gradients are all stored, and the update computed, in single precision.
+     *
+     * @param parameters      The parameters to update.
+     * @param m               The first moment estimates (same layout as the parameters).
+     * @param v               The second moment estimates (same layout as the parameters).
+     * @param offset          The index of the first parameter to update.
+     * @param length          The number of parameters to update.
+     * @param gradientSource  The array the raw gradients are read from.
+     * @param sourceOffset    The index of the first raw gradient.
+     * @param gradientScale   The factor applied to every raw gradient.
+     * @param decay           The L2 regularization strength (added to the gradient).
+     * @param parameterScale  The factor applied to every parameter before the step.
+     * @param beta1           The decay rate of the first moment.
+     * @param beta2           The decay rate of the second moment.
+     * @param stepSize        The bias-corrected step size, learningRate / (1 - beta1^t).
+     * @param correctionScale The second moment bias correction, 1 / sqrt(1 - beta2^t).
+     * @param epsilon         The term added to the denominator for numerical stability.
+     */
+    void adamUpdate(float[] parameters, float[] m, float[] v, int offset, int length,
+                    float[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                    double parameterScale, double beta1, double beta2, double stepSize,
+                    double correctionScale, double epsilon);
+
+    /**
+     * Same as {@link #momentumUpdate(double[], double[], int, int, double[], int, double, double, double, double)},
+     * for a single-precision network.
+     *
+     * @param parameters     The parameters to update.
+     * @param velocities     The velocity accumulators (same layout as the parameters).
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The L2 regularization strength.
+     * @param momentum       The momentum factor (gamma).
+     * @param learningRate   The step size.
+     */
+    void momentumUpdate(float[] parameters, float[] velocities, int offset, int length,
+                        float[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                        double momentum, double learningRate);
+}
@@ -0,0 +1,118 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies with about 6% relative precision.
+ * <p>
+ * Values are recorded in a fixed resolution (microseconds unless chosen otherwise) into
+ * log-linear buckets: every power of two is split into 16 equal buckets, so
+ * {@link #percentile(double)} can be answered at any time from a fixed array of counters
+ * without storing individual samples. Recording is a single atomic increment and may
+ * happen from any number of threads.
+ */
+public final class LatencyHistogram {
+
+    //Values below 16 units get one bucket each; above, 16 buckets per power of two
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final long nanosPerUnit;
+
+    /**
+     * Creates a histogram recording in microseconds.
+     */
+    public LatencyHistogram() {
+        this(TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Creates a histogram recording in the given resolution.
+     *
+     * @param resolution The unit of the recorded values and of {@link #percentile(double)}.
+     */
+    public LatencyHistogram(TimeUnit resolution) {
+        this.nanosPerUnit = resolution.toNanos(1);
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos The latency in nanoseconds (negative values count as zero).
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, nanos / nanosPerUnit)));
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     *
+     * @return The total count over all buckets.
+     */
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the recorded latencies.
+     * <p>
+     * Recording may continue concurrently; the result then reflects some of the new values.
+     *
+     * @param percentile The percentile, between 0 and 100 (e.g. 50 for the median, 99 for p99).
+     * @return The upper bound of the bucket holding the percentile, in the histogram's resolution,
+     *         or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Clears all recorded latencies.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int mantissa = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long mantissa = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
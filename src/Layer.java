@@ -3,74 +3,66 @@ import java.util.Random;
 /**
  * Represents a single fully connected (dense) layer in the neural network.
  * <p>
- * This class acts as a container for the layer's trainable parameters (weights and biases)
- * and the specific state variables required for optimizers like SGD with Momentum
- * and Adam.
+ * This class is a view into the network's {@link ParameterStore}. It does not own any
+ * arrays; it records the layer's shape and where its weights and biases start. Because the
+ * store, the gradient buffers and the optimizer state share one layout, the same offsets
+ * address the parameters, the gradients and the optimizer state of this layer.
  */
 public class Layer {
 
     /**
-     * The weight matrix connecting the previous layer to this layer.
-     * Dimensions: [outputSize][inputSize].
+     * The number of neurons in the previous layer (or input vector size).
      */
-    public final double[][] weights;
+    public final int inputSize;
 
     /**
-     * The bias vector for this layer's neurons.
-     * Dimensions: [outputSize].
+     * The number of neurons in this layer.
      */
-    public final double[] biases;
+    public final int outputSize;
 
     /**
-     * Velocity accumulators for weights, used specifically for SGD with Momentum.
+     * Start of the weight matrix, stored row-major.
+     * Weight [j][k] (output j, input k) is at {@code weightOffset + j * inputSize + k}.
      */
-    public final double[][] weightVelocities;
+    public final int weightOffset;
 
     /**
-     * Velocity accumulators for biases, used specifically for SGD with Momentum.
+     * Start of the bias vector. Bias j is at {@code biasOffset + j}.
      */
-    public final double[] biasVelocities;
+    public final int biasOffset;
 
     /**
-     * First moment estimates (m) for weights, used by the Adam optimizer.
-     * Represents the running average of gradients.
-     */
-    public final double[][] m_weights;
-
-    /**
-     * Second moment estimates (v) for weights, used by the Adam optimizer.
-     * Represents the running average of squared gradients.
-     */
-    public final double[][] v_weights;
-
-    /**
-     * First moment estimates (m) for biases, used by the Adam optimizer.
+     * Constructs a view of a layer and initializes its parameters with randomly
+     * initialized weights and small positive biases.
+     *
+     * @param store        The store holding the parameters of the whole network.
+     * @param weightOffset The index of this layer's first weight in the store.
+     * @param biasOffset   The index of this layer's first bias in the store.
+     * @param inputSize    The number of neurons in the previous layer (or input vector size).
+     * @param outputSize   The number of neurons in this layer.
+     * @param random       The random number generator used for initialization (e.g., He Initialization).
      */
-    public final double[] m_biases;
+    public Layer(ParameterStore store, int weightOffset, int biasOffset, int inputSize, int outputSize, Random random) {
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.weightOffset = weightOffset;
+        this.biasOffset = biasOffset;
 
-    /**
-     * Second moment estimates (v) for biases, used by the Adam optimizer.
-     */
-    public final double[] v_biases;
+        if (store.parameters32 != null) {
+            MathUtils.fillRandomMatrix(store.parameters32, weightOffset, outputSize, inputSize, random, inputSize);
+            MathUtils.fillRandomVector(store.parameters32, biasOffset, outputSize, random);
+        } else {
+            MathUtils.fillRandomMatrix(store.parameters, weightOffset, outputSize, inputSize, random, inputSize);
+            MathUtils.fillRandomVector(store.parameters, biasOffset, outputSize, random);
+        }
+    }
 
     /**
-     * Constructs a new Layer with randomly initialized weights and small positive biases.
-     * Initializes all optimizer velocity/moment arrays to zero.
+     * Returns the number of weights of this layer.
      *
-     * @param inputSize  The number of neurons in the previous layer (or input vector size).
-     * @param outputSize The number of neurons in this layer.
-     * @param random     The random number generator used for initialization (e.g., He Initialization).
+     * @return inputSize * outputSize.
      */
-    public Layer(int inputSize, int outputSize, Random random) {
-        this.weights = MathUtils.createRandomMatrix(outputSize, inputSize, random, inputSize);
-        this.biases = MathUtils.createRandomVector(outputSize, random);
-
-        this.weightVelocities = new double[outputSize][inputSize];
-        this.biasVelocities = new double[outputSize];
-
-        this.m_weights = new double[outputSize][inputSize];
-        this.v_weights = new double[outputSize][inputSize];
-        this.m_biases = new double[outputSize];
-        this.v_biases = new double[outputSize];
+    public int weightCount() {
+        return inputSize * outputSize;
     }
-}
\ No newline at end of file
+}
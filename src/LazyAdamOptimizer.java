@@ -0,0 +1,449 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Adam that only touches the parameters whose gradient is nonzero.
+ * <p>
+ * When an input pixel is zero, the whole weight column it feeds has a zero gradient, yet plain
+ * Adam still reads, decays and writes both moments of every entry. This variant records the step
+ * at which each entry was last updated. Entries with a zero raw gradient are skipped entirely.
+ * When a nonzero gradient arrives, the decay of the skipped steps is applied in closed form
+ * ({@code m *= beta1^gap}, {@code v *= beta2^gap}) before the regular update. The moments
+ * therefore stay exactly those of Adam. The parameters do not: like the lazy Adam of other
+ * frameworks, a parameter is not moved on the steps it was skipped, and the L2 term is only
+ * added on the steps it is updated.
+ * <p>
+ * {@link #update(double[], int, int, double[], int, double, double)} scans a range for nonzero
+ * gradients. When the network passes the nonzero inputs as
+ * {@link #update(double[], int, int, double[], int, double, double, SparseInput) active entries},
+ * nothing else is visited, so the per-sample update of the first layer costs time proportional to
+ * the number of nonzero inputs rather than to the full weight matrix. Single-precision networks
+ * (which always keep single-precision moments) have their ranges scanned.
+ */
+public class LazyAdamOptimizer extends AdamOptimizer {
+
+    //Powers of beta1 and beta2 for short gaps; longer gaps fall back to Math.pow
+    private static final int POWER_TABLE_SIZE = 1024;
+
+    //The step at which every parameter was last updated (0 = never)
+    private final int[] lastSteps;
+    private final double[] beta1Powers = new double[POWER_TABLE_SIZE];
+    private final double[] beta2Powers = new double[POWER_TABLE_SIZE];
+
+    //Gather buffers of updateGathered, grown on demand
+    private int[] activeIndices = new int[0];
+    private double[] activeGradients = new double[0];
+    private double[] gatheredParameters = new double[0];
+    private double[] gatheredFirstMoments = new double[0];
+    private double[] gatheredSecondMoments = new double[0];
+    private float[] gatheredFirstMoments32 = new float[0];
+    private float[] gatheredSecondMoments32 = new float[0];
+    //Gather buffers of updateGathered32, for single-precision networks
+    private float[] activeGradients32 = new float[0];
+    private float[] gatheredParameters32 = new float[0];
+
+    /**
+     * Creates the optimizer with the default decay rates (beta1 = 0.9, beta2 = 0.999, epsilon = 1e-8).
+     *
+     * @param parameterCount The number of parameters of the network.
+     * @param learningRate   The step size (alpha).
+     * @param statePrecision The precision of the moment estimates.
+     */
+    public LazyAdamOptimizer(int parameterCount, double learningRate, Precision statePrecision) {
+        this(parameterCount, learningRate, 0.9, 0.999, 1e-8, statePrecision);
+    }
+
+    /**
+     * Creates the optimizer with zeroed moment estimates.
+     *
+     * @param parameterCount The number of parameters of the network.
+     * @param learningRate   The step size (alpha).
+     * @param beta1          The decay rate of the first moment.
+     * @param beta2          The decay rate of the second moment.
+     * @param epsilon        The term added to the denominator for numerical stability.
+     * @param statePrecision The precision of the moment estimates.
+     */
+    public LazyAdamOptimizer(int parameterCount, double learningRate, double beta1, double beta2, double epsilon,
+                             Precision statePrecision) {
+        super(parameterCount, learningRate, beta1, beta2, epsilon, statePrecision);
+        this.lastSteps = new int[parameterCount];
+        beta1Powers[0] = 1.0;
+        beta2Powers[0] = 1.0;
+        for (int i = 1; i < POWER_TABLE_SIZE; i++) {
+            beta1Powers[i] = beta1Powers[i - 1] * beta1;
+            beta2Powers[i] = beta2Powers[i - 1] * beta2;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "Lazy Adam";
+    }
+
+    @Override
+    public boolean usesActiveEntries() {
+        return true;
+    }
+
+    /**
+     * Updates the entries of a range whose raw gradient is nonzero and skips the others.
+     * <p>
+     * If most of the range is active, the fused kernel runs in place over every run of consecutive
+     * active entries. Otherwise the active entries are gathered, see {@link #updateGathered}.
+     */
+    @Override
+    public void update(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        int active = 0;
+        for (int i = 0; i < length; i++) {
+            if (gradientSource[sourceOffset + i] != 0.0) {
+                active++;
+            }
+        }
+        if (gradientScale == 0.0 || active == 0) {
+            return;
+        }
+        int step = step();
+        if (2 * active >= length) {
+            updateRuns(parameters, offset, length, gradientSource, sourceOffset, gradientScale, decay, step);
+            return;
+        }
+
+        ensureCapacity(active);
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            double gradient = gradientSource[sourceOffset + i];
+            if (gradient != 0.0) {
+                activeIndices[count] = i;
+                activeGradients[count] = gradient;
+                count++;
+            }
+        }
+        updateGathered(parameters, offset, activeIndices, activeGradients, count, gradientScale, decay, step);
+    }
+
+    /**
+     * Same as {@link #update(double[], int, int, double[], int, double, double)}, for a single-precision
+     * network.
+     *
+     * @throws IllegalStateException if the moments are double precision.
+     */
+    @Override
+    public void update(float[] parameters, int offset, int length, float[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        if (firstMoments32 == null) {
+            throw new IllegalStateException("A single-precision network needs single-precision Adam moments.");
+        }
+        int active = 0;
+        for (int i = 0; i < length; i++) {
+            if (gradientSource[sourceOffset + i] != 0.0f) {
+                active++;
+            }
+        }
+        if (gradientScale == 0.0 || active == 0) {
+            return;
+        }
+        int step = step();
+        if (2 * active >= length) {
+            updateRuns(parameters, offset, length, gradientSource, sourceOffset, gradientScale, decay, step);
+            return;
+        }
+
+        ensureCapacity32(active);
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            float gradient = gradientSource[sourceOffset + i];
+            if (gradient != 0.0f) {
+                activeIndices[count] = i;
+                activeGradients32[count] = gradient;
+                count++;
+            }
+        }
+        updateGathered32(parameters, offset, activeIndices, activeGradients32, count, gradientScale, decay, step);
+    }
+
+    /**
+     * Updates the listed entries of a range and reads or writes no other entry.
+     * <p>
+     * This matches the per-sample gradient of a first-layer weight row, {@code delta * input},
+     * with the input in its {@link SparseInput sparse} form. Without a list, the range is scanned.
+     */
+    @Override
+    public void update(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay, SparseInput activeEntries) {
+        if (activeEntries == null) {
+            update(parameters, offset, length, gradientSource, sourceOffset, gradientScale, decay);
+            return;
+        }
+        int count = activeEntries.nonZeros;
+        if (gradientScale == 0.0 || count == 0) {
+            return;
+        }
+        ensureCapacity(count);
+        updateGathered(parameters, offset, activeEntries.indices, activeEntries.values, count, gradientScale,
+                decay, step());
+    }
+
+    /**
+     * Updates a mostly active range in place.
+     * <p>
+     * The inactive entries are caught up in closed form through the current step, which leaves their
+     * moments exactly those of an Adam step with a zero gradient and their parameters untouched, as
+     * on the gathered path. The active entries are caught up to the previous step, and the fused
+     * kernel then runs over each run of consecutive active entries.
+     */
+    private void updateRuns(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                            double gradientScale, double decay, int step) {
+        int i = 0;
+        while (i < length) {
+            if (gradientSource[sourceOffset + i] == 0.0) {
+                catchUpSkipped(offset + i, step);
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && gradientSource[sourceOffset + i] != 0.0) {
+                i++;
+            }
+            catchUp(offset + start, i - start, step);
+            update(parameters, offset + start, i - start, gradientSource, sourceOffset + start, gradientScale,
+                    decay, 1.0);
+        }
+    }
+
+    /**
+     * Same as {@link #updateRuns(double[], int, int, double[], int, double, double, int)}, for a
+     * single-precision network.
+     */
+    private void updateRuns(float[] parameters, int offset, int length, float[] gradientSource, int sourceOffset,
+                            double gradientScale, double decay, int step) {
+        int i = 0;
+        while (i < length) {
+            if (gradientSource[sourceOffset + i] == 0.0f) {
+                catchUpSkipped(offset + i, step);
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && gradientSource[sourceOffset + i] != 0.0f) {
+                i++;
+            }
+            catchUp(offset + start, i - start, step);
+            update(parameters, offset + start, i - start, gradientSource, sourceOffset + start, gradientScale,
+                    decay, 1.0);
+        }
+    }
+
+    /**
+     * Gathers the listed entries into contiguous buffers, catching up on their skipped decay on
+     * the way, runs the fused Adam kernel over the buffers and scatters the results back.
+     * <p>
+     * The active entries of a row are rarely consecutive (the nonzero pixels of an image are
+     * scattered), so moving them is cheaper than running the square roots and divisions of the
+     * update one by one.
+     */
+    private void updateGathered(double[] parameters, int offset, int[] indices, double[] gradients, int count,
+                                double gradientScale, double decay, int step) {
+        boolean single = firstMoments == null;
+        for (int t = 0; t < count; t++) {
+            int index = offset + indices[t];
+            int gap = step - 1 - lastSteps[index];
+            lastSteps[index] = step;
+            if (gap > 0) {
+                decay(index, gap);
+            }
+            gatheredParameters[t] = parameters[index];
+            if (single) {
+                gatheredFirstMoments32[t] = firstMoments32[index];
+                gatheredSecondMoments32[t] = secondMoments32[index];
+            } else {
+                gatheredFirstMoments[t] = firstMoments[index];
+                gatheredSecondMoments[t] = secondMoments[index];
+            }
+        }
+
+        KernelBackend kernels = MathUtils.kernels();
+        if (single) {
+            kernels.adamUpdate(gatheredParameters, gatheredFirstMoments32, gatheredSecondMoments32, 0, count,
+                    gradients, 0, gradientScale, decay, 1.0, beta1, beta2, stepSize, correctionScale, epsilon);
+        } else {
+            kernels.adamUpdate(gatheredParameters, gatheredFirstMoments, gatheredSecondMoments, 0, count,
+                    gradients, 0, gradientScale, decay, 1.0, beta1, beta2, stepSize, correctionScale, epsilon);
+        }
+
+        for (int t = 0; t < count; t++) {
+            int index = offset + indices[t];
+            parameters[index] = gatheredParameters[t];
+            if (single) {
+                firstMoments32[index] = gatheredFirstMoments32[t];
+                secondMoments32[index] = gatheredSecondMoments32[t];
+            } else {
+                firstMoments[index] = gatheredFirstMoments[t];
+                secondMoments[index] = gatheredSecondMoments[t];
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #updateGathered}, for a single-precision network, whose moments are always
+     * single precision.
+     */
+    private void updateGathered32(float[] parameters, int offset, int[] indices, float[] gradients, int count,
+                                  double gradientScale, double decay, int step) {
+        for (int t = 0; t < count; t++) {
+            int index = offset + indices[t];
+            int gap = step - 1 - lastSteps[index];
+            lastSteps[index] = step;
+            if (gap > 0) {
+                decay(index, gap);
+            }
+            gatheredParameters32[t] = parameters[index];
+            gatheredFirstMoments32[t] = firstMoments32[index];
+            gatheredSecondMoments32[t] = secondMoments32[index];
+        }
+
+        MathUtils.kernels().adamUpdate(gatheredParameters32, gatheredFirstMoments32, gatheredSecondMoments32, 0,
+                count, gradients, 0, gradientScale, decay, 1.0, beta1, beta2, stepSize, correctionScale, epsilon);
+
+        for (int t = 0; t < count; t++) {
+            int index = offset + indices[t];
+            parameters[index] = gatheredParameters32[t];
+            firstMoments32[index] = gatheredFirstMoments32[t];
+            secondMoments32[index] = gatheredSecondMoments32[t];
+        }
+    }
+
+    /**
+     * Grows the gather buffers to hold at least {@code count} entries.
+     */
+    private void ensureCapacity(int count) {
+        if (gatheredParameters.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, 2 * gatheredParameters.length);
+        activeIndices = new int[Math.max(capacity, activeIndices.length)];
+        activeGradients = new double[capacity];
+        gatheredParameters = new double[capacity];
+        if (firstMoments == null) {
+            gatheredFirstMoments32 = new float[capacity];
+            gatheredSecondMoments32 = new float[capacity];
+        } else {
+            gatheredFirstMoments = new double[capacity];
+            gatheredSecondMoments = new double[capacity];
+        }
+    }
+
+    /**
+     * Grows the single-precision gather buffers to hold at least {@code count} entries.
+     */
+    private void ensureCapacity32(int count) {
+        if (gatheredParameters32.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, 2 * gatheredParameters32.length);
+        activeIndices = new int[Math.max(capacity, activeIndices.length)];
+        activeGradients32 = new float[capacity];
+        gatheredParameters32 = new float[capacity];
+        gatheredFirstMoments32 = new float[capacity];
+        gatheredSecondMoments32 = new float[capacity];
+    }
+
+    /**
+     * Applies the decay an inactive entry missed up to and including the current step, leaving its
+     * parameter untouched, and stamps it with the current step.
+     *
+     * @param index The index of the entry.
+     * @param step  The current time step.
+     */
+    private void catchUpSkipped(int index, int step) {
+        int gap = step - lastSteps[index];
+        lastSteps[index] = step;
+        if (gap > 0) {
+            decay(index, gap);
+        }
+    }
+
+    /**
+     * Applies the decay a range of entries missed since their last update and stamps them with the
+     * current step, so the regular Adam update can follow.
+     *
+     * @param offset The index of the first entry.
+     * @param length The number of entries.
+     * @param step   The current time step.
+     */
+    private void catchUp(int offset, int length, int step) {
+        for (int index = offset; index < offset + length; index++) {
+            int gap = step - 1 - lastSteps[index];
+            lastSteps[index] = step;
+            if (gap > 0) {
+                decay(index, gap);
+            }
+        }
+    }
+
+    /**
+     * Multiplies the moments of one entry by the decay of {@code gap} steps without gradient.
+     *
+     * @param index The index of the entry.
+     * @param gap   The number of skipped steps.
+     */
+    private void decay(int index, int gap) {
+        double beta1Gap = beta1Power(gap);
+        double beta2Gap = beta2Power(gap);
+        if (firstMoments != null) {
+            firstMoments[index] *= beta1Gap;
+            secondMoments[index] *= beta2Gap;
+        } else {
+            firstMoments32[index] = (float) (firstMoments32[index] * beta1Gap);
+            secondMoments32[index] = (float) (secondMoments32[index] * beta2Gap);
+        }
+    }
+
+    private double beta1Power(int gap) {
+        return gap < POWER_TABLE_SIZE ? beta1Powers[gap] : Math.pow(beta1, gap);
+    }
+
+    private double beta2Power(int gap) {
+        return gap < POWER_TABLE_SIZE ? beta2Powers[gap] : Math.pow(beta2, gap);
+    }
+
+    /**
+     * Writes the same state as {@link AdamOptimizer}, with the pending decay applied to the written
+     * moments, so a checkpoint can be resumed by either optimizer.
+     * <p>
+     * The live moments are left as they are: saving a checkpoint does not change the rounding of
+     * the later closed-form catch-ups, so a run with checkpoints follows the same trajectory as one
+     * without.
+     */
+    @Override
+    public void writeState(ByteBuffer target) {
+        int start = target.position();
+        super.writeState(target);
+        //Overwrite the stored moments of the lagging entries: time step and beta powers, then two arrays
+        int firstStart = start + Integer.BYTES + 2 * Double.BYTES + 2 * Integer.BYTES;
+        int secondStart = firstStart + OptimizerState.size(firstMoments, firstMoments32);
+        int step = step();
+        for (int index = 0; index < lastSteps.length; index++) {
+            int gap = step - lastSteps[index];
+            if (gap <= 0) {
+                continue;
+            }
+            double beta1Gap = beta1Power(gap);
+            double beta2Gap = beta2Power(gap);
+            if (firstMoments != null) {
+                target.putDouble(firstStart + index * Double.BYTES, firstMoments[index] * beta1Gap);
+                target.putDouble(secondStart + index * Double.BYTES, secondMoments[index] * beta2Gap);
+            } else {
+                target.putFloat(firstStart + index * Float.BYTES, (float) (firstMoments32[index] * beta1Gap));
+                target.putFloat(secondStart + index * Float.BYTES, (float) (secondMoments32[index] * beta2Gap));
+            }
+        }
+    }
+
+    @Override
+    public void readState(ByteBuffer source) throws IOException {
+        super.readState(source);
+        Arrays.fill(lastSteps, step());
+    }
+}
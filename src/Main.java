@@ -1,16 +1,20 @@
 // 582919 Patrik Chupáč
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The main entry point for the Neural Network application.
  * <p>
  * This class handles the setup of the network, loading of data,
- * execution of the training loop (using the Adam optimizer),
+ * execution of the mini-batch training loop (using the Adam optimizer, with batches
+ * decoded on a background thread),
  * and generation of the final prediction files for submission.
  */
 public class Main {
@@ -22,10 +26,30 @@ public class Main {
      * 1. Initializes the neural network and random number generator.
      * 2. Loads the Fashion-MNIST training data.
      * 3. Splits data into training and validation sets.
-     * 4. Runs the training loop for a specified number of epochs, checking validation accuracy.
-     * 5. Implements early stopping if validation accuracy does not improve.
+     * 4. Runs the mini-batch training loop for a specified number of epochs, visiting the training
+     *    samples in a new seeded order every epoch and checking validation accuracy.
+     * 5. Scores every epoch on the validation set in the background, stops early if validation
+     *    accuracy does not improve and restores the best weights.
      * 6. Generates prediction files ('train_predictions.csv' and 'test_predictions.csv').
      * 7. Prints the final execution time.
+     * <p>
+     * With {@code -Dnn.checkpoint=<file>}, training resumes from that checkpoint if it exists
+     * (at the epoch after the saved one, with the saved early-stopping state and best weights)
+     * and the checkpoint is rewritten after every epoch. With {@code -Dnn.serve=<port>}, the
+     * network is served over HTTP while it trains (see {@link InferenceServer}), with a new
+     * snapshot of the weights published after every epoch. With {@code -Dnn.telemetry=true},
+     * a per-phase summary of every epoch is appended to {@code telemetry.jsonl} (see {@link Telemetry}).
+     * With {@code -Dnn.lazyAdam=true}, Adam skips the weights of inputs that are zero in the
+     * whole batch (see {@link LazyAdamOptimizer}).
+     * With {@code -Dnn.quantize=true}, the trained network is also quantized to int8 and its
+     * test accuracy compared with the double model (see {@link QuantizedModel}).
+     * Training, prediction and validation use one thread per core, or {@code -Dnn.threads=<n>}.
+     * The thread count sets the shape of the gradient reduction (see {@link ParallelTrainer}), so
+     * a run is only reproducible for a fixed thread count: with the default, the trained weights
+     * differ between machines with different numbers of cores. Set {@code -Dnn.threads} to compare runs.
+     * With {@code -Dnn.precision=float32}, the network, its data and its optimizer state are single
+     * precision (see {@link Precision}); add {@code -Dnn.doubleAccumulation=true} to accumulate
+     * its dot products in double precision.
      *
      * @param args Command line arguments (not used).
      */
@@ -33,83 +57,170 @@ public class Main {
         long startTime = System.currentTimeMillis();
 
         System.out.println("Setting up...");
+        System.out.println("Math kernels: " + MathUtils.kernels().name());
         Random random = new Random(0);
 
-        NeuralNetwork network = new NeuralNetwork(0.0001,0.6,0, random, 784, 128, 64, 10);
+        Precision precision = "float32".equalsIgnoreCase(System.getProperty("nn.precision"))
+                ? Precision.FLOAT32 : Precision.FLOAT64;
+        NeuralNetwork network = new NeuralNetwork(0.001,0.6,0, precision, precision, random, 784, 128, 64, 10);
+
+        //Optional checkpoint: resume from it if it exists, and save it after every epoch
+        String checkpointPath = System.getProperty("nn.checkpoint");
+        boolean resumed = false;
+        if (checkpointPath != null && new File(checkpointPath).isFile()) {
+            try {
+                network = Checkpoint.load(checkpointPath);
+                resumed = true;
+                System.out.println("Resumed from checkpoint " + checkpointPath);
+            } catch (IOException e) {
+                System.err.println("Could not load checkpoint, starting from scratch: " + e.getMessage());
+            }
+        }
 
         String trainVectorsPath = "data/fashion_mnist_train_vectors.csv";
         String trainLabelsPath = "data/fashion_mnist_train_labels.csv";
         System.out.println("Loading all training data from " + trainVectorsPath);
-        List<MnistImage> allTrainingData = DataReader.loadData(trainVectorsPath, trainLabelsPath);
-
-        //Collections.shuffle(allTrainingData, random);
+        Dataset allTrainingData = loadDataset(trainVectorsPath, trainLabelsPath);
 
         int validationSize = allTrainingData.size() / 10;
-        List<MnistImage> validationData = allTrainingData.subList(0, validationSize);
-        List<MnistImage> trainingData = allTrainingData.subList(validationSize, allTrainingData.size());
+        int[] trainingIndices = new int[allTrainingData.size() - validationSize];
+        for (int i = 0; i < trainingIndices.length; i++) {
+            trainingIndices[i] = validationSize + i;
+        }
 
         System.out.println("Data split into:");
-        System.out.println(" - Training set size: " + trainingData.size());
-        System.out.println(" - Validation set size: " + validationData.size());
+        System.out.println(" - Training set size: " + trainingIndices.length);
+        System.out.println(" - Validation set size: " + validationSize);
+
+        //A new reproducible sample order every epoch
+        EpochSampler sampler = EpochSampler.shuffled(trainingIndices, 0);
 
 
         int epochs = 15;
-        double bestValidationAccuracy = 0.0;
-        int epochsWithoutImprovement = 0;
+        TrainingProgress progress = new TrainingProgress(network);
+        BestWeights bestWeights = progress.bestWeights;
         final int patience = 2;
+        if (resumed) {
+            try {
+                Checkpoint.loadProgress(checkpointPath, progress);
+            } catch (IOException e) {
+                System.err.println("Could not load the training progress, starting at epoch 1: " + e.getMessage());
+            }
+        }
+
+        final int batchSize = 32;
+        final int prefetchDepth = 4;
+
+        final int trainingThreads = threadCount();
+        ParallelTrainer trainer = new ParallelTrainer(network, trainingThreads, batchSize);
+        BatchPredictor predictor = new BatchPredictor(network, trainingThreads);
+        AsyncValidator validator = new AsyncValidator(allTrainingData, 0, validationSize, trainingThreads);
+        Deque<CompletableFuture<AsyncValidator.Result>> pendingValidations = new ArrayDeque<>();
+        InferenceServer server = startServer(network);
+
+        System.out.println("\nStarting training for up to " + epochs + " epochs on " + trainingThreads + " threads...");
+        if (System.getProperty("nn.threads") == null) {
+            System.out.println("The results depend on the thread count; set -Dnn.threads to reproduce them elsewhere.");
+        }
+        Telemetry.reset();
 
-        System.out.println("\nStarting training for up to " + epochs + " epochs...");
+        //A resumed run has not scored the checkpointed epoch yet; the network still holds its weights
+        if (progress.validatedEpochs < progress.completedEpochs && !progress.stopping) {
+            System.out.println("Continuing after epoch " + progress.completedEpochs + ".");
+            pendingValidations.add(validator.submit(progress.completedEpochs, network.snapshot()));
+        }
 
-        for (int epoch = 0; epoch < epochs; epoch++) {
+        for (int epoch = progress.completedEpochs; epoch < epochs && !progress.stopping; epoch++) {
+            try (BatchPrefetcher batches = new BatchPrefetcher(allTrainingData, sampler.permutation(epoch), batchSize,
+                    10, prefetchDepth, network.precision())) {
+                while (true) {
+                    long waitStart = Telemetry.start();
+                    BatchPrefetcher.Batch batch = batches.nextBatch();
+                    Telemetry.stop(Telemetry.Phase.DATA, waitStart);
+                    if (batch == null) {
+                        break;
+                    }
+                    if (batch.inputs32 != null) {
+                        trainer.trainBatch(batch.inputs32, batch.targets);
+                    } else {
+                        trainer.trainBatch(batch.inputs, batch.targets);
+                    }
+                }
+            }
 
-            //Collections.shuffle(trainingData, random);
+            //Score a snapshot of this epoch in the background while the next epoch trains
+            InferenceModel snapshot = network.snapshot();
+            pendingValidations.add(validator.submit(epoch + 1, snapshot));
+            Telemetry.endEpoch(epoch + 1);
+            System.out.printf("Epoch %d complete.\n", epoch + 1);
 
-            for (int i = 0; i < trainingData.size(); i++) {
-                MnistImage image = trainingData.get(i);
-                double[] expectedOutput = createOneHotVector(image.label(), 10);
-                network.trainADAM(image.pixels(), expectedOutput);
+            if (server != null) {
+                server.batcher().models().publish(snapshot);
             }
 
-            int correctValidation = 0;
-            for(MnistImage image : validationData) {
-                if (network.predict(image.pixels()) == image.label()) {
-                    correctValidation++;
+            //Early stopping decides on the previous epoch's score (always one epoch behind, so runs
+            //are reproducible); once stopping or after the last epoch, wait for every pending score
+            boolean lastEpoch = epoch == epochs - 1;
+            while (pendingValidations.size() > 1
+                    || (!pendingValidations.isEmpty() && (progress.stopping || lastEpoch))) {
+                AsyncValidator.Result result = pendingValidations.poll().join();
+                System.out.printf("Epoch %d Validation Accuracy: %.4f\n", result.epoch, result.accuracy);
+                progress.validatedEpochs = result.epoch;
+
+                if (bestWeights.offer(result)) {
+                    progress.epochsWithoutImprovement = 0;
+                    System.out.println("  -> New best validation accuracy!");
+                } else if (!progress.stopping) {
+                    progress.epochsWithoutImprovement++;
+                    if (progress.epochsWithoutImprovement >= patience) {
+                        System.out.printf("Stopping early. Validation accuracy has not improved for %d epochs.\n", patience);
+                        progress.stopping = true;
+                    }
                 }
             }
-            double validationAccuracy = (double) correctValidation / validationData.size();
-
-            System.out.printf("Epoch %d complete. Validation Accuracy: %.4f\n",
-                    epoch + 1, validationAccuracy);
-
-            if (validationAccuracy > bestValidationAccuracy) {
-                bestValidationAccuracy = validationAccuracy;
-                epochsWithoutImprovement = 0;
-                System.out.println("  -> New best validation accuracy!");
-            } else {
-                epochsWithoutImprovement++;
-                if (epochsWithoutImprovement >= patience) {
-                    System.out.printf("Stopping early. Validation accuracy has not improved for %d epochs.\n", patience);
-                    break;
+            progress.completedEpochs = epoch + 1;
+
+            //Saved after the scores were taken into account, so a resumed run only rescores this epoch
+            if (checkpointPath != null) {
+                try {
+                    Checkpoint.save(network, progress, checkpointPath);
+                } catch (IOException e) {
+                    System.err.println("Could not save checkpoint: " + e.getMessage());
                 }
             }
         }
+        trainer.close();
+        validator.close();
+        if (!bestWeights.isEmpty()) {
+            bestWeights.restore(network);
+            System.out.println("Restored the weights of epoch " + bestWeights.epoch() + ".");
+        }
+        if (server != null) {
+            server.close();
+        }
         System.out.println("Training finished.");
 
 
         System.out.println("\n--- Final Evaluation Phase ---");
 
         System.out.println("\nGenerating train_predictions.csv...");
-        savePredictions(network, allTrainingData, "train_predictions.csv");
+        savePredictions(predictor.predict(allTrainingData), "train_predictions.csv");
 
         String testVectorsPath = "data/fashion_mnist_test_vectors.csv";
         String testLabelsPath = "data/fashion_mnist_test_labels.csv";
         System.out.println("Loading test data...");
-        List<MnistImage> testData = DataReader.loadData(testVectorsPath, testLabelsPath);
+        Dataset testData = loadDataset(testVectorsPath, testLabelsPath);
 
         System.out.println("Generating test_predictions.csv...");
-        savePredictions(network, testData, "test_predictions.csv");
+        int[] testPredictions = predictor.predict(testData);
+        predictor.close();
+        savePredictions(testPredictions, "test_predictions.csv");
 
-        evaluateAndPrint(network, testData);
+        evaluateAndPrint(testPredictions, testData);
+        if (Boolean.getBoolean("nn.quantize")) {
+            InferenceModel model = network.snapshot();
+            QuantizedModel.printReport(model, QuantizedModel.quantize(model), testData, System.out);
+        }
 
         long endTime = System.currentTimeMillis();
         double totalTimeSeconds = (endTime - startTime) / 1000.0;
@@ -119,19 +230,83 @@ public class Main {
 
 
     /**
-     * Generates predictions for a given dataset and writes them to a CSV file.
+     * Reads the number of worker threads from {@code -Dnn.threads}, defaulting to the number of cores.
+     * <p>
+     * Training results are reproducible for a given thread count only, see {@link ParallelTrainer}.
+     *
+     * @return The number of threads used for training, prediction and validation (at least 1).
+     */
+    private static int threadCount() {
+        String value = System.getProperty("nn.threads");
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid nn.threads '" + value + "'");
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Starts an inference server for the network if {@code -Dnn.serve=<port>} is set.
+     *
+     * @param network The network to serve; a snapshot of its current weights is published.
+     * @return The running server, or {@code null} if serving is disabled or the server could not start.
+     */
+    private static InferenceServer startServer(NeuralNetwork network) {
+        String port = System.getProperty("nn.serve");
+        if (port == null) {
+            return null;
+        }
+        try {
+            InferenceServer server = new InferenceServer(new ModelHolder(network.snapshot()),
+                    Integer.parseInt(port), 64, 500_000, 4);
+            System.out.println("Serving predictions on port " + server.port() + " during training");
+            return server;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not start the inference server: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Loads a dataset from its memory-mapped binary form, converting the CSV files on the first run.
+     * <p>
+     * Falls back to parsing the CSV files into a {@link PackedDataset} if the binary file
+     * cannot be written or mapped.
+     *
+     * @param vectorsPath The CSV file with the pixel vectors.
+     * @param labelsPath  The CSV file with the labels.
+     * @return The dataset, decoded lazily from the mapped file.
+     */
+    private static Dataset loadDataset(String vectorsPath, String labelsPath) {
+        try {
+            return BinaryDataset.openOrConvert(vectorsPath, labelsPath, 28, 28);
+        } catch (IOException e) {
+            System.err.println("Binary dataset unavailable, parsing CSV instead: " + e.getMessage());
+        }
+        try {
+            return PackedDataset.fromCsv(vectorsPath, labelsPath, 28 * 28);
+        } catch (IOException e) {
+            System.err.println("Error reading data files");
+            e.printStackTrace();
+            return new PackedDataset(new byte[0], new byte[0], 28 * 28);
+        }
+    }
+
+    /**
+     * Writes predictions to a CSV file.
      * <p>
      * The output format corresponds to the assignment requirements:
-     * one integer (class label) per line.
+     * one integer (class label) per line, in the order of the dataset.
      *
-     * @param network  The trained neural network.
-     * @param data     The list of images to predict.
-     * @param filename The name of the output file (e.g., "train_predictions.csv").
+     * @param predictions The predicted label of every image, in dataset order.
+     * @param filename    The name of the output file (e.g., "train_predictions.csv").
      */
-    private static void savePredictions(NeuralNetwork network, List<MnistImage> data, String filename) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            for (MnistImage image : data) {
-                int prediction = network.predict(image.pixels());
+    private static void savePredictions(int[] predictions, String filename) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+            for (int prediction : predictions) {
                 writer.write(Integer.toString(prediction));
                 writer.newLine();
             }
@@ -142,15 +317,15 @@ public class Main {
     }
 
     /**
-     * Evaluates the network on a given dataset and prints the accuracy to the console.
+     * Compares predictions with the labels of a dataset and prints the accuracy to the console.
      *
-     * @param network The trained neural network.
-     * @param data    The dataset to evaluate against.
+     * @param predictions The predicted label of every image, in dataset order.
+     * @param data        The dataset the predictions were made for.
      */
-    private static void evaluateAndPrint(NeuralNetwork network, List<MnistImage> data) {
+    private static void evaluateAndPrint(int[] predictions, Dataset data) {
         int correctPredictions = 0;
-        for (MnistImage image : data) {
-            if (network.predict(image.pixels()) == image.label()) {
+        for (int i = 0; i < data.size(); i++) {
+            if (predictions[i] == data.label(i)) {
                 correctPredictions++;
             }
         }
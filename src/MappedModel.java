@@ -0,0 +1,153 @@
+import java.nio.DoubleBuffer;
+
+/**
+ * An inference-only network whose parameters live in a memory-mapped {@link Checkpoint} file.
+ * <p>
+ * The weights are never copied onto the heap as a whole: opening even a large model is
+ * near-instant and its pages are shared with every other process mapping the same file. A
+ * forward pass copies one weight row at a time out of a read-only view of the mapping (a bulk
+ * copy from the page cache) into a small per-thread buffer, and multiplies it with the same
+ * {@link KernelBackend#dot} kernel as {@link InferenceModel}. Reads use absolute positions only
+ * and the model is immutable, so one instance can be shared by many threads as long as each
+ * thread uses its own {@link Buffers}.
+ * <p>
+ * Instances are created with {@link Checkpoint#mapForInference(String)}.
+ */
+public final class MappedModel {
+
+    /**
+     * Per-thread buffers for forward passes through a {@link MappedModel}.
+     */
+    public static final class Buffers {
+
+        //Activations of every layer after the input layer
+        private final double[][] activations;
+        //The weight row being multiplied, copied out of the mapping
+        private final double[] row;
+
+        private Buffers(int[] sizes) {
+            this.activations = new double[sizes.length - 1][];
+            int largestInput = 0;
+            for (int i = 0; i < activations.length; i++) {
+                activations[i] = new double[sizes[i + 1]];
+                largestInput = Math.max(largestInput, sizes[i]);
+            }
+            this.row = new double[largestInput];
+        }
+    }
+
+    private final DoubleBuffer parameters;
+    private final int[] sizes;
+    private final int[] weightOffsets;
+    private final int[] biasOffsets;
+
+    /**
+     * Wraps the mapped parameters of a checkpoint whose header has already been validated.
+     *
+     * @param parameters The parameters (all weights, then all biases), indexed from 0.
+     * @param sizes      The number of neurons of every layer, starting with the input layer.
+     */
+    MappedModel(DoubleBuffer parameters, int[] sizes) {
+        this.parameters = parameters.asReadOnlyBuffer();
+        this.sizes = sizes.clone();
+        int layerCount = sizes.length - 1;
+        this.weightOffsets = new int[layerCount];
+        this.biasOffsets = new int[layerCount];
+
+        int weightCount = 0;
+        for (int i = 0; i < layerCount; i++) {
+            weightOffsets[i] = weightCount;
+            weightCount += sizes[i] * sizes[i + 1];
+        }
+        int biasOffset = weightCount;
+        for (int i = 0; i < layerCount; i++) {
+            biasOffsets[i] = biasOffset;
+            biasOffset += sizes[i + 1];
+        }
+    }
+
+    /**
+     * Returns the size of the input vector.
+     *
+     * @return The number of input neurons.
+     */
+    public int inputSize() {
+        return sizes[0];
+    }
+
+    /**
+     * Returns the number of classes.
+     *
+     * @return The number of output neurons.
+     */
+    public int outputSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Allocates the buffers for forward passes. Each thread needs its own.
+     *
+     * @return New buffers sized for this model.
+     */
+    public Buffers createBuffers() {
+        return new Buffers(sizes);
+    }
+
+    /**
+     * Performs the forward pass without allocating.
+     * Uses Leaky ReLU for hidden layers and Softmax for the output layer.
+     *
+     * @param input   The input vector.
+     * @param buffers Buffers created by {@link #createBuffers()}.
+     * @return The output probabilities (owned by the buffers, overwritten by the next pass).
+     */
+    public double[] feedForward(double[] input, Buffers buffers) {
+        double[] output = logits(input, buffers);
+        MathUtils.softmaxInto(output, output);
+        return output;
+    }
+
+    /**
+     * Computes the logits (the output layer before softmax) of one input without allocating.
+     *
+     * @param input   The input vector.
+     * @param buffers Buffers created by {@link #createBuffers()}.
+     * @return The logits (owned by the buffers, overwritten by the next pass).
+     */
+    public double[] logits(double[] input, Buffers buffers) {
+        KernelBackend kernels = MathUtils.kernels();
+        double[][] activations = buffers.activations;
+        double[] row = buffers.row;
+        double[] previous = input;
+        int lastLayer = activations.length - 1;
+        for (int i = 0; i <= lastLayer; i++) {
+            double[] current = activations[i];
+            int inputSize = sizes[i];
+            int weightOffset = weightOffsets[i];
+            int biasOffset = biasOffsets[i];
+            for (int j = 0; j < current.length; j++) {
+                parameters.get(weightOffset + j * inputSize, row, 0, inputSize);
+                current[j] = kernels.dot(row, 0, previous, 0, inputSize) + parameters.get(biasOffset + j);
+            }
+
+            if (i != lastLayer) {
+                MathUtils.leakyReluInPlace(current);
+            }
+            previous = current;
+        }
+        return previous;
+    }
+
+    /**
+     * Predicts the class of an input without allocating.
+     * <p>
+     * Softmax does not change the argmax, so it is skipped.
+     *
+     * @param input   The input vector.
+     * @param buffers Buffers created by {@link #createBuffers()}.
+     * @return The index of the largest logit (the first one on ties).
+     */
+    public int predict(double[] input, Buffers buffers) {
+        return MathUtils.argmax(logits(input, buffers), outputSize());
+    }
+}
@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Random;
 
 
@@ -5,16 +6,121 @@ import java.util.Random;
  * Static utility class containing mathematical functions for neural networks.
  * <p>
  * Includes activation functions (Sigmoid, ReLU, Leaky ReLU, Softmax), their derivatives,
- * and linear algebra operations (Matrix-Vector multiplication, Vector addition/subtraction).
+ * and linear algebra operations (Matrix-Vector and Matrix-Matrix multiplication,
+ * Vector addition/subtraction).
  */
 public final class MathUtils {
 
+    /**
+     * Tile size (in rows) used by the cache-blocked matrix-matrix kernels.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    /**
+     * Tile size (in columns) used by the cache-blocked matrix-matrix kernels.
+     */
+    private static final int BLOCK_DEPTH = 128;
+
+    /**
+     * The backend running the innermost loops, chosen once at class initialization.
+     */
+    private static final KernelBackend KERNELS = selectBackend();
+
+    /**
+     * Input density below which the first layer switches to the sparse kernels.
+     */
+    private static final double SPARSE_THRESHOLD = selectSparseThreshold();
+
+    /**
+     * Whether the single-precision dot products accumulate in double precision ({@code -Dnn.doubleAccumulation=true}).
+     */
+    private static final boolean DOUBLE_ACCUMULATION = Boolean.getBoolean("nn.doubleAccumulation");
+
     /**
      * Private constructor to prevent instantiation of this utility class.
      */
     private MathUtils() {
     }
 
+    /**
+     * Chooses the fastest available kernel backend.
+     * <p>
+     * The SIMD backend is used when the {@code jdk.incubator.vector} module was added to the
+     * JVM (with {@code --add-modules jdk.incubator.vector}) and it was not disabled with
+     * {@code -Dnn.simd=false}. Otherwise the portable scalar backend is used.
+     *
+     * @return The selected backend.
+     */
+    private static KernelBackend selectBackend() {
+        boolean simdEnabled = !"false".equalsIgnoreCase(System.getProperty("nn.simd"));
+        boolean vectorModulePresent = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if (simdEnabled && vectorModulePresent) {
+            try {
+                //Resolved relative to this class, which is packaged differently in the benchmark build
+                String name = MathUtils.class.getName().replace("MathUtils", "SimdKernels");
+                return (KernelBackend) Class.forName(name).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("SIMD kernels unavailable, falling back to scalar kernels: " + e);
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * Reads the sparse density threshold from {@code -Dnn.sparseThreshold}, defaulting to the
+     * break-even point of the selected backend. A threshold of 0 disables the sparse path.
+     *
+     * @return The threshold.
+     */
+    private static double selectSparseThreshold() {
+        String value = System.getProperty("nn.sparseThreshold");
+        if (value != null) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid nn.sparseThreshold '" + value + "'");
+            }
+        }
+        return KERNELS.sparseDensityThreshold();
+    }
+
+    /**
+     * Tells whether inputs with the given number of nonzero elements should be multiplied
+     * with the sparse kernels.
+     *
+     * @param nonZeros The number of nonzero elements.
+     * @param elements The total number of elements.
+     * @return {@code true} if the density is below the sparse threshold.
+     */
+    public static boolean preferSparse(long nonZeros, long elements) {
+        return nonZeros < SPARSE_THRESHOLD * elements;
+    }
+
+    /**
+     * Returns the largest number of nonzero elements for which inputs with the given total number
+     * of elements still take the sparse kernels, i.e. the largest {@code n} with
+     * {@link #preferSparse preferSparse(n, elements)}. Lets callers stop scanning an input as soon
+     * as it is known to be too dense.
+     *
+     * @param elements The total number of elements.
+     * @return The limit, or -1 if the sparse path is disabled.
+     */
+    public static long maxSparseNonZeros(long elements) {
+        if (!(SPARSE_THRESHOLD > 0)) {
+            return -1;
+        }
+        return Math.min(elements, (long) Math.ceil(SPARSE_THRESHOLD * elements) - 1);
+    }
+
+    /**
+     * Returns the backend running the innermost loops of all kernels.
+     *
+     * @return The kernel backend selected at startup.
+     */
+    public static KernelBackend kernels() {
+        return KERNELS;
+    }
+
     /**
      * Calculates the Sigmoid activation function.
      * f(x) = 1 / (1 + exp(-x))
@@ -72,6 +178,15 @@ public final class MathUtils {
         return x > 0 ? x : 0.01 * x;
     }
 
+    /**
+     * Applies the Leaky ReLU activation function to every element of a vector in place.
+     *
+     * @param values The values to activate.
+     */
+    public static void leakyReluInPlace(double[] values) {
+        KERNELS.leakyRelu(values, values.length);
+    }
+
     /**
      * Calculates the derivative of the Leaky ReLU function.
      *
@@ -93,7 +208,20 @@ public final class MathUtils {
      */
     public static double[] softmax(double[] logits) {
         double[] probabilities = new double[logits.length];
+        softmaxInto(logits, probabilities);
+        return probabilities;
+    }
 
+    /**
+     * Calculates the Softmax probability distribution into an existing array.
+     * <p>
+     * Same as {@link #softmax(double[])}, but without allocating. The result may be
+     * the same array as the logits.
+     *
+     * @param logits The raw output values from the final layer.
+     * @param result The array receiving the probabilities (same length as logits).
+     */
+    public static void softmaxInto(double[] logits, double[] result) {
         double maxLogit = Double.NEGATIVE_INFINITY;
         for (double logit : logits) {
             if (logit > maxLogit) {
@@ -103,15 +231,123 @@ public final class MathUtils {
 
         double sumExponentials = 0.0;
         for (int i = 0; i < logits.length; i++) {
-            probabilities[i] = Math.exp(logits[i] - maxLogit);
-            sumExponentials += probabilities[i];
+            result[i] = Math.exp(logits[i] - maxLogit);
+            sumExponentials += result[i];
         }
 
-        for (int i = 0; i < probabilities.length; i++) {
-            probabilities[i] /= sumExponentials;
+        for (int i = 0; i < result.length; i++) {
+            result[i] /= sumExponentials;
         }
+    }
 
-        return probabilities;
+    /**
+     * Same as {@link #softmaxInto(double[], double[])}, for single-precision logits. The
+     * exponentials are summed in double precision.
+     *
+     * @param logits The raw output values from the final layer.
+     * @param result The array receiving the probabilities (same length as logits).
+     */
+    public static void softmaxInto(float[] logits, float[] result) {
+        float maxLogit = Float.NEGATIVE_INFINITY;
+        for (float logit : logits) {
+            if (logit > maxLogit) {
+                maxLogit = logit;
+            }
+        }
+
+        double sumExponentials = 0.0;
+        for (int i = 0; i < logits.length; i++) {
+            result[i] = (float) Math.exp(logits[i] - maxLogit);
+            sumExponentials += result[i];
+        }
+
+        float inverse = (float) (1.0 / sumExponentials);
+        for (int i = 0; i < result.length; i++) {
+            result[i] *= inverse;
+        }
+    }
+
+    /**
+     * Finds the index of the largest of the first {@code length} values.
+     * <p>
+     * Softmax is monotonic, so the argmax of the logits is the argmax of the probabilities;
+     * predictions can skip the exponentials and the division entirely.
+     *
+     * @param values The values, e.g. the logits of the output layer.
+     * @param length The number of values to consider.
+     * @return The index of the maximum (the first one on ties).
+     */
+    public static int argmax(double[] values, int length) {
+        int maxIndex = 0;
+        for (int i = 1; i < length; i++) {
+            if (values[i] > values[maxIndex]) {
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Same as {@link #argmax(double[], int)}, for single-precision values.
+     *
+     * @param values The values to search.
+     * @param length The number of leading values to consider.
+     * @return The index of the largest value.
+     */
+    public static int argmax(float[] values, int length) {
+        int maxIndex = 0;
+        for (int i = 1; i < length; i++) {
+            if (values[i] > values[maxIndex]) {
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * Finds the {@code k} most likely classes of a vector of logits, with their Softmax probabilities.
+     * <p>
+     * The probabilities are normalized over all {@code length} logits, so they match
+     * {@link #softmaxInto}, but only the selected ones are written.
+     *
+     * @param logits        The raw output values of the final layer.
+     * @param length        The number of classes.
+     * @param k             The number of classes to return.
+     * @param classes       The array receiving the classes, most likely first (ties in index order).
+     * @param probabilities The array receiving the probability of every returned class.
+     * @return The number of classes written, {@code min(k, length)} (0 if {@code k} is not positive).
+     */
+    public static int topK(double[] logits, int length, int k, int[] classes, double[] probabilities) {
+        int count = Math.min(k, length);
+        if (count <= 0) {
+            return 0;
+        }
+        double maxLogit = logits[argmax(logits, length)];
+        double sumExponentials = 0.0;
+        for (int i = 0; i < length; i++) {
+            sumExponentials += Math.exp(logits[i] - maxLogit);
+        }
+
+        //Insertion into the sorted prefix; k is small next to the number of classes
+        int found = 0;
+        for (int i = 0; i < length; i++) {
+            double logit = logits[i];
+            if (found == count && logit <= logits[classes[count - 1]]) {
+                continue;
+            }
+            int position = Math.min(found, count - 1);
+            while (position > 0 && logit > logits[classes[position - 1]]) {
+                classes[position] = classes[position - 1];
+                position--;
+            }
+            classes[position] = i;
+            found = Math.min(found + 1, count);
+        }
+
+        for (int i = 0; i < count; i++) {
+            probabilities[i] = Math.exp(logits[classes[i]] - maxLogit) / sumExponentials;
+        }
+        return count;
     }
 
 
@@ -125,10 +361,25 @@ public final class MathUtils {
      * @throws IllegalArgumentException if matrix columns do not match vector length.
      */
     public static double[] matrixVectorMultiply(double[][] matrix, double[] vector) {
+        double[] result = new double[matrix.length];
+        multiplyInto(matrix, vector, result);
+        return result;
+    }
+
+    /**
+     * Performs Matrix-Vector multiplication into an existing array.
+     * Result = Matrix * Vector
+     *
+     * @param matrix The matrix [rows][cols].
+     * @param vector The vector [cols].
+     * @param result The vector [rows] the product is written into (must not be the input vector).
+     * @throws IllegalArgumentException if matrix columns do not match vector length.
+     */
+    public static void multiplyInto(double[][] matrix, double[] vector, double[] result) {
         int rows = matrix.length;
 
         if (rows == 0) {
-            return new double[0];
+            return;
         }
 
         int cols = matrix[0].length;
@@ -137,19 +388,528 @@ public final class MathUtils {
             throw new IllegalArgumentException("Matrix columns (" + cols + ") must match vector length (" + vector.length + ").");
         }
 
-        double[] result = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            result[i] = KERNELS.dot(matrix[i], 0, vector, 0, cols);
+        }
+    }
+
+
+    /**
+     * Performs transposed Matrix-Vector multiplication into an existing array.
+     * Result = Matrix^T * Vector
+     * <p>
+     * Reads the matrix in its row-major layout instead of building a transposed copy:
+     * every row is scaled by the matching vector element and added to the result,
+     * so rows are streamed sequentially.
+     *
+     * @param matrix The matrix [rows][cols].
+     * @param vector The vector [rows].
+     * @param result The vector [cols] the product is written into (must not be the input vector).
+     * @throws IllegalArgumentException if matrix rows do not match vector length.
+     */
+    public static void transposeMultiplyInto(double[][] matrix, double[] vector, double[] result) {
+        int rows = matrix.length;
+
+        if (rows != vector.length) {
+            throw new IllegalArgumentException("Matrix rows (" + rows + ") must match vector length (" + vector.length + ").");
+        }
+
+        Arrays.fill(result, 0.0);
+        for (int i = 0; i < rows; i++) {
+            double[] row = matrix[i];
+            KERNELS.axpy(vector[i], row, 0, result, 0, row.length);
+        }
+    }
+
+
+    /**
+     * Performs Matrix-Vector multiplication on a matrix stored row-major in a flat array.
+     * Result = Matrix * Vector
+     *
+     * @param matrix The array holding the matrix.
+     * @param offset The index of the matrix's first element.
+     * @param rows   The number of rows.
+     * @param cols   The number of columns (must match the vector length).
+     * @param vector The vector [cols].
+     * @param result The vector [rows] the product is written into (must not be the input vector).
+     * @throws IllegalArgumentException if matrix columns do not match vector length.
+     */
+    public static void multiplyInto(double[] matrix, int offset, int rows, int cols, double[] vector, double[] result) {
+        if (cols != vector.length) {
+            throw new IllegalArgumentException("Matrix columns (" + cols + ") must match vector length (" + vector.length + ").");
+        }
 
         for (int i = 0; i < rows; i++) {
-            double sum = 0;
-            for (int j = 0; j < cols; j++) {
-                sum += matrix[i][j] * vector[j];
+            result[i] = KERNELS.dot(matrix, offset + i * cols, vector, 0, cols);
+        }
+    }
+
+    /**
+     * Performs Matrix-Vector multiplication with a sparse vector on a matrix stored row-major in a flat array.
+     * Result = Matrix * Vector
+     * <p>
+     * Only the columns of the vector's nonzero elements are read.
+     *
+     * @param matrix The array holding the matrix.
+     * @param offset The index of the matrix's first element.
+     * @param rows   The number of rows.
+     * @param cols   The number of columns (must match the vector length).
+     * @param vector The sparse vector [cols].
+     * @param result The vector [rows] the product is written into.
+     * @throws IllegalArgumentException if matrix columns do not match vector length.
+     */
+    public static void multiplyInto(double[] matrix, int offset, int rows, int cols, SparseInput vector,
+                                    double[] result) {
+        if (cols != vector.length) {
+            throw new IllegalArgumentException("Matrix columns (" + cols + ") must match vector length (" + vector.length + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            result[i] = KERNELS.sparseDot(matrix, offset + i * cols, vector.indices, vector.values, vector.nonZeros);
+        }
+    }
+
+    /**
+     * Computes one fully connected layer for a single vector in one pass over the outputs.
+     * Result = activation(Matrix * Vector + Biases)
+     * <p>
+     * Every output is finished (dot product, bias, Leaky ReLU) while it is still in a register,
+     * instead of being written by the product and read back by separate bias and activation passes.
+     *
+     * @param parameters   The array holding the weight matrix (row-major) and the biases.
+     * @param weightOffset The index of the matrix's first element.
+     * @param biasOffset   The index of the first bias.
+     * @param rows         The number of rows (outputs).
+     * @param cols         The number of columns (inputs).
+     * @param vector       The input vector; only the first {@code cols} elements are read.
+     * @param activate     Whether to apply Leaky ReLU (hidden layers) or keep the raw values (output layer).
+     * @param result       The vector the first {@code rows} outputs are written into (must not be the input vector).
+     * @throws IllegalArgumentException if the vector is shorter than the number of columns.
+     */
+    public static void denseLayerInto(double[] parameters, int weightOffset, int biasOffset, int rows, int cols,
+                                      double[] vector, boolean activate, double[] result) {
+        if (vector.length < cols) {
+            throw new IllegalArgumentException("Matrix columns (" + cols + ") exceed vector length (" + vector.length + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            double value = KERNELS.dot(parameters, weightOffset + i * cols, vector, 0, cols) + parameters[biasOffset + i];
+            result[i] = activate ? leakyRelu(value) : value;
+        }
+    }
+
+    /**
+     * Computes one fully connected layer for a single sparse vector in one pass over the outputs.
+     * Same as {@link #denseLayerInto(double[], int, int, int, int, double[], boolean, double[])},
+     * but only the columns of the vector's nonzero elements are read.
+     *
+     * @param parameters   The array holding the weight matrix (row-major) and the biases.
+     * @param weightOffset The index of the matrix's first element.
+     * @param biasOffset   The index of the first bias.
+     * @param rows         The number of rows (outputs).
+     * @param cols         The number of columns (must match the vector length).
+     * @param vector       The sparse input vector.
+     * @param activate     Whether to apply Leaky ReLU (hidden layers) or keep the raw values (output layer).
+     * @param result       The vector the first {@code rows} outputs are written into.
+     * @throws IllegalArgumentException if matrix columns do not match vector length.
+     */
+    public static void denseLayerInto(double[] parameters, int weightOffset, int biasOffset, int rows, int cols,
+                                      SparseInput vector, boolean activate, double[] result) {
+        if (cols != vector.length) {
+            throw new IllegalArgumentException("Matrix columns (" + cols + ") must match vector length (" + vector.length + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            double value = KERNELS.sparseDot(parameters, weightOffset + i * cols, vector.indices, vector.values,
+                    vector.nonZeros) + parameters[biasOffset + i];
+            result[i] = activate ? leakyRelu(value) : value;
+        }
+    }
+
+    /**
+     * Same as {@link #denseLayerInto(double[], int, int, int, int, double[], boolean, double[])}, in single precision.
+     *
+     * @param parameters   The array holding the weight matrix (row-major) and the biases.
+     * @param weightOffset The index of the matrix's first element.
+     * @param biasOffset   The index of the first bias.
+     * @param rows         The number of rows (outputs).
+     * @param cols         The number of columns (inputs).
+     * @param vector       The input vector; only the first {@code cols} elements are read.
+     * @param activate     Whether to apply Leaky ReLU (hidden layers) or keep the raw values (output layer).
+     * @param result       The vector the first {@code rows} outputs are written into (must not be the input vector).
+     * @throws IllegalArgumentException if the vector is shorter than the number of columns.
+     */
+    public static void denseLayerInto(float[] parameters, int weightOffset, int biasOffset, int rows, int cols,
+                                      float[] vector, boolean activate, float[] result) {
+        if (vector.length < cols) {
+            throw new IllegalArgumentException("Matrix columns (" + cols + ") exceed vector length (" + vector.length + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            float value = dot(parameters, weightOffset + i * cols, vector, 0, cols) + parameters[biasOffset + i];
+            result[i] = activate && value <= 0 ? 0.01f * value : value;
+        }
+    }
+
+    /**
+     * Computes a single-precision dot product, accumulating in double precision if
+     * {@code -Dnn.doubleAccumulation=true} is set.
+     */
+    private static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return DOUBLE_ACCUMULATION
+                ? (float) KERNELS.wideDot(a, aOffset, b, bOffset, length)
+                : KERNELS.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Performs transposed Matrix-Vector multiplication on a matrix stored row-major in a flat array.
+     * Result = Matrix^T * Vector
+     * <p>
+     * Every row is scaled by the matching vector element and added to the result,
+     * so the matrix is streamed sequentially.
+     *
+     * @param matrix The array holding the matrix.
+     * @param offset The index of the matrix's first element.
+     * @param rows   The number of rows (must match the vector length).
+     * @param cols   The number of columns.
+     * @param vector The vector [rows].
+     * @param result The vector [cols] the product is written into (must not be the input vector).
+     * @throws IllegalArgumentException if matrix rows do not match vector length.
+     */
+    public static void transposeMultiplyInto(double[] matrix, int offset, int rows, int cols, double[] vector, double[] result) {
+        if (rows != vector.length) {
+            throw new IllegalArgumentException("Matrix rows (" + rows + ") must match vector length (" + vector.length + ").");
+        }
+
+        Arrays.fill(result, 0, cols, 0.0);
+        for (int i = 0; i < rows; i++) {
+            KERNELS.axpy(vector[i], matrix, offset + i * cols, result, 0, cols);
+        }
+    }
+
+    /**
+     * Same as {@link #transposeMultiplyInto(double[], int, int, int, double[], double[])}, in single precision.
+     *
+     * @param matrix The array holding the matrix.
+     * @param offset The index of the matrix's first element.
+     * @param rows   The number of rows (must match the vector length).
+     * @param cols   The number of columns.
+     * @param vector The vector [rows].
+     * @param result The vector [cols] the product is written into (must not be the input vector).
+     * @throws IllegalArgumentException if matrix rows do not match vector length.
+     */
+    public static void transposeMultiplyInto(float[] matrix, int offset, int rows, int cols, float[] vector, float[] result) {
+        if (rows != vector.length) {
+            throw new IllegalArgumentException("Matrix rows (" + rows + ") must match vector length (" + vector.length + ").");
+        }
+
+        Arrays.fill(result, 0, cols, 0.0f);
+        for (int i = 0; i < rows; i++) {
+            KERNELS.axpy(vector[i], matrix, offset + i * cols, result, 0, cols);
+        }
+    }
+
+
+    /**
+     * Performs Matrix-Matrix multiplication with the second matrix transposed.
+     * Result = A * B^T
+     * <p>
+     * B is stored row-major in a flat array, which matches the [outputSize][inputSize]
+     * layout of the weight matrices, so both operands are read row by row. The loops
+     * are blocked so that a tile of B stays in cache while it is reused by every row of A.
+     *
+     * @param a       The matrix [rows][shared], e.g. a batch of input vectors.
+     * @param b       The array holding the matrix B [cols][shared], e.g. a weight matrix.
+     * @param bOffset The index of B's first element.
+     * @param cols    The number of rows of B (columns of the result).
+     * @param shared  The number of columns of A and B.
+     * @param result  The matrix [rows][cols] the product is written into.
+     * @param rows    The number of rows of A to multiply (allows partially filled buffers).
+     * @throws IllegalArgumentException if the shared dimensions do not match.
+     */
+    public static void matrixMultiplyBTransposed(double[][] a, double[] b, int bOffset, int cols, int shared,
+                                                 double[][] result, int rows) {
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+
+        if (a[0].length != shared) {
+            throw new IllegalArgumentException("Matrix columns (" + a[0].length + ") must match transposed matrix columns (" + shared + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(result[i], 0, cols, 0.0);
+        }
+
+        for (int kk = 0; kk < shared; kk += BLOCK_DEPTH) {
+            int kEnd = Math.min(kk + BLOCK_DEPTH, shared);
+            for (int jj = 0; jj < cols; jj += BLOCK_SIZE) {
+                int jEnd = Math.min(jj + BLOCK_SIZE, cols);
+                for (int i = 0; i < rows; i++) {
+                    double[] aRow = a[i];
+                    double[] resultRow = result[i];
+                    for (int j = jj; j < jEnd; j++) {
+                        resultRow[j] += KERNELS.dot(aRow, kk, b, bOffset + j * shared + kk, kEnd - kk);
+                    }
+                }
             }
-            result[i] = sum;
         }
+    }
 
-        return result;
+    /**
+     * Same as {@link #matrixMultiplyBTransposed(double[][], double[], int, int, int, double[][], int)},
+     * in single precision.
+     *
+     * @param a       The matrix [rows][shared], e.g. a batch of input vectors.
+     * @param b       The array holding the matrix B [cols][shared], e.g. a weight matrix.
+     * @param bOffset The index of B's first element.
+     * @param cols    The number of rows of B (columns of the result).
+     * @param shared  The number of columns of A and B.
+     * @param result  The matrix [rows][cols] the product is written into.
+     * @param rows    The number of rows of A to multiply (allows partially filled buffers).
+     * @throws IllegalArgumentException if the shared dimensions do not match.
+     */
+    public static void matrixMultiplyBTransposed(float[][] a, float[] b, int bOffset, int cols, int shared,
+                                                 float[][] result, int rows) {
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+
+        if (a[0].length != shared) {
+            throw new IllegalArgumentException("Matrix columns (" + a[0].length + ") must match transposed matrix columns (" + shared + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(result[i], 0, cols, 0.0f);
+        }
+
+        for (int kk = 0; kk < shared; kk += BLOCK_DEPTH) {
+            int kEnd = Math.min(kk + BLOCK_DEPTH, shared);
+            for (int jj = 0; jj < cols; jj += BLOCK_SIZE) {
+                int jEnd = Math.min(jj + BLOCK_SIZE, cols);
+                for (int i = 0; i < rows; i++) {
+                    float[] aRow = a[i];
+                    float[] resultRow = result[i];
+                    for (int j = jj; j < jEnd; j++) {
+                        resultRow[j] += dot(aRow, kk, b, bOffset + j * shared + kk, kEnd - kk);
+                    }
+                }
+            }
+        }
     }
 
+    /**
+     * Performs Matrix-Matrix multiplication with a sparse first matrix and the second matrix transposed.
+     * Result = A * B^T
+     * <p>
+     * Every product is a dot product over the nonzero elements of a row of A only. The rows
+     * of B are processed in tiles so that a tile stays in cache while every row of A gathers from it.
+     *
+     * @param a       The sparse rows [rows][shared], e.g. a batch of input vectors.
+     * @param b       The array holding the matrix B [cols][shared], e.g. a weight matrix.
+     * @param bOffset The index of B's first element.
+     * @param cols    The number of rows of B (columns of the result).
+     * @param shared  The number of columns of A and B.
+     * @param result  The matrix [rows][cols] the product is written into.
+     * @param rows    The number of rows of A to multiply (allows partially filled buffers).
+     * @throws IllegalArgumentException if the shared dimensions do not match.
+     */
+    public static void matrixMultiplyBTransposed(SparseInput[] a, double[] b, int bOffset, int cols, int shared,
+                                                 double[][] result, int rows) {
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+
+        if (a[0].length != shared) {
+            throw new IllegalArgumentException("Matrix columns (" + a[0].length + ") must match transposed matrix columns (" + shared + ").");
+        }
+
+        for (int jj = 0; jj < cols; jj += BLOCK_SIZE) {
+            int jEnd = Math.min(jj + BLOCK_SIZE, cols);
+            for (int i = 0; i < rows; i++) {
+                SparseInput aRow = a[i];
+                double[] resultRow = result[i];
+                for (int j = jj; j < jEnd; j++) {
+                    resultRow[j] = KERNELS.sparseDot(b, bOffset + j * shared, aRow.indices, aRow.values, aRow.nonZeros);
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs Matrix-Matrix multiplication.
+     * Result = A * B
+     * <p>
+     * B is stored row-major in a flat array. Each row of the result is built as a sum of
+     * scaled rows of B, so the innermost loop streams through contiguous memory. The shared
+     * dimension is blocked so that a tile of B stays in cache while it is reused by every row of A.
+     *
+     * @param a       The matrix [rows][shared], e.g. a batch of error vectors.
+     * @param b       The array holding the matrix B [shared][cols], e.g. a weight matrix.
+     * @param bOffset The index of B's first element.
+     * @param shared  The number of columns of A (rows of B).
+     * @param cols    The number of columns of B.
+     * @param result  The matrix [rows][cols] the product is written into.
+     * @param rows    The number of rows of A to multiply (allows partially filled buffers).
+     * @throws IllegalArgumentException if the shared dimensions do not match.
+     */
+    public static void matrixMultiply(double[][] a, double[] b, int bOffset, int shared, int cols,
+                                      double[][] result, int rows) {
+        if (rows == 0 || shared == 0) {
+            return;
+        }
+
+        if (a[0].length != shared) {
+            throw new IllegalArgumentException("Matrix columns (" + a[0].length + ") must match matrix rows (" + shared + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(result[i], 0, cols, 0.0);
+        }
+
+        for (int kk = 0; kk < shared; kk += BLOCK_SIZE) {
+            int kEnd = Math.min(kk + BLOCK_SIZE, shared);
+            for (int i = 0; i < rows; i++) {
+                double[] aRow = a[i];
+                double[] resultRow = result[i];
+                for (int k = kk; k < kEnd; k++) {
+                    KERNELS.axpy(aRow[k], b, bOffset + k * cols, resultRow, 0, cols);
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #matrixMultiply(double[][], double[], int, int, int, double[][], int)}, in single precision.
+     *
+     * @param a       The matrix [rows][shared], e.g. a batch of error vectors.
+     * @param b       The array holding the matrix B [shared][cols], e.g. a weight matrix.
+     * @param bOffset The index of B's first element.
+     * @param shared  The number of columns of A (rows of B).
+     * @param cols    The number of columns of B.
+     * @param result  The matrix [rows][cols] the product is written into.
+     * @param rows    The number of rows of A to multiply (allows partially filled buffers).
+     * @throws IllegalArgumentException if the shared dimensions do not match.
+     */
+    public static void matrixMultiply(float[][] a, float[] b, int bOffset, int shared, int cols,
+                                      float[][] result, int rows) {
+        if (rows == 0 || shared == 0) {
+            return;
+        }
+
+        if (a[0].length != shared) {
+            throw new IllegalArgumentException("Matrix columns (" + a[0].length + ") must match matrix rows (" + shared + ").");
+        }
+
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(result[i], 0, cols, 0.0f);
+        }
+
+        for (int kk = 0; kk < shared; kk += BLOCK_SIZE) {
+            int kEnd = Math.min(kk + BLOCK_SIZE, shared);
+            for (int i = 0; i < rows; i++) {
+                float[] aRow = a[i];
+                float[] resultRow = result[i];
+                for (int k = kk; k < kEnd; k++) {
+                    KERNELS.axpy(aRow[k], b, bOffset + k * cols, resultRow, 0, cols);
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs Matrix-Matrix multiplication with the first matrix transposed and
+     * accumulates the product into a matrix stored row-major in a flat array.
+     * Result += A^T * B
+     * <p>
+     * Used to sum the outer products (delta * activation^T) of a whole batch into a
+     * gradient matrix. The result is processed in tiles that stay in cache while
+     * every row of A and B is streamed over them.
+     *
+     * @param a            The matrix [shared][resultRows], e.g. a batch of error vectors.
+     * @param b            The matrix [shared][cols], e.g. a batch of activation vectors.
+     * @param result       The array holding the matrix [resultRows][cols] the product is added to.
+     * @param resultOffset The index of the result's first element.
+     * @param resultRows   The number of rows of the result.
+     * @param cols         The number of columns of the result.
+     * @param shared       The number of rows of A and B to use (allows partially filled buffers).
+     */
+    public static void matrixMultiplyATransposedAccumulate(double[][] a, double[][] b, double[] result, int resultOffset,
+                                                           int resultRows, int cols, int shared) {
+        for (int jj = 0; jj < cols; jj += BLOCK_DEPTH) {
+            int jEnd = Math.min(jj + BLOCK_DEPTH, cols);
+            for (int ii = 0; ii < resultRows; ii += BLOCK_SIZE) {
+                int iEnd = Math.min(ii + BLOCK_SIZE, resultRows);
+                for (int k = 0; k < shared; k++) {
+                    double[] aRow = a[k];
+                    double[] bRow = b[k];
+                    for (int i = ii; i < iEnd; i++) {
+                        KERNELS.axpy(aRow[i], bRow, jj, result, resultOffset + i * cols + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #matrixMultiplyATransposedAccumulate(double[][], double[][], double[], int, int, int, int)},
+     * in single precision.
+     *
+     * @param a            The matrix [shared][resultRows], e.g. a batch of error vectors.
+     * @param b            The matrix [shared][cols], e.g. a batch of activation vectors.
+     * @param result       The array holding the matrix [resultRows][cols] the product is added to.
+     * @param resultOffset The index of the result's first element.
+     * @param resultRows   The number of rows of the result.
+     * @param cols         The number of columns of the result.
+     * @param shared       The number of rows of A and B to use (allows partially filled buffers).
+     */
+    public static void matrixMultiplyATransposedAccumulate(float[][] a, float[][] b, float[] result, int resultOffset,
+                                                           int resultRows, int cols, int shared) {
+        for (int jj = 0; jj < cols; jj += BLOCK_DEPTH) {
+            int jEnd = Math.min(jj + BLOCK_DEPTH, cols);
+            for (int ii = 0; ii < resultRows; ii += BLOCK_SIZE) {
+                int iEnd = Math.min(ii + BLOCK_SIZE, resultRows);
+                for (int k = 0; k < shared; k++) {
+                    float[] aRow = a[k];
+                    float[] bRow = b[k];
+                    for (int i = ii; i < iEnd; i++) {
+                        KERNELS.axpy(aRow[i], bRow, jj, result, resultOffset + i * cols + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs Matrix-Matrix multiplication with the first matrix transposed and a sparse
+     * second matrix, and accumulates the product into a matrix stored row-major in a flat array.
+     * Result += A^T * B
+     * <p>
+     * Used to sum the outer products (delta * input^T) of a whole batch into the gradient of
+     * the first layer: only the columns of each sample's nonzero inputs are touched.
+     *
+     * @param a            The matrix [shared][resultRows], e.g. a batch of error vectors.
+     * @param b            The sparse rows [shared][cols], e.g. a batch of input vectors.
+     * @param result       The array holding the matrix [resultRows][cols] the product is added to.
+     * @param resultOffset The index of the result's first element.
+     * @param resultRows   The number of rows of the result.
+     * @param cols         The number of columns of the result.
+     * @param shared       The number of rows of A and B to use (allows partially filled buffers).
+     */
+    public static void matrixMultiplyATransposedAccumulate(double[][] a, SparseInput[] b, double[] result,
+                                                           int resultOffset, int resultRows, int cols, int shared) {
+        for (int ii = 0; ii < resultRows; ii += BLOCK_SIZE) {
+            int iEnd = Math.min(ii + BLOCK_SIZE, resultRows);
+            for (int k = 0; k < shared; k++) {
+                double[] aRow = a[k];
+                SparseInput bRow = b[k];
+                for (int i = ii; i < iEnd; i++) {
+                    KERNELS.sparseAxpy(aRow[i], bRow.indices, bRow.values, bRow.nonZeros, result,
+                            resultOffset + i * cols);
+                }
+            }
+        }
+    }
 
     /**
      * Adds two vectors element-wise.
@@ -160,17 +920,54 @@ public final class MathUtils {
      * @throws IllegalArgumentException if vectors have different lengths.
      */
     public static double[] addVectors(double[] a, double[] b) {
+        double[] result = new double[a.length];
+        addInto(a, b, result);
+        return result;
+    }
+
+    /**
+     * Adds two vectors element-wise into an existing array.
+     * The result may be the same array as either operand.
+     *
+     * @param a      The first vector.
+     * @param b      The second vector.
+     * @param result The vector receiving a[i] + b[i].
+     * @throws IllegalArgumentException if vectors have different lengths.
+     */
+    public static void addInto(double[] a, double[] b, double[] result) {
         if (a.length != b.length) {
             throw new IllegalArgumentException("Vectors must have same length.");
         }
 
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] + b[i];
+        KERNELS.add(a, b, result, a.length);
+    }
+
+
+    /**
+     * Rounds the first {@code length} elements of a vector to single precision.
+     *
+     * @param source The double-precision vector.
+     * @param target The array receiving the rounded values.
+     * @param length The number of elements to convert.
+     */
+    public static void narrowInto(double[] source, float[] target, int length) {
+        for (int i = 0; i < length; i++) {
+            target[i] = (float) source[i];
         }
-        return result;
     }
 
+    /**
+     * Widens the first {@code length} elements of a single-precision vector to double precision.
+     *
+     * @param source The single-precision vector.
+     * @param target The array receiving the exact double values.
+     * @param length The number of elements to convert.
+     */
+    public static void widenInto(float[] source, double[] target, int length) {
+        for (int i = 0; i < length; i++) {
+            target[i] = source[i];
+        }
+    }
 
     /**
      * Subtracts vector b from vector a element-wise.
@@ -181,15 +978,28 @@ public final class MathUtils {
      * @throws IllegalArgumentException if vectors have different lengths.
      */
     public static double[] subtractVectors(double[] a, double[] b) {
+        double[] result = new double[a.length];
+        subtractInto(a, b, result);
+        return result;
+    }
+
+    /**
+     * Subtracts vector b from vector a element-wise into an existing array.
+     * The result may be the same array as either operand.
+     *
+     * @param a      The vector to subtract from.
+     * @param b      The vector to subtract.
+     * @param result The vector receiving a[i] - b[i].
+     * @throws IllegalArgumentException if vectors have different lengths.
+     */
+    public static void subtractInto(double[] a, double[] b, double[] result) {
         if (a.length != b.length) {
             throw new IllegalArgumentException("Vectors must have same length.");
         }
 
-        double[] result = new double[a.length];
         for (int i = 0; i < a.length; i++) {
             result[i] = a[i] - b[i];
         }
-        return result;
     }
 
     /**
@@ -201,14 +1011,25 @@ public final class MathUtils {
      * @throws IllegalArgumentException if vectors have different lengths.
      */
     public static double[] elementMultVectors(double[] a, double[] b) {
+        double[] result = new double[a.length];
+        elementMultInto(a, b, result);
+        return result;
+    }
+
+    /**
+     * Multiplies two vectors element-wise (Hadamard product) into an existing array.
+     * The result may be the same array as either operand.
+     *
+     * @param a      The first vector.
+     * @param b      The second vector.
+     * @param result The vector receiving a[i] * b[i].
+     * @throws IllegalArgumentException if vectors have different lengths.
+     */
+    public static void elementMultInto(double[] a, double[] b, double[] result) {
         if (a.length != b.length) {
             throw new IllegalArgumentException("Vectors must have the same length.");
         }
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] * b[i];
-        }
-        return result;
+        KERNELS.multiply(a, b, result, a.length);
     }
 
 
@@ -224,19 +1045,29 @@ public final class MathUtils {
             return new double[0][0];
         }
 
+        double[][] result = new double[matrix[0].length][matrix.length];
+        transposeInto(matrix, result);
+        return result;
+    }
+
+    /**
+     * Transposes a given matrix into an existing matrix.
+     *
+     * @param matrix The input matrix [rows][cols].
+     * @param result The matrix [cols][rows] receiving the transpose.
+     */
+    public static void transposeInto(double[][] matrix, double[][] result) {
         int rows = matrix.length;
+        if (rows == 0) {
+            return;
+        }
         int cols = matrix[0].length;
 
-        double[][] result = new double[cols][rows];
-
-
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < cols; j++) {
                 result[j][i] = matrix[i][j];
             }
         }
-
-        return result;
     }
 
 //    public static double[][] createRandomMatrix(int rows, int cols, Random random, int inputSize) {
@@ -274,6 +1105,42 @@ public final class MathUtils {
         return result;
     }
 
+    /**
+     * Fills a matrix stored row-major in a flat array with random values using He Initialization.
+     * Draws the same sequence of values as {@link #createRandomMatrix}.
+     *
+     * @param target    The array holding the matrix.
+     * @param offset    The index of the matrix's first element.
+     * @param rows      Number of rows (output size).
+     * @param cols      Number of columns (input size).
+     * @param random    Random instance.
+     * @param inputSize The number of input connections (fan-in) used for scaling.
+     */
+    public static void fillRandomMatrix(double[] target, int offset, int rows, int cols, Random random, int inputSize) {
+        double stddev = Math.sqrt(2.0 / inputSize);
+        for (int i = 0; i < rows * cols; i++) {
+            target[offset + i] = random.nextGaussian() * stddev;
+        }
+    }
+
+    /**
+     * Same as {@link #fillRandomMatrix(double[], int, int, int, Random, int)}, rounding every value
+     * to single precision.
+     *
+     * @param target    The array holding the matrix.
+     * @param offset    The index of the matrix's first element.
+     * @param rows      Number of rows (output size).
+     * @param cols      Number of columns (input size).
+     * @param random    Random instance.
+     * @param inputSize The number of input connections (fan-in) used for scaling.
+     */
+    public static void fillRandomMatrix(float[] target, int offset, int rows, int cols, Random random, int inputSize) {
+        double stddev = Math.sqrt(2.0 / inputSize);
+        for (int i = 0; i < rows * cols; i++) {
+            target[offset + i] = (float) (random.nextGaussian() * stddev);
+        }
+    }
+
     /**
      * Creates a vector initialized with a small positive constant.
      * Used for bias initialization to prevent dead neurons at start.
@@ -291,4 +1158,28 @@ public final class MathUtils {
         return result;
     }
 
+    /**
+     * Fills part of an array with a small positive constant, like {@link #createRandomVector}.
+     *
+     * @param target The array holding the vector.
+     * @param offset The index of the vector's first element.
+     * @param size   The size of the vector.
+     * @param random Random instance (unused in current implementation, but kept for interface consistency).
+     */
+    public static void fillRandomVector(double[] target, int offset, int size, Random random) {
+        Arrays.fill(target, offset, offset + size, 0.1);
+    }
+
+    /**
+     * Same as {@link #fillRandomVector(double[], int, int, Random)}, in single precision.
+     *
+     * @param target The array holding the vector.
+     * @param offset The index of the vector's first element.
+     * @param size   The size of the vector.
+     * @param random Random instance (unused in current implementation, but kept for interface consistency).
+     */
+    public static void fillRandomVector(float[] target, int offset, int size, Random random) {
+        Arrays.fill(target, offset, offset + size, 0.1f);
+    }
+
 }
\ No newline at end of file
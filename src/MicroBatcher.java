@@ -0,0 +1,264 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects concurrent single-input predictions into batches and runs them through an
+ * {@link InferenceModel} with one matrix-matrix forward pass per batch.
+ * <p>
+ * Predicting one input at a time spends most of the time on tiny matrix-vector products.
+ * Callers of {@link #submit} instead enqueue their input; a dedicated batching thread takes
+ * the first waiting input, keeps collecting until it has {@code maxBatchSize} inputs or
+ * {@code maxWaitNanos} have passed, and completes all of them with a single forward pass.
+ * Under light load a request waits at most {@code maxWaitNanos}; under heavy load batches
+ * fill up immediately and throughput grows with the batch size.
+ * <p>
+ * The model is read from a {@link ModelHolder} once per batch, so a new snapshot can be
+ * published at any time: batches already running finish on the old weights, the next
+ * batch uses the new ones, and no request ever sees a mix of both.
+ * <p>
+ * The batcher records the latency of every request (from submission to completion), the
+ * number of requests and the number of batches.
+ */
+public class MicroBatcher implements AutoCloseable {
+
+    /**
+     * A pending prediction: the input and the future completed with its label.
+     */
+    private static final class Request extends CompletableFuture<Integer> {
+        final double[] input;
+        final long submitted;
+
+        Request(double[] input, long submitted) {
+            this.input = input;
+            this.submitted = submitted;
+        }
+    }
+
+    private final ModelHolder models;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread worker;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a batcher serving a fixed model and starts its batching thread.
+     *
+     * @param model         The model to run.
+     * @param maxBatchSize  The maximum number of inputs per forward pass.
+     * @param maxWaitNanos  How long the first input of a batch may wait for more inputs, in nanoseconds.
+     * @param queueCapacity The maximum number of waiting inputs; further submissions are rejected.
+     * @throws IllegalArgumentException if a size is not positive or the wait is negative.
+     */
+    public MicroBatcher(InferenceModel model, int maxBatchSize, long maxWaitNanos, int queueCapacity) {
+        this(new ModelHolder(model), maxBatchSize, maxWaitNanos, queueCapacity);
+    }
+
+    /**
+     * Creates a batcher serving the model currently published in a holder and starts its batching thread.
+     *
+     * @param models        The holder of the model to run.
+     * @param maxBatchSize  The maximum number of inputs per forward pass.
+     * @param maxWaitNanos  How long the first input of a batch may wait for more inputs, in nanoseconds.
+     * @param queueCapacity The maximum number of waiting inputs; further submissions are rejected.
+     * @throws IllegalArgumentException if a size is not positive or the wait is negative.
+     */
+    public MicroBatcher(ModelHolder models, int maxBatchSize, long maxWaitNanos, int queueCapacity) {
+        if (maxBatchSize < 1 || queueCapacity < 1 || maxWaitNanos < 0) {
+            throw new IllegalArgumentException("Batch size and queue capacity must be positive, the wait non-negative.");
+        }
+        this.models = models;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.worker = new Thread(this::run, "micro-batcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Returns the size of the inputs accepted by the current model.
+     *
+     * @return The number of input values per request.
+     */
+    public int inputSize() {
+        return models.current().inputSize();
+    }
+
+    /**
+     * Returns the holder the model is read from; publish a new snapshot there to swap models.
+     *
+     * @return The batcher's model holder.
+     */
+    public ModelHolder models() {
+        return models;
+    }
+
+    /**
+     * Enqueues an input for prediction.
+     *
+     * @param input The input vector. It must not be modified until the returned future completes.
+     * @return A future completed with the predicted class label, or exceptionally if the batch failed.
+     * @throws IllegalArgumentException if the input has the wrong size.
+     * @throws IllegalStateException    if the batcher is closed or its queue is full.
+     */
+    public CompletableFuture<Integer> submit(double[] input) {
+        int inputSize = inputSize();
+        if (input.length != inputSize) {
+            throw new IllegalArgumentException("Expected " + inputSize + " input values but got "
+                    + input.length + ".");
+        }
+        if (closed) {
+            throw new IllegalStateException("The batcher is closed.");
+        }
+        Request request = new Request(input, System.nanoTime());
+        if (!queue.offer(request)) {
+            throw new IllegalStateException("Too many pending requests.");
+        }
+        //The batching thread may have drained the queue for the last time since the check above
+        if (closed && queue.remove(request)) {
+            request.completeExceptionally(new IllegalStateException("The batcher is closed."));
+        }
+        return request;
+    }
+
+    /**
+     * Predicts the class of an input, waiting for the batch it joins to complete.
+     *
+     * @param input The input vector.
+     * @return The predicted class label.
+     * @throws InterruptedException  if the calling thread is interrupted while waiting.
+     * @throws IllegalStateException if the batcher is closed, its queue is full or the forward pass failed.
+     */
+    public int predict(double[] input) throws InterruptedException {
+        try {
+            return submit(input).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Prediction failed", e.getCause());
+        }
+    }
+
+    /**
+     * Collects and runs batches until the batcher is closed; runs on the batching thread.
+     */
+    private void run() {
+        Request[] batch = new Request[maxBatchSize];
+        double[][] inputs = new double[maxBatchSize][];
+        int[] predictions = new int[maxBatchSize];
+        InferenceModel.Buffers buffers = models.current().createBuffers(maxBatchSize);
+
+        //The number of requests taken off the queue but not yet answered
+        int count = 0;
+        try {
+            while (!closed) {
+                batch[count++] = queue.take();
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (count < maxBatchSize) {
+                    Request next = queue.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                            break;
+                        }
+                    }
+                    batch[count++] = next;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    inputs[i] = batch[i].input;
+                }
+                try {
+                    //One read per batch: every request of the batch is answered by the same snapshot
+                    InferenceModel model = models.current();
+                    if (!model.fits(buffers)) {
+                        buffers = model.createBuffers(maxBatchSize);
+                    }
+                    model.predictBatch(inputs, count, predictions, buffers);
+                    long now = System.nanoTime();
+                    for (int i = 0; i < count; i++) {
+                        latency.record(now - batch[i].submitted);
+                        batch[i].complete(predictions[i]);
+                    }
+                } catch (RuntimeException e) {
+                    for (int i = 0; i < count; i++) {
+                        batch[i].completeExceptionally(e);
+                    }
+                }
+                requestCount.addAndGet(count);
+                batchCount.incrementAndGet();
+                for (int i = 0; i < count; i++) {
+                    batch[i] = null;
+                    inputs[i] = null;
+                }
+                count = 0;
+            }
+        } catch (InterruptedException e) {
+            //Closed while waiting for requests, possibly with a batch partly collected
+            for (int i = 0; i < count; i++) {
+                batch[i].completeExceptionally(new IllegalStateException("The batcher is closed."));
+            }
+        }
+
+        Request pending;
+        while ((pending = queue.poll()) != null) {
+            pending.completeExceptionally(new IllegalStateException("The batcher is closed."));
+        }
+    }
+
+    /**
+     * Returns the latencies of the completed requests, from submission to completion.
+     *
+     * @return The live latency histogram.
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of completed requests.
+     *
+     * @return The number of requests processed so far.
+     */
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of forward passes run.
+     *
+     * @return The number of batches processed so far.
+     */
+    public long batchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Returns the average throughput since the batcher was created.
+     *
+     * @return The number of completed requests per second.
+     */
+    public double throughput() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? requestCount.get() / seconds : 0.0;
+    }
+
+    /**
+     * Stops the batching thread. Requests that have not been batched yet fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the current {@link InferenceModel} to inference threads and lets it be swapped
+ * while they run.
+ * <p>
+ * A snapshot is immutable, so a reader that fetches {@link #current()} once per batch always
+ * sees one consistent set of weights, even while a new snapshot is being published. Swapping
+ * is a single atomic reference update: readers never lock and never wait for the trainer,
+ * and the previous snapshot is reclaimed once the last batch using it has finished.
+ */
+public final class ModelHolder {
+
+    private final AtomicReference<InferenceModel> model;
+    private final AtomicLong swapCount = new AtomicLong();
+
+    /**
+     * Creates a holder publishing an initial model.
+     *
+     * @param initial The model served until the first swap.
+     */
+    public ModelHolder(InferenceModel initial) {
+        if (initial == null) {
+            throw new IllegalArgumentException("The initial model must not be null.");
+        }
+        this.model = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Returns the model currently published.
+     *
+     * @return The latest published snapshot.
+     */
+    public InferenceModel current() {
+        return model.get();
+    }
+
+    /**
+     * Replaces the published model. Inference already running keeps using the model it started with.
+     *
+     * @param next The new model.
+     * @return The model that was replaced.
+     */
+    public InferenceModel publish(InferenceModel next) {
+        if (next == null) {
+            throw new IllegalArgumentException("The published model must not be null.");
+        }
+        InferenceModel previous = model.getAndSet(next);
+        swapCount.incrementAndGet();
+        return previous;
+    }
+
+    /**
+     * Publishes a snapshot of the current weights of a network.
+     * <p>
+     * Must be called from the thread training the network (or while it is not trained),
+     * so the copied weights come from a single state.
+     *
+     * @param network The network to snapshot.
+     * @return The model that was replaced.
+     */
+    public InferenceModel publish(NeuralNetwork network) {
+        return publish(network.snapshot());
+    }
+
+    /**
+     * Returns how many times the model has been replaced.
+     *
+     * @return The number of publications since this holder was created.
+     */
+    public long swapCount() {
+        return swapCount.get();
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Stochastic Gradient Descent with Momentum.
+ * <p>
+ * Keeps one velocity per parameter: {@code velocity = momentum * velocity - learningRate * gradient},
+ * then {@code parameter += velocity}. Weight decay is applied as L2 regularization.
+ */
+public class MomentumOptimizer implements Optimizer {
+
+    private final double learningRate;
+    private final double momentum;
+
+    //Velocity accumulators; only the array matching the state precision is allocated
+    private final double[] velocities;
+    private final float[] velocities32;
+
+    /**
+     * Creates the optimizer with zeroed velocities.
+     *
+     * @param parameterCount The number of parameters of the network.
+     * @param learningRate   The step size.
+     * @param momentum       The momentum factor (gamma).
+     * @param statePrecision The precision of the velocities.
+     */
+    public MomentumOptimizer(int parameterCount, double learningRate, double momentum, Precision statePrecision) {
+        this.learningRate = learningRate;
+        this.momentum = momentum;
+        boolean single = statePrecision == Precision.FLOAT32;
+        this.velocities = single ? null : new double[parameterCount];
+        this.velocities32 = single ? new float[parameterCount] : null;
+    }
+
+    @Override
+    public String name() {
+        return "SGD with Momentum";
+    }
+
+    @Override
+    public int parameterCount() {
+        return velocities != null ? velocities.length : velocities32.length;
+    }
+
+    @Override
+    public void beginStep() {
+    }
+
+    @Override
+    public void update(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        KernelBackend kernels = MathUtils.kernels();
+        if (velocities != null) {
+            kernels.momentumUpdate(parameters, velocities, offset, length,
+                    gradientSource, sourceOffset, gradientScale, decay, momentum, learningRate);
+        } else {
+            kernels.momentumUpdate(parameters, velocities32, offset, length,
+                    gradientSource, sourceOffset, gradientScale, decay, momentum, learningRate);
+        }
+    }
+
+    @Override
+    public void update(float[] parameters, int offset, int length, float[] gradientSource, int sourceOffset,
+                       double gradientScale, double decay) {
+        if (velocities32 == null) {
+            throw new IllegalStateException("A single-precision network needs single-precision velocities.");
+        }
+        MathUtils.kernels().momentumUpdate(parameters, velocities32, offset, length,
+                gradientSource, sourceOffset, gradientScale, decay, momentum, learningRate);
+    }
+
+    @Override
+    public int stateSize() {
+        return OptimizerState.size(velocities, velocities32);
+    }
+
+    @Override
+    public void writeState(ByteBuffer target) {
+        OptimizerState.write(target, velocities, velocities32);
+    }
+
+    @Override
+    public void readState(ByteBuffer source) throws IOException {
+        OptimizerState.read(source, velocities, velocities32);
+    }
+}
@@ -1,32 +1,48 @@
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
 /**
  * Represents a fully connected Feed-Forward Neural Network.
  * <p>
- * This class manages the network topology (layers), performs forward propagation,
- * and implements training algorithms including standard SGD with Momentum and the
- * Adam optimizer. It handles backpropagation and weight updates manually.
+ * This class manages the network topology (layers), performs forward propagation and
+ * backpropagation, and hands the resulting gradients to a pluggable {@link Optimizer}
+ * (SGD with Momentum, Adam, AdamW, ...). The gradient computation is shared by all optimizers.
+ * <p>
+ * The network runs in double precision by default. A FLOAT32 network (see {@link Precision})
+ * keeps its parameters, activations, errors, gradients and optimizer state in single precision
+ * and uses the float kernels; its public methods still take and return doubles, which are
+ * narrowed on the way in and widened on the way out. The float path always uses the dense
+ * kernels of the first layer.
+ * <p>
+ * A network is not thread-safe: training mutates its parameters in place and the
+ * single-sample methods share internal buffers. To serve predictions from other threads,
+ * hand them an immutable {@link #snapshot()} (published through a {@link ModelHolder}).
  */
 public class NeuralNetwork {
 
+    //Whether adamOptimizer() creates a LazyAdamOptimizer (-Dnn.lazyAdam=true)
+    private static final boolean LAZY_ADAM = Boolean.getBoolean("nn.lazyAdam");
+
     private final List<Layer> layers;
+    private final ParameterStore store;
     private final double learningRate;
 
 
     private final double momentum;
     private final double lambda;
+    private final Precision statePrecision;
 
-    //ADAM
-    private final double beta1 = 0.9;
-    private final double beta2 = 0.999;
-    private final double epsilon = 1e-8;
-    private int t = 0;
+    //Optimizers used by train and trainADAM, created on first use
+    private Optimizer momentumOptimizer;
+    private Optimizer adamOptimizer;
 
-    private double beta1_t = 1.0;
-    private double beta2_t = 1.0;
+    //Single-sample buffers used by train, trainADAM and predict
+    private final Workspace workspace;
+
+    //Mini-batch buffers, replaced when a larger batch arrives
+    private BatchWorkspace batchWorkspace;
 
 
     /**
@@ -40,215 +56,1102 @@ public class NeuralNetwork {
      *                     (e.g., 784, 128, 10 means input 784, one hidden layer of 128, output 10).
      */
     public NeuralNetwork(double learningRate, double momentum, double lambda, Random random, int... sizes) {
+        this(learningRate, momentum, lambda, Precision.FLOAT64, random, sizes);
+    }
+
+    /**
+     * Constructs a new Neural Network with the specified hyperparameters, optimizer state precision and topology.
+     *
+     * @param learningRate   The step size for weight updates (alpha).
+     * @param momentum       The momentum factor for SGD (gamma).
+     * @param lambda         The L2 regularization strength (weight decay).
+     * @param statePrecision The precision of the optimizer state (velocities and Adam moments).
+     * @param random         The random number generator for weight initialization.
+     * @param sizes          A variable argument list defining the number of neurons in each layer
+     *                       (e.g., 784, 128, 10 means input 784, one hidden layer of 128, output 10).
+     */
+    public NeuralNetwork(double learningRate, double momentum, double lambda, Precision statePrecision,
+                         Random random, int... sizes) {
+        this(learningRate, momentum, lambda, Precision.FLOAT64, statePrecision, random, sizes);
+    }
+
+    /**
+     * Constructs a new Neural Network with the specified hyperparameters, precisions and topology.
+     *
+     * @param learningRate   The step size for weight updates (alpha).
+     * @param momentum       The momentum factor for SGD (gamma).
+     * @param lambda         The L2 regularization strength (weight decay).
+     * @param precision      The precision of the parameters, activations and gradients.
+     * @param statePrecision The precision of the optimizer state (velocities and Adam moments).
+     * @param random         The random number generator for weight initialization.
+     * @param sizes          A variable argument list defining the number of neurons in each layer
+     *                       (e.g., 784, 128, 10 means input 784, one hidden layer of 128, output 10).
+     * @throws IllegalArgumentException if a FLOAT32 network is given FLOAT64 optimizer state.
+     */
+    public NeuralNetwork(double learningRate, double momentum, double lambda, Precision precision,
+                         Precision statePrecision, Random random, int... sizes) {
+        if (precision == Precision.FLOAT32 && statePrecision != Precision.FLOAT32) {
+            throw new IllegalArgumentException("A single-precision network needs single-precision optimizer state.");
+        }
         this.layers = new ArrayList<>();
         this.learningRate = learningRate;
         this.momentum = momentum;
         this.lambda = lambda;
+        this.statePrecision = statePrecision;
 
+        int weightCount = 0;
+        int biasCount = 0;
+        for (int i = 0; i < sizes.length - 1; i++) {
+            weightCount += sizes[i] * sizes[i + 1];
+            biasCount += sizes[i + 1];
+        }
+        this.store = new ParameterStore(weightCount, biasCount, precision);
 
-
+        int weightOffset = 0;
+        int biasOffset = weightCount;
         for (int i = 0; i < sizes.length - 1; i++) {
             int inputSize = sizes[i];
             int outputSize = sizes[i + 1];
-            this.layers.add(new Layer(inputSize, outputSize, random));
+            this.layers.add(new Layer(store, weightOffset, biasOffset, inputSize, outputSize, random));
+            weightOffset += inputSize * outputSize;
+            biasOffset += outputSize;
         }
+        this.workspace = createWorkspace();
+    }
+
+    /**
+     * Creates a single-sample workspace sized for this network's layers.
+     *
+     * @return A new workspace with all buffers allocated.
+     */
+    public Workspace createWorkspace() {
+        return new Workspace(layers, store.precision());
     }
 
     /**
      * Performs the forward pass through the network.
      * <p>
-     * Computes the activations for every layer.
+     * Computes the activations for every layer in the network's own workspace, the one used by
+     * {@link #train(double[], double[], Optimizer)}.
      * Uses Leaky ReLU for hidden layers and Softmax for the output layer.
      *
      * @param input The input vector.
-     * @return A list of activation vectors for every layer (including the input layer).
+     * @return A list of activation vectors for every layer (including the input layer), owned by
+     * the network and overwritten by the next forward pass or training step.
      */
     public List<double[]> feedForward(double[] input) {
-        List<double[]> allActivations = new ArrayList<>();
-        allActivations.add(input);
-        double[] currentActivations = input;
+        feedForward(input, workspace);
+        return Arrays.asList(workspace.activations);
+    }
+
+    /**
+     * Performs the forward pass through the network without allocating.
+     * <p>
+     * The activations of every layer are written into the workspace.
+     * Uses Leaky ReLU for hidden layers and Softmax for the output layer. When the input is
+     * sparse enough (see {@link MathUtils#preferSparse}), the first layer only reads the
+     * weight columns of its nonzero elements.
+     *
+     * @param input     The input vector.
+     * @param workspace The workspace receiving the activations.
+     * @return The output activations (owned by the workspace, overwritten by the next pass).
+     */
+    public double[] feedForward(double[] input, Workspace workspace) {
+        if (store.parameters32 != null) {
+            MathUtils.narrowInto(input, workspace.input32, input.length);
+            feedForward32(workspace);
+            workspace.activations[0] = input;
+            return widenActivations(workspace);
+        }
+        long start = Telemetry.start();
+        double[][] activations = workspace.activations;
+        double[] parameters = store.parameters;
+        activations[0] = input;
 
         for (int i = 0; i < this.layers.size(); i++) {
             Layer layer = this.layers.get(i);
-            double[] weightedSum = MathUtils.matrixVectorMultiply(layer.weights, currentActivations);
-            double[] biasedSum = MathUtils.addVectors(weightedSum, layer.biases);
+            double[] currentActivations = activations[i + 1];
+            if (i == 0 && workspace.sparseInput.setIfSparse(input, MathUtils.maxSparseNonZeros(input.length))) {
+                MathUtils.multiplyInto(parameters, layer.weightOffset, layer.outputSize, layer.inputSize,
+                        workspace.sparseInput, currentActivations);
+            } else {
+                MathUtils.multiplyInto(parameters, layer.weightOffset, layer.outputSize, layer.inputSize,
+                        activations[i], currentActivations);
+            }
+            for (int j = 0; j < currentActivations.length; j++) {
+                currentActivations[j] += parameters[layer.biasOffset + j];
+            }
 
             if (i == this.layers.size() - 1) {
-                currentActivations = MathUtils.softmax(biasedSum);
+                MathUtils.softmaxInto(currentActivations, currentActivations);
             } else {
-                double[] newActivations = new double[biasedSum.length];
-                for (int j = 0; j < newActivations.length; j++) {
-                    newActivations[j] = MathUtils.leakyRelu(biasedSum[j]);
-                }
-                currentActivations = newActivations;
+                MathUtils.leakyReluInPlace(currentActivations);
             }
-            allActivations.add(currentActivations);
         }
-        return allActivations;
+        Telemetry.stop(Telemetry.Phase.FORWARD, start);
+        return activations[activations.length - 1];
     }
 
     /**
-     * Trains the network on a single sample using SGD with Momentum.
+     * Performs the forward pass for a sample of a dataset without allocating.
      * <p>
-     * Performs a forward pass, calculates gradients via backpropagation,
-     * and updates weights and biases using the standard momentum update rule.
+     * The sample is normalized into the workspace's input buffer as it enters the input
+     * layer, so a packed dataset never needs a decoded copy of its images.
+     *
+     * @param dataset   The dataset holding the sample.
+     * @param index     The index of the sample.
+     * @param workspace The workspace receiving the input and the activations.
+     * @return The output activations (owned by the workspace, overwritten by the next pass).
+     */
+    public double[] feedForward(Dataset dataset, int index, Workspace workspace) {
+        if (store.parameters32 != null) {
+            dataset.readPixels(index, workspace.input32);
+            feedForward32(workspace);
+            MathUtils.widenInto(workspace.input32, workspace.input, workspace.input.length);
+            workspace.activations[0] = workspace.input;
+            return widenActivations(workspace);
+        }
+        dataset.readPixels(index, workspace.input);
+        return feedForward(workspace.input, workspace);
+    }
+
+    /**
+     * Performs the single-precision forward pass of the input in {@code workspace.input32}.
+     *
+     * @param workspace The workspace holding the input and receiving the activations.
+     * @return The output probabilities (owned by the workspace).
+     */
+    private float[] feedForward32(Workspace workspace) {
+        long start = Telemetry.start();
+        float[][] activations = workspace.activations32;
+        float[] parameters = store.parameters32;
+        int lastLayer = layers.size() - 1;
+
+        for (int i = 0; i <= lastLayer; i++) {
+            Layer layer = layers.get(i);
+            MathUtils.denseLayerInto(parameters, layer.weightOffset, layer.biasOffset, layer.outputSize,
+                    layer.inputSize, activations[i], i != lastLayer, activations[i + 1]);
+        }
+        float[] output = activations[lastLayer + 1];
+        MathUtils.softmaxInto(output, output);
+        Telemetry.stop(Telemetry.Phase.FORWARD, start);
+        return output;
+    }
+
+    /**
+     * Widens the single-precision activations of every layer into the double activations.
+     *
+     * @param workspace The workspace holding both.
+     * @return The widened output activations.
+     */
+    private static double[] widenActivations(Workspace workspace) {
+        double[][] activations = workspace.activations;
+        for (int i = 1; i < activations.length; i++) {
+            MathUtils.widenInto(workspace.activations32[i], activations[i], activations[i].length);
+        }
+        return activations[activations.length - 1];
+    }
+
+    /**
+     * Performs an inference-only forward pass and returns the logits (the output layer before softmax).
+     * <p>
+     * Unlike {@link #feedForward(double[], Workspace)}, only two ping-pong buffers are used, so the
+     * activations of the hidden layers are not kept for backpropagation. Every layer is computed by
+     * {@link MathUtils#denseLayerInto} (product, bias and Leaky ReLU in one pass), and softmax is
+     * skipped: its argmax is the argmax of the logits.
+     *
+     * @param input     The input vector.
+     * @param workspace The workspace holding the ping-pong buffers.
+     * @return The logits (owned by the workspace, overwritten by the next pass; only the first
+     * {@link #outputSize()} elements are valid).
+     */
+    public double[] logits(double[] input, Workspace workspace) {
+        if (store.parameters32 != null) {
+            MathUtils.narrowInto(input, workspace.input32, input.length);
+            MathUtils.widenInto(logits32(workspace.input32, workspace), workspace.pingPong[0], outputSize());
+            return workspace.pingPong[0];
+        }
+        long start = Telemetry.start();
+        double[] parameters = store.parameters;
+        double[] layerInput = input;
+        double[] layerOutput = null;
+        int lastLayer = layers.size() - 1;
+
+        for (int i = 0; i <= lastLayer; i++) {
+            Layer layer = layers.get(i);
+            layerOutput = workspace.pingPong[i % 2];
+            if (i == 0 && workspace.sparseInput.setIfSparse(input, MathUtils.maxSparseNonZeros(input.length))) {
+                MathUtils.denseLayerInto(parameters, layer.weightOffset, layer.biasOffset, layer.outputSize,
+                        layer.inputSize, workspace.sparseInput, i != lastLayer, layerOutput);
+            } else {
+                MathUtils.denseLayerInto(parameters, layer.weightOffset, layer.biasOffset, layer.outputSize,
+                        layer.inputSize, layerInput, i != lastLayer, layerOutput);
+            }
+            layerInput = layerOutput;
+        }
+        Telemetry.stop(Telemetry.Phase.FORWARD, start);
+        return layerOutput;
+    }
+
+    /**
+     * Performs the single-precision inference-only forward pass through the float ping-pong buffers.
+     *
+     * @param input     The single-precision input vector.
+     * @param workspace The workspace holding the ping-pong buffers.
+     * @return The logits (owned by the workspace; only the first {@link #outputSize()} elements are valid).
+     */
+    private float[] logits32(float[] input, Workspace workspace) {
+        long start = Telemetry.start();
+        float[] parameters = store.parameters32;
+        float[] layerInput = input;
+        float[] layerOutput = null;
+        int lastLayer = layers.size() - 1;
+
+        for (int i = 0; i <= lastLayer; i++) {
+            Layer layer = layers.get(i);
+            layerOutput = workspace.pingPong32[i % 2];
+            MathUtils.denseLayerInto(parameters, layer.weightOffset, layer.biasOffset, layer.outputSize,
+                    layer.inputSize, layerInput, i != lastLayer, layerOutput);
+            layerInput = layerOutput;
+        }
+        Telemetry.stop(Telemetry.Phase.FORWARD, start);
+        return layerOutput;
+    }
+
+    /**
+     * Computes the errors of every layer for the sample last propagated through the workspace.
      *
-     * @param input          The input vector.
      * @param expectedOutput The target (ground truth) vector.
-     * @return The mean squared error (MSE) for this sample.
+     * @param workspace      The workspace holding the activations of the forward pass.
+     * @return The squared error for this sample.
      */
-    public double train(double[] input, double[] expectedOutput) {
-        List<double[]> allActivations = feedForward(input);
-        double[] finalOutput = allActivations.get(allActivations.size() - 1);
+    private double backpropagate(double[] expectedOutput, Workspace workspace) {
+        double[][] activations = workspace.activations;
+        double[][] deltas = workspace.deltas;
+        double[] finalOutput = activations[activations.length - 1];
 
         double sampleError = 0.0;
         for (int i = 0; i < expectedOutput.length; i++) {
             sampleError += (expectedOutput[i] - finalOutput[i]) * (expectedOutput[i] - finalOutput[i]);
         }
 
-        LinkedList<double[]> deltas = new LinkedList<>();
-
-        double[] outputDelta = MathUtils.subtractVectors(finalOutput, expectedOutput);
-        deltas.addFirst(outputDelta);
+        MathUtils.subtractInto(finalOutput, expectedOutput, deltas[layers.size() - 1]);
 
         for (int i = layers.size() - 2; i >= 0; i--) {
             Layer frontLayer = layers.get(i + 1);
-            double[][] transposedWeights = MathUtils.transposeMatrix(frontLayer.weights);
-            double[] propagatedError = MathUtils.matrixVectorMultiply(transposedWeights, deltas.getFirst());
+            double[] currentDelta = deltas[i];
+            MathUtils.transposeMultiplyInto(store.parameters, frontLayer.weightOffset, frontLayer.outputSize,
+                    frontLayer.inputSize, deltas[i + 1], currentDelta);
 
-            double[] currentActivations = allActivations.get(i + 1);
-            double[] hiddenDerivatives = new double[currentActivations.length];
+            double[] currentActivations = activations[i + 1];
             for (int j = 0; j < currentActivations.length; j++) {
-                hiddenDerivatives[j] = MathUtils.leakyReluDerivative(currentActivations[j]);
+                currentDelta[j] *= MathUtils.leakyReluDerivative(currentActivations[j]);
             }
+        }
+        return sampleError;
+    }
 
-            double[] currentDelta = MathUtils.elementMultVectors(propagatedError, hiddenDerivatives);
-            deltas.addFirst(currentDelta);
+    /**
+     * Same as {@link #backpropagate(double[], Workspace)}, on the single-precision activations.
+     *
+     * @param expectedOutput The target (ground truth) vector.
+     * @param workspace      The workspace holding the activations of the forward pass.
+     * @return The squared error for this sample.
+     */
+    private double backpropagate32(double[] expectedOutput, Workspace workspace) {
+        float[][] activations = workspace.activations32;
+        float[][] deltas = workspace.deltas32;
+        float[] finalOutput = activations[activations.length - 1];
+        float[] outputDelta = deltas[layers.size() - 1];
+
+        double sampleError = 0.0;
+        for (int i = 0; i < expectedOutput.length; i++) {
+            double difference = finalOutput[i] - expectedOutput[i];
+            sampleError += difference * difference;
+            outputDelta[i] = (float) difference;
         }
 
-        for (int i = 0; i < layers.size(); i++) {
-            Layer layer = layers.get(i);
-            double[] previousActivations = allActivations.get(i);
-            double[] currentLayerDelta = deltas.get(i);
-
-            for (int j = 0; j < layer.biases.length; j++) {
-                double gradient = currentLayerDelta[j];
-                double velocity = (layer.biasVelocities[j] * momentum) - (learningRate * gradient);
-                layer.biases[j] += velocity;
-                layer.biasVelocities[j] = velocity;
-            }
-
-            for (int j = 0; j < layer.weights.length; j++) {
-                for (int k = 0; k < layer.weights[j].length; k++) {
-                    double gradient = currentLayerDelta[j] * previousActivations[k];
-                    gradient += lambda * layer.weights[j][k];
-                    double velocity = (layer.weightVelocities[j][k] * momentum) - (learningRate * gradient);
-                    layer.weights[j][k] += velocity;
-                    layer.weightVelocities[j][k] = velocity;
-                }
+        for (int i = layers.size() - 2; i >= 0; i--) {
+            Layer frontLayer = layers.get(i + 1);
+            float[] currentDelta = deltas[i];
+            MathUtils.transposeMultiplyInto(store.parameters32, frontLayer.weightOffset, frontLayer.outputSize,
+                    frontLayer.inputSize, deltas[i + 1], currentDelta);
+
+            float[] currentActivations = activations[i + 1];
+            for (int j = 0; j < currentActivations.length; j++) {
+                currentDelta[j] *= (float) MathUtils.leakyReluDerivative(currentActivations[j]);
             }
         }
         return sampleError;
     }
 
+    /**
+     * Trains the network on a single sample using SGD with Momentum.
+     *
+     * @param input          The input vector.
+     * @param expectedOutput The target (ground truth) vector.
+     * @return The mean squared error (MSE) for this sample.
+     */
+    public double train(double[] input, double[] expectedOutput) {
+        return train(input, expectedOutput, momentumOptimizer());
+    }
 
     /**
      * Trains the network on a single sample using the Adam optimizer.
-     * <p>
-     * Implements Adaptive Moment Estimation (Adam). It maintains moving averages
-     * of the gradients (m) and squared gradients (v), applies bias correction,
-     * and updates parameters accordingly.
      *
      * @param input          The input vector.
      * @param expectedOutput The target (ground truth) vector.
      * @return The mean squared error (MSE) for this sample.
      */
     public double trainADAM(double[] input, double[] expectedOutput) {
-        List<double[]> allActivations = feedForward(input);
-        double[] finalOutput = allActivations.get(allActivations.size() - 1);
+        return train(input, expectedOutput, adamOptimizer());
+    }
 
-        double sampleError = 0.0;
-        for (int i = 0; i < expectedOutput.length; i++) {
-            sampleError += (expectedOutput[i] - finalOutput[i]) * (expectedOutput[i] - finalOutput[i]);
+    /**
+     * Trains the network on a single sample using the given optimizer.
+     * <p>
+     * Performs a forward pass, calculates the errors via backpropagation, and lets the
+     * optimizer update every bias vector and every weight row. The gradient of a weight row
+     * is the outer product of the neuron's delta and the previous activations; it is never
+     * materialized, the optimizer reads it as {@code delta[j] * previousActivations[k]}.
+     * An optimizer that {@link Optimizer#usesActiveEntries() uses active entries} is also given the
+     * nonzero inputs, so it only needs to visit their first-layer weights.
+     *
+     * @param input          The input vector.
+     * @param expectedOutput The target (ground truth) vector.
+     * @param optimizer      The optimizer applying the update.
+     * @return The mean squared error (MSE) for this sample.
+     * @throws IllegalArgumentException if the optimizer was created for a different number of parameters.
+     */
+    public double train(double[] input, double[] expectedOutput, Optimizer optimizer) {
+        checkOptimizer(optimizer);
+        if (store.parameters32 != null) {
+            return train32(input, expectedOutput, optimizer);
         }
+        feedForward(input, workspace);
+        long start = Telemetry.start();
+        double sampleError = backpropagate(expectedOutput, workspace);
+        Telemetry.stop(Telemetry.Phase.BACKWARD, start);
 
-        LinkedList<double[]> deltas = new LinkedList<>();
+        start = Telemetry.start();
+        double[] parameters = store.parameters;
+        //feedForward only converts the input completely when it takes the sparse path
+        SparseInput activeInputs = optimizer.usesActiveEntries() ? workspace.sparseInput.set(input) : null;
+        optimizer.beginStep();
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            double[] previousActivations = workspace.activations[i];
+            double[] currentLayerDelta = workspace.deltas[i];
+            SparseInput activeEntries = i == 0 ? activeInputs : null;
 
-        double[] outputDelta = MathUtils.subtractVectors(finalOutput, expectedOutput);
-        deltas.addFirst(outputDelta);
+            optimizer.update(parameters, layer.biasOffset, layer.outputSize, currentLayerDelta, 0, 1.0, 0.0);
 
-        for (int i = layers.size() - 2; i >= 0; i--) {
-            Layer frontLayer = layers.get(i + 1);
-            double[][] transposedWeights = MathUtils.transposeMatrix(frontLayer.weights);
-            double[] propagatedError = MathUtils.matrixVectorMultiply(transposedWeights, deltas.getFirst());
+            for (int j = 0; j < layer.outputSize; j++) {
+                optimizer.update(parameters, layer.weightOffset + j * layer.inputSize, layer.inputSize,
+                        previousActivations, 0, currentLayerDelta[j], lambda, activeEntries);
+            }
+        }
+        Telemetry.stop(Telemetry.Phase.UPDATE, start);
+        Telemetry.addSamples(1);
+        return sampleError;
+    }
 
-            double[] currentActivations = allActivations.get(i + 1);
-            double[] hiddenDerivatives = new double[currentActivations.length];
-            for (int j = 0; j < currentActivations.length; j++) {
-                hiddenDerivatives[j] = MathUtils.leakyReluDerivative(currentActivations[j]);
+    /**
+     * Same as {@link #train(double[], double[], Optimizer)}, for a single-precision network.
+     */
+    private double train32(double[] input, double[] expectedOutput, Optimizer optimizer) {
+        MathUtils.narrowInto(input, workspace.input32, input.length);
+        feedForward32(workspace);
+        long start = Telemetry.start();
+        double sampleError = backpropagate32(expectedOutput, workspace);
+        Telemetry.stop(Telemetry.Phase.BACKWARD, start);
+
+        start = Telemetry.start();
+        float[] parameters = store.parameters32;
+        optimizer.beginStep();
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            float[] previousActivations = workspace.activations32[i];
+            float[] currentLayerDelta = workspace.deltas32[i];
+
+            optimizer.update(parameters, layer.biasOffset, layer.outputSize, currentLayerDelta, 0, 1.0, 0.0);
+            for (int j = 0; j < layer.outputSize; j++) {
+                optimizer.update(parameters, layer.weightOffset + j * layer.inputSize, layer.inputSize,
+                        previousActivations, 0, currentLayerDelta[j], lambda);
+            }
+        }
+        Telemetry.stop(Telemetry.Phase.UPDATE, start);
+        Telemetry.addSamples(1);
+        return sampleError;
+    }
+
+    /**
+     * Returns the SGD with Momentum optimizer used by {@link #train(double[], double[])}.
+     *
+     * @return The network's momentum optimizer.
+     */
+    public Optimizer momentumOptimizer() {
+        if (momentumOptimizer == null) {
+            momentumOptimizer = new MomentumOptimizer(store.size, learningRate, momentum, statePrecision);
+        }
+        return momentumOptimizer;
+    }
+
+    /**
+     * Returns the Adam optimizer used by {@link #trainADAM} and {@link #trainBatch(double[][], double[][])}.
+     * <p>
+     * With {@code -Dnn.lazyAdam=true}, this is a {@link LazyAdamOptimizer}, which skips the
+     * weights of zero inputs instead of decaying their moments on every step.
+     *
+     * @return The network's Adam optimizer.
+     */
+    public Optimizer adamOptimizer() {
+        if (adamOptimizer == null) {
+            adamOptimizer = LAZY_ADAM
+                    ? new LazyAdamOptimizer(store.size, learningRate, statePrecision)
+                    : new AdamOptimizer(store.size, learningRate, statePrecision);
+        }
+        return adamOptimizer;
+    }
+
+    /**
+     * Returns the total number of trainable parameters (weights and biases).
+     * Optimizers passed to this network must be created for this many parameters.
+     *
+     * @return The number of parameters.
+     */
+    public int parameterCount() {
+        return store.size;
+    }
+
+    /**
+     * Returns the number of classes.
+     *
+     * @return The number of output neurons.
+     */
+    public int outputSize() {
+        return layers.get(layers.size() - 1).outputSize;
+    }
+
+    /**
+     * Returns the topology of the network.
+     *
+     * @return The number of neurons of every layer, starting with the input layer.
+     */
+    public int[] layerSizes() {
+        int[] sizes = new int[layers.size() + 1];
+        sizes[0] = layers.get(0).inputSize;
+        for (int i = 0; i < layers.size(); i++) {
+            sizes[i + 1] = layers.get(i).outputSize;
+        }
+        return sizes;
+    }
+
+    /**
+     * Takes an immutable snapshot of the current weights and biases for inference.
+     * <p>
+     * The snapshot copies the parameters, so it stays valid and consistent while this
+     * network keeps training.
+     *
+     * @return A new read-only model with this network's topology and parameters.
+     */
+    public InferenceModel snapshot() {
+        double[] parameters = store.parameters;
+        if (parameters == null) {
+            parameters = new double[store.size];
+            copyParameters(parameters);
+        }
+        return new InferenceModel(layerSizes(), parameters);
+    }
+
+    /**
+     * Overwrites the weights and biases with those of a snapshot, e.g. to go back to the best
+     * epoch after early stopping. The optimizer state is left untouched.
+     *
+     * @param model A snapshot of a network with the same topology.
+     * @throws IllegalArgumentException if the topologies differ.
+     */
+    public void loadParameters(InferenceModel model) {
+        if (!Arrays.equals(layerSizes(), model.layerSizes())) {
+            throw new IllegalArgumentException("The snapshot has topology " + Arrays.toString(model.layerSizes())
+                    + " but the network has " + Arrays.toString(layerSizes()) + ".");
+        }
+        setParameters(model.parameters());
+    }
+
+    /**
+     * Returns the precision of the parameters, activations and gradients.
+     *
+     * @return The precision the network was created with.
+     */
+    public Precision precision() {
+        return store.precision();
+    }
+
+    /**
+     * Copies the flat parameters (all weights, then all biases) into a double array, widening
+     * them if the network is single precision. Used by {@link Checkpoint} and {@link BestWeights}.
+     *
+     * @param target The array receiving {@link #parameterCount()} values.
+     */
+    void copyParameters(double[] target) {
+        if (store.parameters32 != null) {
+            MathUtils.widenInto(store.parameters32, target, store.size);
+        } else {
+            System.arraycopy(store.parameters, 0, target, 0, store.size);
+        }
+    }
+
+    /**
+     * Overwrites the flat parameters from a double array, rounding them if the network is
+     * single precision.
+     *
+     * @param source The array holding {@link #parameterCount()} values.
+     */
+    void setParameters(double[] source) {
+        if (store.parameters32 != null) {
+            MathUtils.narrowInto(source, store.parameters32, store.size);
+        } else {
+            System.arraycopy(source, 0, store.parameters, 0, store.size);
+        }
+    }
+
+    double learningRate() {
+        return learningRate;
+    }
+
+    double momentum() {
+        return momentum;
+    }
+
+    double lambda() {
+        return lambda;
+    }
+
+    Precision statePrecision() {
+        return statePrecision;
+    }
+
+    /**
+     * Returns the momentum optimizer if it has been used, without creating it.
+     *
+     * @return The momentum optimizer, or {@code null}.
+     */
+    Optimizer momentumOptimizerOrNull() {
+        return momentumOptimizer;
+    }
+
+    /**
+     * Returns the Adam optimizer if it has been used, without creating it.
+     *
+     * @return The Adam optimizer, or {@code null}.
+     */
+    Optimizer adamOptimizerOrNull() {
+        return adamOptimizer;
+    }
+
+    /**
+     * Verifies that an optimizer keeps state for exactly this network's parameters.
+     *
+     * @param optimizer The optimizer to check.
+     * @throws IllegalArgumentException if the sizes differ.
+     */
+    private void checkOptimizer(Optimizer optimizer) {
+        if (optimizer.parameterCount() != store.size) {
+            throw new IllegalArgumentException("Optimizer holds state for " + optimizer.parameterCount()
+                    + " parameters but the network has " + store.size + ".");
+        }
+    }
+
+    /**
+     * Trains the network on a mini-batch of samples using the Adam optimizer.
+     *
+     * @param inputs          The input vectors of the batch [batchSize][inputSize].
+     * @param expectedOutputs The target (ground truth) vectors [batchSize][outputSize].
+     * @return The error averaged over the samples of the batch.
+     * @throws IllegalArgumentException if the number of inputs and targets differ.
+     */
+    public double trainBatch(double[][] inputs, double[][] expectedOutputs) {
+        return trainBatch(inputs, expectedOutputs, adamOptimizer());
+    }
+
+    /**
+     * Trains the network on a mini-batch of samples using the given optimizer.
+     * <p>
+     * The whole batch is propagated at once with matrix-matrix kernels. Gradients of
+     * all samples are accumulated, averaged, and applied in a single optimizer step, so the
+     * optimizer sweeps over the weights once per batch instead of once per sample.
+     *
+     * @param inputs          The input vectors of the batch [batchSize][inputSize].
+     * @param expectedOutputs The target (ground truth) vectors [batchSize][outputSize].
+     * @param optimizer       The optimizer applying the update.
+     * @return The error averaged over the samples of the batch.
+     * @throws IllegalArgumentException if the number of inputs and targets differ, or the optimizer
+     *                                  was created for a different number of parameters.
+     */
+    public double trainBatch(double[][] inputs, double[][] expectedOutputs, Optimizer optimizer) {
+        checkOptimizer(optimizer);
+        int batchSize = inputs.length;
+        if (batchSize != expectedOutputs.length) {
+            throw new IllegalArgumentException("Batch has " + batchSize + " inputs but " + expectedOutputs.length + " targets.");
+        }
+        if (batchSize == 0) {
+            return 0.0;
+        }
+        if (batchWorkspace == null || batchWorkspace.capacity < batchSize) {
+            batchWorkspace = createBatchWorkspace(batchSize);
+        }
+
+        batchWorkspace.clearGradients();
+        double batchError = accumulateGradients(inputs, expectedOutputs, 0, batchSize, batchWorkspace);
+        applyStep(optimizer, batchWorkspace, 1.0 / batchSize);
+        Telemetry.addSamples(batchSize);
+        return batchError / batchSize;
+    }
+
+    /**
+     * Creates a workspace sized for this network's layers.
+     *
+     * @param capacity The maximum number of samples processed at once.
+     * @return A new workspace with all buffers allocated.
+     */
+    public BatchWorkspace createBatchWorkspace(int capacity) {
+        return new BatchWorkspace(layers, store.size, capacity, store.precision());
+    }
+
+    /**
+     * Propagates a range of samples forward and backward and adds their gradients
+     * to the workspace, without touching the network's parameters.
+     *
+     * @param inputs          The input vectors.
+     * @param expectedOutputs The target (ground truth) vectors.
+     * @param from            The index of the first sample to process (inclusive).
+     * @param to              The index of the last sample to process (exclusive).
+     * @param workspace       The workspace receiving the summed gradients, with a capacity of at least {@code to - from}.
+     * @return The error summed over the processed samples.
+     */
+    double accumulateGradients(double[][] inputs, double[][] expectedOutputs, int from, int to,
+                               BatchWorkspace workspace) {
+        int batchSize = to - from;
+        if (workspace.gradients32 != null) {
+            for (int s = 0; s < batchSize; s++) {
+                MathUtils.narrowInto(inputs[from + s], workspace.rows32[s], inputs[from + s].length);
             }
+            System.arraycopy(workspace.rows32, 0, workspace.inputs32, 0, batchSize);
+            return accumulateGradients32(expectedOutputs, from, batchSize, workspace);
+        }
+        System.arraycopy(inputs, from, workspace.inputs, 0, batchSize);
+        long start = Telemetry.start();
+        forwardBatch(workspace, batchSize, true);
+        Telemetry.stop(Telemetry.Phase.FORWARD, start);
+
+        start = Telemetry.start();
+        double[][][] outputs = workspace.outputs;
+        double[][][] deltas = workspace.deltas;
+        double[] parameters = store.parameters;
+        int lastLayer = layers.size() - 1;
 
-            double[] currentDelta = MathUtils.elementMultVectors(propagatedError, hiddenDerivatives);
-            deltas.addFirst(currentDelta);
+        double batchError = 0.0;
+        for (int s = 0; s < batchSize; s++) {
+            double[] finalOutput = outputs[lastLayer][s];
+            double[] expectedOutput = expectedOutputs[from + s];
+            double[] outputDelta = deltas[lastLayer][s];
+            for (int j = 0; j < expectedOutput.length; j++) {
+                double difference = finalOutput[j] - expectedOutput[j];
+                batchError += difference * difference;
+                outputDelta[j] = difference;
+            }
         }
 
-        beta1_t *= beta1;
-        beta2_t *= beta2;
+        for (int i = lastLayer - 1; i >= 0; i--) {
+            Layer frontLayer = layers.get(i + 1);
+            double[][] currentDeltas = deltas[i];
+            MathUtils.matrixMultiply(deltas[i + 1], parameters, frontLayer.weightOffset, frontLayer.outputSize,
+                    frontLayer.inputSize, currentDeltas, batchSize);
+
+            double[][] currentActivations = outputs[i];
+            for (int s = 0; s < batchSize; s++) {
+                double[] delta = currentDeltas[s];
+                double[] activations = currentActivations[s];
+                for (int j = 0; j < delta.length; j++) {
+                    delta[j] *= MathUtils.leakyReluDerivative(activations[j]);
+                }
+            }
+        }
 
+        double[] gradients = workspace.gradients;
         for (int i = 0; i < layers.size(); i++) {
             Layer layer = layers.get(i);
-            double[] previousActivations = allActivations.get(i);
-            double[] currentLayerDelta = deltas.get(i);
+            double[][] layerDeltas = deltas[i];
+            if (i == 0 && workspace.sparse) {
+                MathUtils.matrixMultiplyATransposedAccumulate(layerDeltas, workspace.sparseInputs,
+                        gradients, layer.weightOffset, layer.outputSize, layer.inputSize, batchSize);
+            } else {
+                MathUtils.matrixMultiplyATransposedAccumulate(layerDeltas, i == 0 ? workspace.inputs : outputs[i - 1],
+                        gradients, layer.weightOffset, layer.outputSize, layer.inputSize, batchSize);
+            }
+
+            for (int s = 0; s < batchSize; s++) {
+                double[] delta = layerDeltas[s];
+                for (int j = 0; j < delta.length; j++) {
+                    gradients[layer.biasOffset + j] += delta[j];
+                }
+            }
+        }
 
-            for (int j = 0; j < layer.biases.length; j++) {
-                double gradient = currentLayerDelta[j];
+        Arrays.fill(workspace.inputs, 0, batchSize, null);
+        Telemetry.stop(Telemetry.Phase.BACKWARD, start);
+        return batchError;
+    }
 
-                layer.m_biases[j] = beta1 * layer.m_biases[j] + (1 - beta1) * gradient;
-                layer.v_biases[j] = beta2 * layer.v_biases[j] + (1 - beta2) * (gradient * gradient);
+    /**
+     * Same as {@link #accumulateGradients(double[][], double[][], int, int, BatchWorkspace)}, for
+     * single-precision inputs of a single-precision network.
+     *
+     * @param inputs          The single-precision input vectors.
+     * @param expectedOutputs The target (ground truth) vectors.
+     * @param from            The index of the first sample to process (inclusive).
+     * @param to              The index of the last sample to process (exclusive).
+     * @param workspace       The workspace receiving the summed gradients, with a capacity of at least {@code to - from}.
+     * @return The error summed over the processed samples.
+     * @throws IllegalArgumentException if the network is double precision.
+     */
+    double accumulateGradients(float[][] inputs, double[][] expectedOutputs, int from, int to,
+                               BatchWorkspace workspace) {
+        if (workspace.gradients32 == null) {
+            throw new IllegalArgumentException("Single-precision inputs need a single-precision network.");
+        }
+        int batchSize = to - from;
+        System.arraycopy(inputs, from, workspace.inputs32, 0, batchSize);
+        return accumulateGradients32(expectedOutputs, from, batchSize, workspace);
+    }
+
+    /**
+     * Propagates the samples referenced by {@code workspace.inputs32} forward and backward and adds
+     * their single-precision gradients to the workspace.
+     *
+     * @param expectedOutputs The target (ground truth) vectors.
+     * @param from            The index of the target of the first sample.
+     * @param batchSize       The number of samples.
+     * @param workspace       The workspace holding the inputs and receiving the summed gradients.
+     * @return The error summed over the processed samples.
+     */
+    private double accumulateGradients32(double[][] expectedOutputs, int from, int batchSize,
+                                         BatchWorkspace workspace) {
+        long start = Telemetry.start();
+        forwardBatch32(workspace, batchSize, true);
+        Telemetry.stop(Telemetry.Phase.FORWARD, start);
 
-                double m_hat = layer.m_biases[j] / (1 - beta1_t);
-                double v_hat = layer.v_biases[j] / (1 - beta2_t);
+        start = Telemetry.start();
+        float[][][] outputs = workspace.outputs32;
+        float[][][] deltas = workspace.deltas32;
+        float[] parameters = store.parameters32;
+        int lastLayer = layers.size() - 1;
 
-                layer.biases[j] -= learningRate * m_hat / (Math.sqrt(v_hat) + epsilon);
+        double batchError = 0.0;
+        for (int s = 0; s < batchSize; s++) {
+            float[] finalOutput = outputs[lastLayer][s];
+            double[] expectedOutput = expectedOutputs[from + s];
+            float[] outputDelta = deltas[lastLayer][s];
+            for (int j = 0; j < expectedOutput.length; j++) {
+                double difference = finalOutput[j] - expectedOutput[j];
+                batchError += difference * difference;
+                outputDelta[j] = (float) difference;
             }
+        }
 
-            for (int j = 0; j < layer.weights.length; j++) {
-                for (int k = 0; k < layer.weights[j].length; k++) {
-                    double gradient = currentLayerDelta[j] * previousActivations[k];
-                    gradient += lambda * layer.weights[j][k];
+        for (int i = lastLayer - 1; i >= 0; i--) {
+            Layer frontLayer = layers.get(i + 1);
+            float[][] currentDeltas = deltas[i];
+            MathUtils.matrixMultiply(deltas[i + 1], parameters, frontLayer.weightOffset, frontLayer.outputSize,
+                    frontLayer.inputSize, currentDeltas, batchSize);
 
-                    layer.m_weights[j][k] = beta1 * layer.m_weights[j][k] + (1 - beta1) * gradient;
-                    layer.v_weights[j][k] = beta2 * layer.v_weights[j][k] + (1 - beta2) * (gradient * gradient);
+            float[][] currentActivations = outputs[i];
+            for (int s = 0; s < batchSize; s++) {
+                float[] delta = currentDeltas[s];
+                float[] activations = currentActivations[s];
+                for (int j = 0; j < delta.length; j++) {
+                    delta[j] *= (float) MathUtils.leakyReluDerivative(activations[j]);
+                }
+            }
+        }
 
-                    double m_hat = layer.m_weights[j][k] / (1 - beta1_t);
-                    double v_hat = layer.v_weights[j][k] / (1 - beta2_t);
+        float[] gradients = workspace.gradients32;
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            float[][] layerDeltas = deltas[i];
+            MathUtils.matrixMultiplyATransposedAccumulate(layerDeltas, i == 0 ? workspace.inputs32 : outputs[i - 1],
+                    gradients, layer.weightOffset, layer.outputSize, layer.inputSize, batchSize);
 
-                    layer.weights[j][k] -= learningRate * m_hat / (Math.sqrt(v_hat) + epsilon);
+            for (int s = 0; s < batchSize; s++) {
+                float[] delta = layerDeltas[s];
+                for (int j = 0; j < delta.length; j++) {
+                    gradients[layer.biasOffset + j] += delta[j];
                 }
             }
         }
-        return sampleError;
+
+        Arrays.fill(workspace.inputs32, 0, batchSize, null);
+        Telemetry.stop(Telemetry.Phase.BACKWARD, start);
+        return batchError;
     }
 
+    /**
+     * Propagates the samples referenced by {@code workspace.inputs} forward through all layers.
+     * <p>
+     * The inputs are first converted to their sparse form; if the batch is sparse enough
+     * (see {@link MathUtils#preferSparse}), the first layer multiplies only their nonzero
+     * elements and {@code workspace.sparse} tells the backward pass to do the same.
+     *
+     * @param workspace     The workspace holding the inputs and receiving the outputs of every layer.
+     * @param batchSize     The number of samples to propagate.
+     * @param probabilities Whether the output layer applies softmax; predictions only need the logits.
+     */
+    private void forwardBatch(BatchWorkspace workspace, int batchSize, boolean probabilities) {
+        double[][][] outputs = workspace.outputs;
+        double[] parameters = store.parameters;
+        int lastLayer = layers.size() - 1;
 
+        //Stops converting as soon as the batch is known to be too dense
+        long budget = MathUtils.maxSparseNonZeros((long) batchSize * layers.get(0).inputSize);
+        long nonZeros = 0;
+        boolean sparse = budget >= 0;
+        for (int s = 0; s < batchSize && sparse; s++) {
+            SparseInput sparseInput = workspace.sparseInputs[s];
+            sparse = sparseInput.setIfSparse(workspace.inputs[s], budget - nonZeros);
+            nonZeros += sparseInput.nonZeros;
+        }
+        workspace.sparse = sparse;
+
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            double[][] layerOutputs = outputs[i];
+            if (i == 0 && workspace.sparse) {
+                MathUtils.matrixMultiplyBTransposed(workspace.sparseInputs, parameters, layer.weightOffset,
+                        layer.outputSize, layer.inputSize, layerOutputs, batchSize);
+            } else {
+                MathUtils.matrixMultiplyBTransposed(i == 0 ? workspace.inputs : outputs[i - 1], parameters,
+                        layer.weightOffset, layer.outputSize, layer.inputSize, layerOutputs, batchSize);
+            }
+
+            KernelBackend kernels = MathUtils.kernels();
+            for (int s = 0; s < batchSize; s++) {
+                double[] row = layerOutputs[s];
+                if (i != lastLayer) {
+                    kernels.addBiasLeakyRelu(row, parameters, layer.biasOffset, layer.outputSize);
+                } else {
+                    kernels.addBias(row, parameters, layer.biasOffset, layer.outputSize);
+                    if (probabilities) {
+                        MathUtils.softmaxInto(row, row);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #forwardBatch}, for the single-precision samples referenced by {@code workspace.inputs32}.
+     * The first layer always runs on the dense kernels.
+     *
+     * @param workspace     The workspace holding the inputs and receiving the outputs of every layer.
+     * @param batchSize     The number of samples to propagate.
+     * @param probabilities Whether the output layer applies softmax; predictions only need the logits.
+     */
+    private void forwardBatch32(BatchWorkspace workspace, int batchSize, boolean probabilities) {
+        float[][][] outputs = workspace.outputs32;
+        float[] parameters = store.parameters32;
+        int lastLayer = layers.size() - 1;
+        KernelBackend kernels = MathUtils.kernels();
+
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            float[][] layerOutputs = outputs[i];
+            MathUtils.matrixMultiplyBTransposed(i == 0 ? workspace.inputs32 : outputs[i - 1], parameters,
+                    layer.weightOffset, layer.outputSize, layer.inputSize, layerOutputs, batchSize);
+
+            for (int s = 0; s < batchSize; s++) {
+                float[] row = layerOutputs[s];
+                if (i != lastLayer) {
+                    kernels.addBiasLeakyRelu(row, parameters, layer.biasOffset, layer.outputSize);
+                } else {
+                    kernels.addBias(row, parameters, layer.biasOffset, layer.outputSize);
+                    if (probabilities) {
+                        MathUtils.softmaxInto(row, row);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies one optimizer step using the gradients accumulated in a workspace.
+     * <p>
+     * Since gradients, parameters and optimizer state share one flat layout, the update is a
+     * linear sweep: first over all weights (with weight decay), then over all biases.
+     *
+     * @param optimizer     The optimizer applying the update.
+     * @param gradients     The workspace holding the summed gradients.
+     * @param gradientScale The factor applied to the summed gradients (1 / batch size).
+     */
+    void applyStep(Optimizer optimizer, BatchWorkspace gradients, double gradientScale) {
+        long start = Telemetry.start();
+        optimizer.beginStep();
+        if (gradients.gradients32 != null) {
+            float[] parameters = store.parameters32;
+            optimizer.update(parameters, 0, store.weightCount, gradients.gradients32, 0, gradientScale, lambda);
+            optimizer.update(parameters, store.weightCount, store.size - store.weightCount,
+                    gradients.gradients32, store.weightCount, gradientScale, 0.0);
+            Telemetry.stop(Telemetry.Phase.UPDATE, start);
+            return;
+        }
+        double[] parameters = store.parameters;
+        optimizer.update(parameters, 0, store.weightCount, gradients.gradients, 0, gradientScale, lambda);
+        optimizer.update(parameters, store.weightCount, store.size - store.weightCount,
+                gradients.gradients, store.weightCount, gradientScale, 0.0);
+        Telemetry.stop(Telemetry.Phase.UPDATE, start);
+    }
 
     /**
      * Predicts the class label for a given input.
      * <p>
-     * Runs the forward pass and finds the index of the neuron with the highest activation.
+     * Runs the inference-only forward pass (see {@link #logits}) and finds the index of the
+     * largest logit. Uses the network's own workspace, so it must not be called concurrently;
+     * use {@link #predict(double[], Workspace)} with a workspace per thread instead.
      *
      * @param input The input vector.
      * @return The predicted class label (index of the maximum output).
      */
     public int predict(double[] input) {
-        List<double[]> allActivations = feedForward(input);
-        double[] finalOutput = allActivations.get(allActivations.size() - 1);
-        int maxIndex = 0;
-        for (int i = 1; i < finalOutput.length; i++) {
-            if (finalOutput[i] > finalOutput[maxIndex]) {
-                maxIndex = i;
+        return predict(input, workspace);
+    }
+
+    /**
+     * Predicts the class label for a given input using the given workspace.
+     *
+     * @param input     The input vector.
+     * @param workspace The workspace used for the forward pass.
+     * @return The predicted class label (index of the maximum output).
+     */
+    public int predict(double[] input, Workspace workspace) {
+        return MathUtils.argmax(logits(input, workspace), outputSize());
+    }
+
+    /**
+     * Predicts the {@code k} most likely classes of an input, with their probabilities.
+     * <p>
+     * Runs the same forward pass as {@link #predict(double[], Workspace)}; the softmax
+     * probabilities are computed from the logits only for this on-demand ranking.
+     *
+     * @param input         The input vector.
+     * @param k             The number of classes to return.
+     * @param classes       The array receiving the classes, most likely first.
+     * @param probabilities The array receiving the probability of every returned class.
+     * @param workspace     The workspace used for the forward pass.
+     * @return The number of classes written, {@code min(k, outputSize())}.
+     */
+    public int topK(double[] input, int k, int[] classes, double[] probabilities, Workspace workspace) {
+        return MathUtils.topK(logits(input, workspace), outputSize(), k, classes, probabilities);
+    }
+
+    /**
+     * Predicts the class labels of many inputs with matrix-matrix forward passes.
+     * <p>
+     * Uses the network's own mini-batch workspace, so it must not be called concurrently;
+     * use {@link BatchPredictor} to spread the work over several threads.
+     *
+     * @param inputs      The input vectors.
+     * @param predictions The array receiving the predicted label of every input (same indices).
+     */
+    public void predictBatch(double[][] inputs, int[] predictions) {
+        if (batchWorkspace == null) {
+            batchWorkspace = createBatchWorkspace(Math.max(1, Math.min(inputs.length, 256)));
+        }
+        predictBatch(inputs, 0, inputs.length, predictions, batchWorkspace);
+    }
+
+    /**
+     * Predicts the class labels of a range of inputs with matrix-matrix forward passes,
+     * processing up to {@code workspace.capacity} inputs at a time.
+     *
+     * @param inputs      The input vectors.
+     * @param from        The index of the first input to predict (inclusive).
+     * @param to          The index of the last input to predict (exclusive).
+     * @param predictions The array receiving the predicted labels, at the same indices as the inputs.
+     * @param workspace   The workspace used for the forward passes.
+     */
+    public void predictBatch(double[][] inputs, int from, int to, int[] predictions, BatchWorkspace workspace) {
+        if (workspace.outputs32 != null) {
+            for (int start = from; start < to; start += workspace.capacity) {
+                int batchSize = Math.min(workspace.capacity, to - start);
+                for (int s = 0; s < batchSize; s++) {
+                    MathUtils.narrowInto(inputs[start + s], workspace.rows32[s], inputs[start + s].length);
+                }
+                predictBatch(workspace.rows32, 0, batchSize, predictions, start, workspace);
+            }
+            return;
+        }
+        double[][] finalOutputs = workspace.outputs[layers.size() - 1];
+        for (int start = from; start < to; start += workspace.capacity) {
+            int batchSize = Math.min(workspace.capacity, to - start);
+            System.arraycopy(inputs, start, workspace.inputs, 0, batchSize);
+            forwardBatch(workspace, batchSize, false);
+            for (int s = 0; s < batchSize; s++) {
+                predictions[start + s] = MathUtils.argmax(finalOutputs[s], finalOutputs[s].length);
+            }
+        }
+        Arrays.fill(workspace.inputs, null);
+    }
+
+    /**
+     * Predicts the class labels of a range of single-precision inputs with a single-precision network,
+     * processing up to {@code workspace.capacity} inputs at a time.
+     *
+     * @param inputs      The single-precision input vectors.
+     * @param from        The index of the first input to predict (inclusive).
+     * @param to          The index of the last input to predict (exclusive).
+     * @param predictions The array receiving the predicted labels, at the same indices as the inputs.
+     * @param workspace   The workspace used for the forward passes.
+     * @throws IllegalArgumentException if the network is double precision.
+     */
+    public void predictBatch(float[][] inputs, int from, int to, int[] predictions, BatchWorkspace workspace) {
+        predictBatch(inputs, from, to, predictions, from, workspace);
+    }
+
+    /**
+     * Predicts single-precision inputs, writing the prediction of input {@code i} at
+     * {@code i - from + predictionOffset}.
+     */
+    private void predictBatch(float[][] inputs, int from, int to, int[] predictions, int predictionOffset,
+                              BatchWorkspace workspace) {
+        if (workspace.outputs32 == null) {
+            throw new IllegalArgumentException("Single-precision inputs need a single-precision network.");
+        }
+        float[][] finalOutputs = workspace.outputs32[layers.size() - 1];
+        for (int start = from; start < to; start += workspace.capacity) {
+            int batchSize = Math.min(workspace.capacity, to - start);
+            System.arraycopy(inputs, start, workspace.inputs32, 0, batchSize);
+            forwardBatch32(workspace, batchSize, false);
+            for (int s = 0; s < batchSize; s++) {
+                predictions[start - from + predictionOffset + s] = MathUtils.argmax(finalOutputs[s], finalOutputs[s].length);
             }
         }
-        return maxIndex;
+        Arrays.fill(workspace.inputs32, null);
+    }
+
+    /**
+     * Predicts the class label of a sample of a dataset using the given workspace.
+     *
+     * @param dataset   The dataset holding the sample.
+     * @param index     The index of the sample.
+     * @param workspace The workspace used for the forward pass.
+     * @return The predicted class label (index of the maximum output).
+     */
+    public int predict(Dataset dataset, int index, Workspace workspace) {
+        if (store.parameters32 != null) {
+            dataset.readPixels(index, workspace.input32);
+            return MathUtils.argmax(logits32(workspace.input32, workspace), outputSize());
+        }
+        dataset.readPixels(index, workspace.input);
+        return predict(workspace.input, workspace);
     }
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An update rule that turns gradients into parameter changes.
+ * <p>
+ * The network computes the gradients (of one sample, or summed over a batch) and hands them
+ * to the optimizer one contiguous range of its {@link ParameterStore} at a time. Ranges use
+ * the store's flat layout, so an optimizer keeps its state (velocities, moments, ...) in
+ * arrays of the same length and addresses it with the same offsets. Each update is a single
+ * pass over the range: the gradient is formed, the state advanced and the parameter written
+ * in one loop.
+ * <p>
+ * A training step calls {@link #beginStep()} once and then {@link #update} for every range.
+ */
+public interface Optimizer {
+
+    /**
+     * Returns a short human-readable name of the optimizer.
+     *
+     * @return The optimizer name.
+     */
+    String name();
+
+    /**
+     * Returns the number of parameters this optimizer keeps state for.
+     *
+     * @return The size of the parameter store this optimizer was created for.
+     */
+    int parameterCount();
+
+    /**
+     * Starts a new optimization step.
+     * <p>
+     * Advances per-step state (such as the Adam time step) and precomputes the scalars
+     * shared by all updates of the step.
+     */
+    void beginStep();
+
+    /**
+     * Updates a contiguous range of parameters.
+     * <p>
+     * The raw gradient of parameter {@code offset + i} is
+     * {@code gradientScale * gradientSource[sourceOffset + i]}, which covers both averaged batch
+     * gradients (source = summed gradients, scale = 1 / batch size) and per-sample outer
+     * products (source = previous activations, scale = neuron delta).
+     *
+     * @param parameters     The parameters of the whole network.
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The weight decay strength for this range (0 for biases). Whether it is
+     *                       applied as L2 regularization or decoupled is up to the optimizer.
+     */
+    void update(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                double gradientScale, double decay);
+
+    /**
+     * Returns whether the optimizer makes use of the nonzero positions passed to
+     * {@link #update(double[], int, int, double[], int, double, double, SparseInput)}.
+     * <p>
+     * Listing the nonzero elements costs a pass over the gradient source, which the network only
+     * makes for an optimizer that reads the list.
+     *
+     * @return {@code true} if the optimizer skips entries whose raw gradient is zero.
+     */
+    default boolean usesActiveEntries() {
+        return false;
+    }
+
+    /**
+     * Updates a contiguous range of parameters whose raw gradient is zero except at known positions.
+     * <p>
+     * Same as {@link #update(double[], int, int, double[], int, double, double)}, with the nonzero
+     * elements of the gradient source additionally listed in {@code activeEntries}: its
+     * {@code values[t]} is {@code gradientSource[sourceOffset + indices[t]]}. The default
+     * implementation ignores the list and updates the whole range.
+     *
+     * @param parameters     The parameters of the whole network.
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The weight decay strength for this range (0 for biases).
+     * @param activeEntries  The nonzero raw gradients of the range, or {@code null} if they are not known.
+     */
+    default void update(double[] parameters, int offset, int length, double[] gradientSource, int sourceOffset,
+                        double gradientScale, double decay, SparseInput activeEntries) {
+        update(parameters, offset, length, gradientSource, sourceOffset, gradientScale, decay);
+    }
+
+    /**
+     * Updates a contiguous range of the parameters of a single-precision network.
+     * <p>
+     * Same as {@link #update(double[], int, int, double[], int, double, double)}; optimizers
+     * used with a FLOAT32 network must keep FLOAT32 state.
+     *
+     * @param parameters     The parameters of the whole network.
+     * @param offset         The index of the first parameter to update.
+     * @param length         The number of parameters to update.
+     * @param gradientSource The array the raw gradients are read from.
+     * @param sourceOffset   The index of the first raw gradient.
+     * @param gradientScale  The factor applied to every raw gradient.
+     * @param decay          The weight decay strength for this range (0 for biases).
+     * @throws IllegalStateException if the optimizer keeps double-precision state.
+     */
+    void update(float[] parameters, int offset, int length, float[] gradientSource, int sourceOffset,
+                double gradientScale, double decay);
+
+    /**
+     * Returns the number of bytes {@link #writeState} produces.
+     *
+     * @return The size of the serialized optimizer state.
+     */
+    int stateSize();
+
+    /**
+     * Serializes the optimizer state (time step, velocities, moments, ...) at the buffer's position.
+     *
+     * @param target The buffer receiving exactly {@link #stateSize()} bytes.
+     */
+    void writeState(ByteBuffer target);
+
+    /**
+     * Restores optimizer state written by {@link #writeState} from the buffer's position.
+     *
+     * @param source The buffer holding the serialized state.
+     * @throws IOException if the state does not match this optimizer (size or precision).
+     */
+    void readState(ByteBuffer source) throws IOException;
+}
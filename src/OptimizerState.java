@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers shared by the optimizers to serialize their per-parameter state arrays.
+ * <p>
+ * An array is stored as its precision (64 or 32 bits), its length and its values. Exactly one
+ * of the double and float arrays passed in is expected to be non-null, matching how the
+ * optimizers allocate state for the chosen {@link Precision}.
+ */
+final class OptimizerState {
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private OptimizerState() {
+    }
+
+    /**
+     * Returns the serialized size of a state array.
+     *
+     * @param values   The double-precision array, or {@code null}.
+     * @param values32 The single-precision array, or {@code null}.
+     * @return The number of bytes written by {@link #write}.
+     */
+    static int size(double[] values, float[] values32) {
+        return 2 * Integer.BYTES + (values != null ? values.length * Double.BYTES : values32.length * Float.BYTES);
+    }
+
+    /**
+     * Writes a state array at the buffer's position.
+     *
+     * @param target   The buffer to write to.
+     * @param values   The double-precision array, or {@code null}.
+     * @param values32 The single-precision array, or {@code null}.
+     */
+    static void write(ByteBuffer target, double[] values, float[] values32) {
+        if (values != null) {
+            target.putInt(64).putInt(values.length);
+            target.asDoubleBuffer().put(values);
+            target.position(target.position() + values.length * Double.BYTES);
+        } else {
+            target.putInt(32).putInt(values32.length);
+            target.asFloatBuffer().put(values32);
+            target.position(target.position() + values32.length * Float.BYTES);
+        }
+    }
+
+    /**
+     * Reads a state array written by {@link #write} into the existing array.
+     *
+     * @param source   The buffer to read from.
+     * @param values   The double-precision array to fill, or {@code null}.
+     * @param values32 The single-precision array to fill, or {@code null}.
+     * @throws IOException if the stored precision or length differ from the target array.
+     */
+    static void read(ByteBuffer source, double[] values, float[] values32) throws IOException {
+        int bits = source.getInt();
+        int length = source.getInt();
+        int expectedBits = values != null ? 64 : 32;
+        int expectedLength = values != null ? values.length : values32.length;
+        if (bits != expectedBits || length != expectedLength) {
+            throw new IOException("Stored optimizer state has " + length + " values of " + bits
+                    + " bits, expected " + expectedLength + " values of " + expectedBits + " bits.");
+        }
+        if (values != null) {
+            source.asDoubleBuffer().get(values);
+            source.position(source.position() + length * Double.BYTES);
+        } else {
+            source.asFloatBuffer().get(values32);
+            source.position(source.position() + length * Float.BYTES);
+        }
+    }
+}
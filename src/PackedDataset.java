@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An in-memory dataset storing every pixel as one unsigned byte.
+ * <p>
+ * All images live in one contiguous {@code byte[]} ([count][inputSize], values 0-255) and
+ * all labels in another. Compared to a list of {@link MnistImage} records holding
+ * {@code double[]} pixels, this takes an eighth of the memory and no per-image objects.
+ * Pixels are normalized through a 256-entry lookup table only when a sample is fed to the
+ * network (see {@link NeuralNetwork#feedForward(Dataset, int, Workspace)}), so reordering or
+ * batching samples is just a permutation of indices.
+ */
+public final class PackedDataset implements Dataset {
+
+    private final byte[] pixels;
+    private final byte[] labels;
+    private final int count;
+    private final int inputSize;
+
+    /**
+     * Wraps packed pixel and label arrays (not copied).
+     *
+     * @param pixels    The raw pixels of all images, row after row ([count * inputSize]).
+     * @param labels    The labels of all images ([count]).
+     * @param inputSize The number of pixels of every image.
+     * @throws IllegalArgumentException if the array lengths do not match.
+     */
+    public PackedDataset(byte[] pixels, byte[] labels, int inputSize) {
+        if (inputSize <= 0 || (long) labels.length * inputSize != pixels.length) {
+            throw new IllegalArgumentException("Expected " + labels.length + " images of " + inputSize
+                    + " pixels but got " + pixels.length + " pixels.");
+        }
+        this.pixels = pixels;
+        this.labels = labels;
+        this.count = labels.length;
+        this.inputSize = inputSize;
+    }
+
+    /**
+     * Parses a pair of Fashion-MNIST CSV files directly into packed form.
+     * <p>
+     * If the files have a different number of lines, only the lines present in both are kept.
+     *
+     * @param vectorsPath The CSV file with one comma-separated pixel vector (0-255) per line.
+     * @param labelsPath  The CSV file with one label per line.
+     * @param inputSize   The number of pixels of every image.
+     * @return The packed dataset.
+     * @throws IOException if a file cannot be read or is malformed.
+     */
+    public static PackedDataset fromCsv(String vectorsPath, String labelsPath, int inputSize) throws IOException {
+        byte[] pixels = DataReader.parseBytes(vectorsPath, inputSize);
+        byte[] labels = DataReader.parseBytes(labelsPath, 1);
+        int count = Math.min(pixels.length / inputSize, labels.length);
+        if (pixels.length != count * inputSize) {
+            pixels = Arrays.copyOf(pixels, count * inputSize);
+        }
+        if (labels.length != count) {
+            labels = Arrays.copyOf(labels, count);
+        }
+        return new PackedDataset(pixels, labels, inputSize);
+    }
+
+    /**
+     * Copies any dataset (for example a memory-mapped {@link BinaryDataset}) onto the heap in packed form.
+     *
+     * @param dataset The dataset to copy; its pixels must be multiples of 1/255 in [0, 1].
+     * @return The packed copy.
+     */
+    public static PackedDataset copyOf(Dataset dataset) {
+        int count = dataset.size();
+        int inputSize = dataset.inputSize();
+        byte[] pixels = new byte[count * inputSize];
+        byte[] labels = new byte[count];
+        double[] row = new double[inputSize];
+        for (int i = 0; i < count; i++) {
+            dataset.readPixels(i, row);
+            for (int j = 0; j < inputSize; j++) {
+                pixels[i * inputSize + j] = (byte) Math.round(row[j] * 255.0);
+            }
+            labels[i] = (byte) dataset.label(i);
+        }
+        return new PackedDataset(pixels, labels, inputSize);
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public int inputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public int label(int index) {
+        return labels[index] & 0xFF;
+    }
+
+    @Override
+    public void readPixels(int index, double[] target) {
+        double[] normalized = DataReader.NORMALIZED_PIXELS;
+        int offset = index * inputSize;
+        for (int i = 0; i < inputSize; i++) {
+            target[i] = normalized[pixels[offset + i] & 0xFF];
+        }
+    }
+
+    @Override
+    public void readPixels(int index, float[] target) {
+        float[] normalized = DataReader.NORMALIZED_PIXELS_32;
+        int offset = index * inputSize;
+        for (int i = 0; i < inputSize; i++) {
+            target[i] = normalized[pixels[offset + i] & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Data-parallel mini-batch trainer for a {@link NeuralNetwork}.
+ * <p>
+ * Every batch is split into contiguous, equally sized slices, one per worker thread.
+ * Each worker propagates its slice using its own preallocated {@link BatchWorkspace},
+ * so the threads never share mutable buffers. The per-worker gradients are then summed
+ * with a pairwise tree reduction whose shape depends only on the thread count, and a
+ * single optimizer step is applied. Results are therefore reproducible for a given seed and
+ * thread count, regardless of how the threads are scheduled. A different thread count sums the
+ * gradients in a different order and yields slightly different weights; only a single thread
+ * matches {@link NeuralNetwork#trainBatch} exactly.
+ */
+public class ParallelTrainer implements AutoCloseable {
+
+    private final NeuralNetwork network;
+    private final Optimizer optimizer;
+    private final int threadCount;
+    private final ExecutorService executor;
+    private final BatchWorkspace[] workspaces;
+    private final List<Callable<Double>> sliceTasks;
+    private final double[] sliceErrors;
+    private final List<List<Callable<Object>>> reductionLevels;
+
+    //Batch currently being processed, read by the slice tasks; one of the input arrays is null
+    private double[][] currentInputs;
+    private float[][] currentInputs32;
+    private double[][] currentTargets;
+    private int currentBatchSize;
+
+    /**
+     * Creates a trainer using the network's Adam optimizer, with a fixed pool of worker threads.
+     *
+     * @param network      The network to train.
+     * @param threadCount  The number of worker threads (and batch slices).
+     * @param maxBatchSize The largest batch that will be passed to {@link #trainBatch}.
+     */
+    public ParallelTrainer(NeuralNetwork network, int threadCount, int maxBatchSize) {
+        this(network, network.adamOptimizer(), threadCount, maxBatchSize);
+    }
+
+    /**
+     * Creates a trainer with a fixed pool of worker threads.
+     *
+     * @param network      The network to train.
+     * @param optimizer    The optimizer applying the update after every batch.
+     * @param threadCount  The number of worker threads (and batch slices).
+     * @param maxBatchSize The largest batch that will be passed to {@link #trainBatch}.
+     * @throws IllegalArgumentException if the thread count is not positive or the optimizer
+     *                                  was created for a different number of parameters.
+     */
+    public ParallelTrainer(NeuralNetwork network, Optimizer optimizer, int threadCount, int maxBatchSize) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        if (optimizer.parameterCount() != network.parameterCount()) {
+            throw new IllegalArgumentException("Optimizer holds state for " + optimizer.parameterCount()
+                    + " parameters but the network has " + network.parameterCount() + ".");
+        }
+        this.network = network;
+        this.optimizer = optimizer;
+        this.threadCount = threadCount;
+        this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "trainer-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        int sliceCapacity = (maxBatchSize + threadCount - 1) / threadCount;
+        this.workspaces = new BatchWorkspace[threadCount];
+        this.sliceTasks = new ArrayList<>(threadCount);
+        this.sliceErrors = new double[threadCount];
+        for (int w = 0; w < threadCount; w++) {
+            this.workspaces[w] = network.createBatchWorkspace(sliceCapacity);
+            final int worker = w;
+            this.sliceTasks.add(() -> trainSlice(worker));
+        }
+        this.reductionLevels = createReductionLevels();
+    }
+
+    /**
+     * Trains the network on a mini-batch, splitting the work across the worker threads.
+     *
+     * @param inputs          The input vectors of the batch [batchSize][inputSize].
+     * @param expectedOutputs The target (ground truth) vectors [batchSize][outputSize].
+     * @return The error averaged over the samples of the batch.
+     * @throws IllegalArgumentException if the batch is larger than the configured maximum
+     *                                  or the number of inputs and targets differ.
+     */
+    public double trainBatch(double[][] inputs, double[][] expectedOutputs) {
+        currentInputs = inputs;
+        return trainCurrentBatch(inputs.length, expectedOutputs);
+    }
+
+    /**
+     * Trains a single-precision network on a mini-batch of single-precision inputs, splitting
+     * the work across the worker threads.
+     *
+     * @param inputs          The input vectors of the batch [batchSize][inputSize].
+     * @param expectedOutputs The target (ground truth) vectors [batchSize][outputSize].
+     * @return The error averaged over the samples of the batch.
+     * @throws IllegalArgumentException if the batch is larger than the configured maximum,
+     *                                  the number of inputs and targets differ or the network is
+     *                                  double precision.
+     */
+    public double trainBatch(float[][] inputs, double[][] expectedOutputs) {
+        currentInputs32 = inputs;
+        return trainCurrentBatch(inputs.length, expectedOutputs);
+    }
+
+    /**
+     * Trains the network on the batch whose inputs were stored in {@link #currentInputs} or
+     * {@link #currentInputs32}.
+     */
+    private double trainCurrentBatch(int batchSize, double[][] expectedOutputs) {
+        try {
+            if (batchSize != expectedOutputs.length) {
+                throw new IllegalArgumentException("Batch has " + batchSize + " inputs but " + expectedOutputs.length + " targets.");
+            }
+            if (batchSize > workspaces[0].capacity * threadCount) {
+                throw new IllegalArgumentException("Batch size " + batchSize + " exceeds the configured maximum.");
+            }
+            if (batchSize == 0) {
+                return 0.0;
+            }
+
+            currentTargets = expectedOutputs;
+            currentBatchSize = batchSize;
+            runAll(sliceTasks);
+            long start = Telemetry.start();
+            reduceGradients();
+            Telemetry.stop(Telemetry.Phase.REDUCE, start);
+        } finally {
+            currentInputs = null;
+            currentInputs32 = null;
+            currentTargets = null;
+        }
+
+        network.applyStep(optimizer, workspaces[0], 1.0 / batchSize);
+        Telemetry.addSamples(batchSize);
+
+        double batchError = 0.0;
+        for (double error : sliceErrors) {
+            batchError += error;
+        }
+        return batchError / batchSize;
+    }
+
+    /**
+     * Computes the gradients of one worker's slice of the current batch.
+     *
+     * @param worker The index of the worker (and of its slice).
+     * @return Always {@code null}; the error is stored in {@link #sliceErrors}.
+     */
+    private Double trainSlice(int worker) {
+        int sliceSize = (currentBatchSize + threadCount - 1) / threadCount;
+        int from = Math.min(worker * sliceSize, currentBatchSize);
+        int to = Math.min(from + sliceSize, currentBatchSize);
+
+        BatchWorkspace workspace = workspaces[worker];
+        workspace.clearGradients();
+        if (from >= to) {
+            sliceErrors[worker] = 0.0;
+        } else if (currentInputs32 != null) {
+            sliceErrors[worker] = network.accumulateGradients(currentInputs32, currentTargets, from, to, workspace);
+        } else {
+            sliceErrors[worker] = network.accumulateGradients(currentInputs, currentTargets, from, to, workspace);
+        }
+        return null;
+    }
+
+    /**
+     * Sums all worker gradients into the first workspace.
+     * <p>
+     * At each level, workspace {@code i} absorbs workspace {@code i + stride}; the pairs of
+     * one level are independent and are reduced in parallel.
+     */
+    private void reduceGradients() {
+        for (List<Callable<Object>> level : reductionLevels) {
+            if (level.size() == 1) {
+                runInline(level.get(0));
+            } else {
+                runAll(level);
+            }
+        }
+    }
+
+    /**
+     * Builds the pairwise reduction tasks for every level of the tree.
+     *
+     * @return The tasks of each level, from the leaves to the root.
+     */
+    private List<List<Callable<Object>>> createReductionLevels() {
+        List<List<Callable<Object>>> levels = new ArrayList<>();
+        for (int stride = 1; stride < threadCount; stride *= 2) {
+            List<Callable<Object>> pairs = new ArrayList<>();
+            for (int i = 0; i + stride < threadCount; i += 2 * stride) {
+                BatchWorkspace target = workspaces[i];
+                BatchWorkspace source = workspaces[i + stride];
+                pairs.add(() -> {
+                    target.addGradients(source);
+                    return null;
+                });
+            }
+            levels.add(pairs);
+        }
+        return levels;
+    }
+
+    /**
+     * Runs a single task on the calling thread.
+     *
+     * @param task The task to run.
+     */
+    private static void runInline(Callable<Object> task) {
+        try {
+            task.call();
+        } catch (Exception e) {
+            throw new IllegalStateException("Training worker failed", e);
+        }
+    }
+
+    /**
+     * Runs the given tasks on the worker pool, waits for all of them and rethrows
+     * the first failure.
+     *
+     * @param tasks The tasks to run.
+     */
+    private <T> void runAll(List<Callable<T>> tasks) {
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Training worker failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
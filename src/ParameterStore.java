@@ -0,0 +1,65 @@
+/**
+ * Contiguous storage for all trainable parameters of a network.
+ * <p>
+ * The weight matrices of all layers come first (each one row-major, [outputSize][inputSize]),
+ * followed by the bias vectors of all layers. A {@link Layer} only records where its weights
+ * and biases start. Gradient buffers and optimizer state use the same layout, so the same
+ * offset addresses a parameter, its gradient and its optimizer state. Optimizer steps become
+ * linear sweeps over a few flat arrays instead of walking nested row arrays.
+ */
+public class ParameterStore {
+
+    /**
+     * All weights followed by all biases, or {@code null} if the store is single precision.
+     */
+    public final double[] parameters;
+
+    /**
+     * All weights followed by all biases, or {@code null} if the store is double precision.
+     */
+    public final float[] parameters32;
+
+    /**
+     * The number of weights. Entries [0, weightCount) are weights, the rest are biases.
+     */
+    public final int weightCount;
+
+    /**
+     * The total number of parameters (weights and biases).
+     */
+    public final int size;
+
+    /**
+     * Allocates zeroed storage for the given number of weights and biases.
+     *
+     * @param weightCount The total number of weights of all layers.
+     * @param biasCount   The total number of biases of all layers.
+     */
+    public ParameterStore(int weightCount, int biasCount) {
+        this(weightCount, biasCount, Precision.FLOAT64);
+    }
+
+    /**
+     * Allocates zeroed storage of the given precision for the given number of weights and biases.
+     *
+     * @param weightCount The total number of weights of all layers.
+     * @param biasCount   The total number of biases of all layers.
+     * @param precision   The precision of the parameters; only the matching array is allocated.
+     */
+    public ParameterStore(int weightCount, int biasCount, Precision precision) {
+        this.weightCount = weightCount;
+        this.size = weightCount + biasCount;
+        boolean single = precision == Precision.FLOAT32;
+        this.parameters = single ? null : new double[size];
+        this.parameters32 = single ? new float[size] : null;
+    }
+
+    /**
+     * Returns the precision of the parameters.
+     *
+     * @return FLOAT32 if the parameters are stored as floats, FLOAT64 otherwise.
+     */
+    public Precision precision() {
+        return parameters32 != null ? Precision.FLOAT32 : Precision.FLOAT64;
+    }
+}
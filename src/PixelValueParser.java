@@ -0,0 +1,77 @@
+/**
+ * Accumulates the digits of one pixel value (0-255) of a comma-separated line, one byte at a time.
+ * <p>
+ * Shared by the CSV reader ({@link DataReader}) and the request parser of the {@link InferenceServer}.
+ * Spaces and carriage returns may surround a value, but not split it: once a space has followed
+ * the digits of a value, another digit is rejected, so {@code "1 2"} is not read as 12. The caller
+ * handles the delimiters and calls {@link #reset()} after consuming each value.
+ * <p>
+ * Instances are mutable and must not be shared between threads.
+ */
+final class PixelValueParser {
+
+    private int value;
+    private boolean hasDigits;
+    //Whether a space followed the digits, which ends the value
+    private boolean ended;
+
+    /**
+     * Feeds one byte that is not a delimiter.
+     *
+     * @param b The byte to consume.
+     * @return {@code false} if the byte is neither a digit nor a space, or is a digit after the
+     * space that ended the value.
+     */
+    boolean accept(byte b) {
+        if (b >= '0' && b <= '9') {
+            if (ended) {
+                return false;
+            }
+            //Capped so absurdly long numbers cannot overflow into the valid range
+            value = Math.min(value * 10 + (b - '0'), 256);
+            hasDigits = true;
+            return true;
+        }
+        if (b == ' ' || b == '\r') {
+            ended = hasDigits;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether any digit has been consumed since the last {@link #reset()}.
+     *
+     * @return {@code true} if a value has started.
+     */
+    boolean hasDigits() {
+        return hasDigits;
+    }
+
+    /**
+     * Returns whether the consumed digits form a pixel value.
+     *
+     * @return {@code true} if there was at least one digit and the value is at most 255.
+     */
+    boolean isValid() {
+        return hasDigits && value <= 255;
+    }
+
+    /**
+     * Returns the value of the consumed digits.
+     *
+     * @return The pixel value, only meaningful if {@link #isValid()}.
+     */
+    int value() {
+        return value;
+    }
+
+    /**
+     * Clears the state before the next value.
+     */
+    void reset() {
+        value = 0;
+        hasDigits = false;
+        ended = false;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Numeric precision of a {@link NeuralNetwork} or of the state of an {@link Optimizer}.
+ * <p>
+ * A FLOAT32 network keeps its parameters, activations, errors and gradients in single
+ * precision and runs the single-precision kernels of the {@link KernelBackend}: half the
+ * bytes per weight and twice the lanes per SIMD vector. Its optimizer state is single
+ * precision too. A FLOAT64 network can still keep only its optimizer state (momentum
+ * velocities and Adam moments) in single precision, which halves the footprint of the state
+ * and the bytes streamed by every optimizer step.
+ */
+public enum Precision {
+
+    /**
+     * 64-bit IEEE 754 floating point (Java {@code double}).
+     */
+    FLOAT64,
+
+    /**
+     * 32-bit IEEE 754 floating point (Java {@code float}).
+     */
+    FLOAT32
+}
@@ -0,0 +1,249 @@
+/**
+ * Portable {@link KernelBackend} built from plain Java loops.
+ * <p>
+ * Used when the Vector API is not available (or disabled with {@code -Dnn.simd=false}).
+ * The loops are written so the JIT can still unroll and partly vectorize them.
+ */
+public final class ScalarKernels implements KernelBackend {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double wideDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += (double) a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public double sparseDot(double[] a, int aOffset, int[] indices, double[] values, int count) {
+        double sum = 0;
+        for (int t = 0; t < count; t++) {
+            sum += a[aOffset + indices[t]] * values[t];
+        }
+        return sum;
+    }
+
+    @Override
+    public void sparseAxpy(double alpha, int[] indices, double[] values, int count, double[] y, int yOffset) {
+        for (int t = 0; t < count; t++) {
+            y[yOffset + indices[t]] += alpha * values[t];
+        }
+    }
+
+    @Override
+    public double sparseDensityThreshold() {
+        //The dense dot product is a serial chain of additions here, so skipping zeros wins early
+        return 0.5;
+    }
+
+    @Override
+    public void add(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i++) {
+            result[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void multiply(double[] a, double[] b, double[] result, int length) {
+        for (int i = 0; i < length; i++) {
+            result[i] = a[i] * b[i];
+        }
+    }
+
+    @Override
+    public void leakyRelu(double[] values, int length) {
+        for (int i = 0; i < length; i++) {
+            values[i] = MathUtils.leakyRelu(values[i]);
+        }
+    }
+
+    @Override
+    public void addBias(double[] values, double[] biases, int biasOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            values[i] += biases[biasOffset + i];
+        }
+    }
+
+    @Override
+    public void addBiasLeakyRelu(double[] values, double[] biases, int biasOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            values[i] = MathUtils.leakyRelu(values[i] + biases[biasOffset + i]);
+        }
+    }
+
+    @Override
+    public void addBias(float[] values, float[] biases, int biasOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            values[i] += biases[biasOffset + i];
+        }
+    }
+
+    @Override
+    public void addBiasLeakyRelu(float[] values, float[] biases, int biasOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            float value = values[i] + biases[biasOffset + i];
+            values[i] = value > 0 ? value : 0.01f * value;
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] parameters, double[] m, double[] v, int offset, int length,
+                           double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                           double parameterScale, double beta1, double beta2, double stepSize,
+                           double correctionScale, double epsilon) {
+        for (int i = 0; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+
+            double mNew = beta1 * m[index] + (1 - beta1) * gradient;
+            double vNew = beta2 * v[index] + (1 - beta2) * (gradient * gradient);
+            m[index] = mNew;
+            v[index] = vNew;
+
+            parameters[index] = parameterScale * parameters[index]
+                    - stepSize * mNew / (Math.sqrt(vNew) * correctionScale + epsilon);
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] parameters, float[] m, float[] v, int offset, int length,
+                           double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                           double parameterScale, double beta1, double beta2, double stepSize,
+                           double correctionScale, double epsilon) {
+        for (int i = 0; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+
+            double mNew = beta1 * m[index] + (1 - beta1) * gradient;
+            double vNew = beta2 * v[index] + (1 - beta2) * (gradient * gradient);
+            m[index] = (float) mNew;
+            v[index] = (float) vNew;
+
+            parameters[index] = parameterScale * parameters[index]
+                    - stepSize * mNew / (Math.sqrt(vNew) * correctionScale + epsilon);
+        }
+    }
+
+    @Override
+    public void momentumUpdate(double[] parameters, double[] velocities, int offset, int length,
+                               double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                               double momentum, double learningRate) {
+        for (int i = 0; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+            double velocity = (velocities[index] * momentum) - (learningRate * gradient);
+            parameters[index] += velocity;
+            velocities[index] = velocity;
+        }
+    }
+
+    @Override
+    public void momentumUpdate(double[] parameters, float[] velocities, int offset, int length,
+                               double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                               double momentum, double learningRate) {
+        for (int i = 0; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+            double velocity = (velocities[index] * momentum) - (learningRate * gradient);
+            parameters[index] += velocity;
+            velocities[index] = (float) velocity;
+        }
+    }
+
+    @Override
+    public void adamUpdate(float[] parameters, float[] m, float[] v, int offset, int length,
+                           float[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                           double parameterScale, double beta1, double beta2, double stepSize,
+                           double correctionScale, double epsilon) {
+        float scale = (float) gradientScale;
+        float decay32 = (float) decay;
+        float parameterScale32 = (float) parameterScale;
+        float beta1_32 = (float) beta1;
+        float beta2_32 = (float) beta2;
+        float stepSize32 = (float) stepSize;
+        float correctionScale32 = (float) correctionScale;
+        float epsilon32 = (float) epsilon;
+        for (int i = 0; i < length; i++) {
+            int index = offset + i;
+            float gradient = gradientSource[sourceOffset + i] * scale;
+            gradient += decay32 * parameters[index];
+
+            float mNew = beta1_32 * m[index] + (1 - beta1_32) * gradient;
+            float vNew = beta2_32 * v[index] + (1 - beta2_32) * (gradient * gradient);
+            m[index] = mNew;
+            v[index] = vNew;
+
+            parameters[index] = parameterScale32 * parameters[index]
+                    - stepSize32 * mNew / ((float) Math.sqrt(vNew) * correctionScale32 + epsilon32);
+        }
+    }
+
+    @Override
+    public void momentumUpdate(float[] parameters, float[] velocities, int offset, int length,
+                               float[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                               double momentum, double learningRate) {
+        float scale = (float) gradientScale;
+        float decay32 = (float) decay;
+        float momentum32 = (float) momentum;
+        float learningRate32 = (float) learningRate;
+        for (int i = 0; i < length; i++) {
+            int index = offset + i;
+            float gradient = gradientSource[sourceOffset + i] * scale;
+            gradient += decay32 * parameters[index];
+            float velocity = (velocities[index] * momentum32) - (learningRate32 * gradient);
+            parameters[index] += velocity;
+            velocities[index] = velocity;
+        }
+    }
+}
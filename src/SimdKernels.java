@@ -0,0 +1,532 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link KernelBackend} using explicit SIMD through the incubating Vector API.
+ * <p>
+ * Uses the widest vector shape of the CPU (4 doubles with AVX2, 8 with AVX-512, and twice as
+ * many floats for the single-precision kernels). The dot
+ * product keeps two independent vector accumulators so consecutive fused multiply-adds do
+ * not wait on each other. Every loop finishes the remaining tail elements with scalar code.
+ * <p>
+ * This class requires {@code --add-modules jdk.incubator.vector} both when compiling and
+ * when running. {@link MathUtils} only loads it when the module is present.
+ */
+public final class SimdKernels implements KernelBackend {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    //Widest float species, used by the single-precision network kernels
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    //Float species with the same lane count, used to widen and narrow single-precision state
+    private static final VectorSpecies<Float> HALF_FLOAT_SPECIES =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    //Widest int species, and the byte species with the same lane count that widens into it
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> QUARTER_BYTE_SPECIES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(INT_SPECIES.vectorBitSize() / 4));
+
+    @Override
+    public String name() {
+        return "simd (" + SPECIES.length() + " x double, " + FLOAT_SPECIES.length() + " x float)";
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        int step = SPECIES.length();
+        DoubleVector sum0 = DoubleVector.zero(SPECIES);
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+
+        int i = 0;
+        for (; i + 2 * step <= length; i += 2 * step) {
+            DoubleVector a0 = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector b0 = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            DoubleVector a1 = DoubleVector.fromArray(SPECIES, a, aOffset + i + step);
+            DoubleVector b1 = DoubleVector.fromArray(SPECIES, b, bOffset + i + step);
+            sum0 = a0.fma(b0, sum0);
+            sum1 = a1.fma(b1, sum1);
+        }
+        for (; i + step <= length; i += step) {
+            DoubleVector a0 = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector b0 = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum0 = a0.fma(b0, sum0);
+        }
+
+        double sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector xs = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector ys = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            xs.fma(scale, ys).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        IntVector sum = IntVector.zero(INT_SPECIES);
+        int i = 0;
+        int bound = QUARTER_BYTE_SPECIES.loopBound(length);
+        for (; i < bound; i += QUARTER_BYTE_SPECIES.length()) {
+            IntVector as = (IntVector) ByteVector.fromArray(QUARTER_BYTE_SPECIES, a, aOffset + i)
+                    .convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+            IntVector bs = (IntVector) ByteVector.fromArray(QUARTER_BYTE_SPECIES, b, bOffset + i)
+                    .convertShape(VectorOperators.B2I, INT_SPECIES, 0);
+            sum = as.mul(bs).add(sum);
+        }
+        int result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int step = FLOAT_SPECIES.length();
+        FloatVector sum0 = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector sum1 = FloatVector.zero(FLOAT_SPECIES);
+
+        int i = 0;
+        for (; i + 2 * step <= length; i += 2 * step) {
+            FloatVector a0 = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+            FloatVector b0 = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+            FloatVector a1 = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i + step);
+            FloatVector b1 = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i + step);
+            sum0 = a0.fma(b0, sum0);
+            sum1 = a1.fma(b1, sum1);
+        }
+        for (; i + step <= length; i += step) {
+            FloatVector a0 = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+            FloatVector b0 = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+            sum0 = a0.fma(b0, sum0);
+        }
+
+        float sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double wideDot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int step = SPECIES.length();
+        DoubleVector sum0 = DoubleVector.zero(SPECIES);
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+
+        int i = 0;
+        for (; i + 2 * step <= length; i += 2 * step) {
+            sum0 = widen(a, aOffset + i).fma(widen(b, bOffset + i), sum0);
+            sum1 = widen(a, aOffset + i + step).fma(widen(b, bOffset + i + step), sum1);
+        }
+        for (; i + step <= length; i += step) {
+            sum0 = widen(a, aOffset + i).fma(widen(b, bOffset + i), sum0);
+        }
+
+        double sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += (double) a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector scale = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector xs = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            FloatVector ys = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+            xs.fma(scale, ys).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Uses a plain loop: the gathering loads of the Vector API ({@code fromArray} with an index
+     * map) crash the C2 compiler of JDK 17.
+     */
+    @Override
+    public double sparseDot(double[] a, int aOffset, int[] indices, double[] values, int count) {
+        double sum = 0;
+        for (int t = 0; t < count; t++) {
+            sum += a[aOffset + indices[t]] * values[t];
+        }
+        return sum;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Uses a plain loop, like {@link #sparseDot}.
+     */
+    @Override
+    public void sparseAxpy(double alpha, int[] indices, double[] values, int count, double[] y, int yOffset) {
+        for (int t = 0; t < count; t++) {
+            y[yOffset + indices[t]] += alpha * values[t];
+        }
+    }
+
+    @Override
+    public double sparseDensityThreshold() {
+        //Scalar indexed loops only beat full-width contiguous vectors when most columns are skipped
+        return 0.1;
+    }
+
+    @Override
+    public void add(double[] a, double[] b, double[] result, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector as = DoubleVector.fromArray(SPECIES, a, i);
+            DoubleVector bs = DoubleVector.fromArray(SPECIES, b, i);
+            as.add(bs).intoArray(result, i);
+        }
+        for (; i < length; i++) {
+            result[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void multiply(double[] a, double[] b, double[] result, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector as = DoubleVector.fromArray(SPECIES, a, i);
+            DoubleVector bs = DoubleVector.fromArray(SPECIES, b, i);
+            as.mul(bs).intoArray(result, i);
+        }
+        for (; i < length; i++) {
+            result[i] = a[i] * b[i];
+        }
+    }
+
+    @Override
+    public void leakyRelu(double[] values, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector xs = DoubleVector.fromArray(SPECIES, values, i);
+            VectorMask<Double> positive = xs.compare(VectorOperators.GT, 0.0);
+            xs.mul(0.01).blend(xs, positive).intoArray(values, i);
+        }
+        for (; i < length; i++) {
+            values[i] = MathUtils.leakyRelu(values[i]);
+        }
+    }
+
+    @Override
+    public void addBias(double[] values, double[] biases, int biasOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, values, i)
+                    .add(DoubleVector.fromArray(SPECIES, biases, biasOffset + i))
+                    .intoArray(values, i);
+        }
+        for (; i < length; i++) {
+            values[i] += biases[biasOffset + i];
+        }
+    }
+
+    @Override
+    public void addBiasLeakyRelu(double[] values, double[] biases, int biasOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector xs = DoubleVector.fromArray(SPECIES, values, i)
+                    .add(DoubleVector.fromArray(SPECIES, biases, biasOffset + i));
+            VectorMask<Double> positive = xs.compare(VectorOperators.GT, 0.0);
+            xs.mul(0.01).blend(xs, positive).intoArray(values, i);
+        }
+        for (; i < length; i++) {
+            values[i] = MathUtils.leakyRelu(values[i] + biases[biasOffset + i]);
+        }
+    }
+
+    @Override
+    public void addBias(float[] values, float[] biases, int biasOffset, int length) {
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, values, i)
+                    .add(FloatVector.fromArray(FLOAT_SPECIES, biases, biasOffset + i))
+                    .intoArray(values, i);
+        }
+        for (; i < length; i++) {
+            values[i] += biases[biasOffset + i];
+        }
+    }
+
+    @Override
+    public void addBiasLeakyRelu(float[] values, float[] biases, int biasOffset, int length) {
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector xs = FloatVector.fromArray(FLOAT_SPECIES, values, i)
+                    .add(FloatVector.fromArray(FLOAT_SPECIES, biases, biasOffset + i));
+            VectorMask<Float> positive = xs.compare(VectorOperators.GT, 0.0f);
+            xs.mul(0.01f).blend(xs, positive).intoArray(values, i);
+        }
+        for (; i < length; i++) {
+            float value = values[i] + biases[biasOffset + i];
+            values[i] = value > 0 ? value : 0.01f * value;
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] parameters, double[] m, double[] v, int offset, int length,
+                           double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                           double parameterScale, double beta1, double beta2, double stepSize,
+                           double correctionScale, double epsilon) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            int index = offset + i;
+            DoubleVector p = DoubleVector.fromArray(SPECIES, parameters, index);
+            DoubleVector gradient = DoubleVector.fromArray(SPECIES, gradientSource, sourceOffset + i)
+                    .mul(gradientScale)
+                    .add(p.mul(decay));
+
+            DoubleVector ms = DoubleVector.fromArray(SPECIES, m, index).mul(beta1)
+                    .add(gradient.mul(1 - beta1));
+            DoubleVector vs = DoubleVector.fromArray(SPECIES, v, index).mul(beta2)
+                    .add(gradient.mul(gradient).mul(1 - beta2));
+            ms.intoArray(m, index);
+            vs.intoArray(v, index);
+
+            DoubleVector denominator = vs.sqrt().fma(correctionScale, epsilon);
+            p.mul(parameterScale).sub(ms.mul(stepSize).div(denominator)).intoArray(parameters, index);
+        }
+        for (; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+
+            double mNew = beta1 * m[index] + (1 - beta1) * gradient;
+            double vNew = beta2 * v[index] + (1 - beta2) * (gradient * gradient);
+            m[index] = mNew;
+            v[index] = vNew;
+
+            parameters[index] = parameterScale * parameters[index]
+                    - stepSize * mNew / (Math.sqrt(vNew) * correctionScale + epsilon);
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] parameters, float[] m, float[] v, int offset, int length,
+                           double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                           double parameterScale, double beta1, double beta2, double stepSize,
+                           double correctionScale, double epsilon) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            int index = offset + i;
+            DoubleVector p = DoubleVector.fromArray(SPECIES, parameters, index);
+            DoubleVector gradient = DoubleVector.fromArray(SPECIES, gradientSource, sourceOffset + i)
+                    .mul(gradientScale)
+                    .add(p.mul(decay));
+
+            DoubleVector ms = widen(m, index).mul(beta1).add(gradient.mul(1 - beta1));
+            DoubleVector vs = widen(v, index).mul(beta2).add(gradient.mul(gradient).mul(1 - beta2));
+            narrow(ms, m, index);
+            narrow(vs, v, index);
+
+            DoubleVector denominator = vs.sqrt().fma(correctionScale, epsilon);
+            p.mul(parameterScale).sub(ms.mul(stepSize).div(denominator)).intoArray(parameters, index);
+        }
+        for (; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+
+            double mNew = beta1 * m[index] + (1 - beta1) * gradient;
+            double vNew = beta2 * v[index] + (1 - beta2) * (gradient * gradient);
+            m[index] = (float) mNew;
+            v[index] = (float) vNew;
+
+            parameters[index] = parameterScale * parameters[index]
+                    - stepSize * mNew / (Math.sqrt(vNew) * correctionScale + epsilon);
+        }
+    }
+
+    @Override
+    public void momentumUpdate(double[] parameters, double[] velocities, int offset, int length,
+                               double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                               double momentum, double learningRate) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            int index = offset + i;
+            DoubleVector p = DoubleVector.fromArray(SPECIES, parameters, index);
+            DoubleVector gradient = DoubleVector.fromArray(SPECIES, gradientSource, sourceOffset + i)
+                    .mul(gradientScale)
+                    .add(p.mul(decay));
+            DoubleVector velocity = DoubleVector.fromArray(SPECIES, velocities, index).mul(momentum)
+                    .sub(gradient.mul(learningRate));
+            p.add(velocity).intoArray(parameters, index);
+            velocity.intoArray(velocities, index);
+        }
+        for (; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+            double velocity = (velocities[index] * momentum) - (learningRate * gradient);
+            parameters[index] += velocity;
+            velocities[index] = velocity;
+        }
+    }
+
+    @Override
+    public void momentumUpdate(double[] parameters, float[] velocities, int offset, int length,
+                               double[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                               double momentum, double learningRate) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            int index = offset + i;
+            DoubleVector p = DoubleVector.fromArray(SPECIES, parameters, index);
+            DoubleVector gradient = DoubleVector.fromArray(SPECIES, gradientSource, sourceOffset + i)
+                    .mul(gradientScale)
+                    .add(p.mul(decay));
+            DoubleVector velocity = widen(velocities, index).mul(momentum).sub(gradient.mul(learningRate));
+            p.add(velocity).intoArray(parameters, index);
+            narrow(velocity, velocities, index);
+        }
+        for (; i < length; i++) {
+            int index = offset + i;
+            double gradient = gradientSource[sourceOffset + i] * gradientScale;
+            gradient += decay * parameters[index];
+            double velocity = (velocities[index] * momentum) - (learningRate * gradient);
+            parameters[index] += velocity;
+            velocities[index] = (float) velocity;
+        }
+    }
+
+    @Override
+    public void adamUpdate(float[] parameters, float[] m, float[] v, int offset, int length,
+                           float[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                           double parameterScale, double beta1, double beta2, double stepSize,
+                           double correctionScale, double epsilon) {
+        float scale = (float) gradientScale;
+        float decay32 = (float) decay;
+        float parameterScale32 = (float) parameterScale;
+        float beta1_32 = (float) beta1;
+        float beta2_32 = (float) beta2;
+        float stepSize32 = (float) stepSize;
+        float correctionScale32 = (float) correctionScale;
+        float epsilon32 = (float) epsilon;
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            int index = offset + i;
+            FloatVector p = FloatVector.fromArray(FLOAT_SPECIES, parameters, index);
+            FloatVector gradient = FloatVector.fromArray(FLOAT_SPECIES, gradientSource, sourceOffset + i)
+                    .mul(scale)
+                    .add(p.mul(decay32));
+
+            FloatVector ms = FloatVector.fromArray(FLOAT_SPECIES, m, index).mul(beta1_32)
+                    .add(gradient.mul(1 - beta1_32));
+            FloatVector vs = FloatVector.fromArray(FLOAT_SPECIES, v, index).mul(beta2_32)
+                    .add(gradient.mul(gradient).mul(1 - beta2_32));
+            ms.intoArray(m, index);
+            vs.intoArray(v, index);
+
+            FloatVector denominator = vs.sqrt().fma(correctionScale32, epsilon32);
+            p.mul(parameterScale32).sub(ms.mul(stepSize32).div(denominator)).intoArray(parameters, index);
+        }
+        for (; i < length; i++) {
+            int index = offset + i;
+            float gradient = gradientSource[sourceOffset + i] * scale;
+            gradient += decay32 * parameters[index];
+
+            float mNew = beta1_32 * m[index] + (1 - beta1_32) * gradient;
+            float vNew = beta2_32 * v[index] + (1 - beta2_32) * (gradient * gradient);
+            m[index] = mNew;
+            v[index] = vNew;
+
+            parameters[index] = parameterScale32 * parameters[index]
+                    - stepSize32 * mNew / ((float) Math.sqrt(vNew) * correctionScale32 + epsilon32);
+        }
+    }
+
+    @Override
+    public void momentumUpdate(float[] parameters, float[] velocities, int offset, int length,
+                               float[] gradientSource, int sourceOffset, double gradientScale, double decay,
+                               double momentum, double learningRate) {
+        float scale = (float) gradientScale;
+        float decay32 = (float) decay;
+        float momentum32 = (float) momentum;
+        float learningRate32 = (float) learningRate;
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            int index = offset + i;
+            FloatVector p = FloatVector.fromArray(FLOAT_SPECIES, parameters, index);
+            FloatVector gradient = FloatVector.fromArray(FLOAT_SPECIES, gradientSource, sourceOffset + i)
+                    .mul(scale)
+                    .add(p.mul(decay32));
+            FloatVector velocity = FloatVector.fromArray(FLOAT_SPECIES, velocities, index).mul(momentum32)
+                    .sub(gradient.mul(learningRate32));
+            p.add(velocity).intoArray(parameters, index);
+            velocity.intoArray(velocities, index);
+        }
+        for (; i < length; i++) {
+            int index = offset + i;
+            float gradient = gradientSource[sourceOffset + i] * scale;
+            gradient += decay32 * parameters[index];
+            float velocity = (velocities[index] * momentum32) - (learningRate32 * gradient);
+            parameters[index] += velocity;
+            velocities[index] = velocity;
+        }
+    }
+
+    /**
+     * Loads single-precision values and widens them to a double vector.
+     *
+     * @param values The array to read from.
+     * @param index  The index of the first element.
+     * @return The widened values.
+     */
+    private static DoubleVector widen(float[] values, int index) {
+        return (DoubleVector) FloatVector.fromArray(HALF_FLOAT_SPECIES, values, index)
+                .convertShape(VectorOperators.F2D, SPECIES, 0);
+    }
+
+    /**
+     * Narrows a double vector to single precision and stores it.
+     *
+     * @param vector The values to store.
+     * @param values The array to write to.
+     * @param index  The index of the first element.
+     */
+    private static void narrow(DoubleVector vector, float[] values, int index) {
+        ((FloatVector) vector.convertShape(VectorOperators.D2F, HALF_FLOAT_SPECIES, 0)).intoArray(values, index);
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * A sparse copy of an input vector: the indices and values of its nonzero elements.
+ * <p>
+ * Fashion-MNIST images are roughly half background, and the background pixels normalize to
+ * exactly zero. Multiplying the first weight matrix by the sparse form skips those columns
+ * entirely, both in the forward product and in the weight gradient. The buffers are sized
+ * for a fully dense vector once and then refilled with {@link #set(double[])}, so converting
+ * a sample does not allocate.
+ * <p>
+ * Instances are mutable and must not be shared between threads.
+ */
+public final class SparseInput {
+
+    /**
+     * The indices of the nonzero elements, in ascending order. Only the first {@link #nonZeros} are valid.
+     */
+    public final int[] indices;
+
+    /**
+     * The values of the nonzero elements, matching {@link #indices}.
+     */
+    public final double[] values;
+
+    /**
+     * The number of nonzero elements.
+     */
+    public int nonZeros;
+
+    /**
+     * The length of the dense vector.
+     */
+    public int length;
+
+    /**
+     * Allocates the buffers for vectors of up to {@code capacity} elements.
+     *
+     * @param capacity The maximum length of the dense vectors.
+     */
+    public SparseInput(int capacity) {
+        this.indices = new int[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Creates the sparse form of a dense vector.
+     *
+     * @param dense The dense vector.
+     * @return A new sparse vector holding the nonzero elements of {@code dense}.
+     */
+    public static SparseInput of(double[] dense) {
+        SparseInput sparse = new SparseInput(dense.length);
+        sparse.set(dense);
+        return sparse;
+    }
+
+    /**
+     * Replaces the contents with the nonzero elements of a dense vector.
+     *
+     * @param dense The dense vector, at most as long as the capacity.
+     * @return This sparse vector.
+     * @throws IllegalArgumentException if the vector is longer than the capacity.
+     */
+    public SparseInput set(double[] dense) {
+        if (dense.length > indices.length) {
+            throw new IllegalArgumentException("Vector of length " + dense.length + " exceeds the capacity "
+                    + indices.length + ".");
+        }
+        int count = 0;
+        for (int i = 0; i < dense.length; i++) {
+            double value = dense[i];
+            if (value != 0.0) {
+                indices[count] = i;
+                values[count] = value;
+                count++;
+            }
+        }
+        this.nonZeros = count;
+        this.length = dense.length;
+        return this;
+    }
+
+    /**
+     * Replaces the contents with the nonzero elements of a dense vector, unless it has more than
+     * {@code maxNonZeros} of them.
+     * <p>
+     * The scan stops at the first nonzero element over the limit, so finding out that a dense
+     * vector should not take the sparse kernels costs only part of a full {@link #set(double[])}.
+     *
+     * @param dense       The dense vector, at most as long as the capacity.
+     * @param maxNonZeros The largest number of nonzero elements accepted (negative to reject every vector).
+     * @return {@code true} if the vector has at most {@code maxNonZeros} nonzero elements, which this
+     * sparse vector then holds; {@code false} otherwise, leaving the contents incomplete.
+     * @throws IllegalArgumentException if the vector is longer than the capacity.
+     */
+    public boolean setIfSparse(double[] dense, long maxNonZeros) {
+        if (dense.length > indices.length) {
+            throw new IllegalArgumentException("Vector of length " + dense.length + " exceeds the capacity "
+                    + indices.length + ".");
+        }
+        this.length = dense.length;
+        this.nonZeros = 0;
+        if (maxNonZeros < 0) {
+            return false;
+        }
+        int limit = (int) Math.min(maxNonZeros, dense.length);
+        int count = 0;
+        for (int i = 0; i < dense.length; i++) {
+            double value = dense[i];
+            if (value != 0.0) {
+                if (count == limit) {
+                    this.nonZeros = count;
+                    return false;
+                }
+                indices[count] = i;
+                values[count] = value;
+                count++;
+            }
+        }
+        this.nonZeros = count;
+        return true;
+    }
+
+    /**
+     * Returns the fraction of nonzero elements.
+     *
+     * @return {@code nonZeros / length}, or 0 for an empty vector.
+     */
+    public double density() {
+        return length == 0 ? 0.0 : (double) nonZeros / length;
+    }
+}
@@ -0,0 +1,338 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lightweight training instrumentation: per-phase timers, throughput, allocation and GC metrics.
+ * <p>
+ * Enabled with {@code -Dnn.telemetry=true}. The switch is a {@code static final} constant, so
+ * when telemetry is disabled the JIT removes the timing calls entirely and the instrumented
+ * code runs as if they were not there. Instrumented code brackets a phase like this:
+ * <pre>
+ *   long start = Telemetry.start();
+ *   ...
+ *   Telemetry.stop(Telemetry.Phase.FORWARD, start);
+ * </pre>
+ * Every phase records its durations in a nanosecond {@link LatencyHistogram}; recording is
+ * lock-free, so worker threads may report concurrently. {@link #endEpoch(int)} appends a
+ * summary of the epoch as one JSON line to {@code telemetry.jsonl} (or the file given by
+ * {@code -Dnn.telemetry.file}) and starts a new epoch. The summary holds the samples per
+ * second, the count, total and p50/p99 duration of every phase, the collections and GC time
+ * of the epoch, and the bytes allocated by every live thread, grouped by thread name.
+ * <p>
+ * For deep dives, every phase and epoch is also emitted as a JFR event ({@code nn.Phase} and
+ * {@code nn.Epoch}) while a flight recording with these events enabled is running.
+ */
+public final class Telemetry {
+
+    /**
+     * Whether telemetry is collected, from the {@code nn.telemetry} system property.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("nn.telemetry");
+
+    /**
+     * The instrumented phases of training.
+     */
+    public enum Phase {
+        /** Waiting for the next batch of decoded samples. */
+        DATA,
+        /** Forward passes through the network. */
+        FORWARD,
+        /** Backpropagation of the errors and gradient accumulation. */
+        BACKWARD,
+        /** Summing the gradients of parallel workers. */
+        REDUCE,
+        /** Optimizer updates of the parameters. */
+        UPDATE,
+        /** Evaluation of the validation set. */
+        VALIDATION;
+
+        private final LatencyHistogram durations = new LatencyHistogram(TimeUnit.NANOSECONDS);
+        private final LongAdder totalNanos = new LongAdder();
+
+        private String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @Name("nn.Phase")
+    @Label("Training Phase")
+    @Category("Neural Network")
+    @Description("One timed phase of training")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("nn.Epoch")
+    @Label("Training Epoch")
+    @Category("Neural Network")
+    @Description("Summary of one training epoch")
+    static final class EpochEvent extends Event {
+        @Label("Epoch")
+        int epoch;
+
+        @Label("Samples")
+        long samples;
+
+        @Label("Samples per Second")
+        double samplesPerSecond;
+
+        @Label("GC Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long gcMillis;
+
+        @Label("Allocated Bytes")
+        long allocatedBytes;
+    }
+
+    private static final EventType PHASE_EVENT = EventType.getEventType(PhaseEvent.class);
+
+    private static final LongAdder samples = new LongAdder();
+
+    //Epoch baselines, only touched by endEpoch
+    private static long epochStartNanos = System.nanoTime();
+    private static long gcCountBaseline;
+    private static long gcMillisBaseline;
+    private static final Map<Long, Long> allocatedBaseline = new HashMap<>();
+
+    static {
+        reset();
+    }
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private Telemetry() {
+    }
+
+    /**
+     * Marks the start of a phase.
+     *
+     * @return The start timestamp to pass to {@link #stop}, or 0 if telemetry is disabled.
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records the duration of a phase started with {@link #start()}.
+     *
+     * @param phase The phase that ended.
+     * @param start The timestamp returned by {@link #start()}.
+     */
+    public static void stop(Phase phase, long start) {
+        if (!ENABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        phase.durations.record(nanos);
+        phase.totalNanos.add(nanos);
+        if (PHASE_EVENT.isEnabled()) {
+            PhaseEvent event = new PhaseEvent();
+            event.phase = phase.key();
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Counts trained samples for the samples per second of the epoch.
+     *
+     * @param count The number of samples just trained.
+     */
+    public static void addSamples(long count) {
+        if (ENABLED) {
+            samples.add(count);
+        }
+    }
+
+    /**
+     * Discards everything recorded so far and starts the first epoch now, so setup work such
+     * as loading the data is not counted. Does nothing when telemetry is disabled.
+     */
+    public static synchronized void reset() {
+        if (!ENABLED) {
+            return;
+        }
+        epochStartNanos = System.nanoTime();
+        samples.reset();
+        for (Phase phase : Phase.values()) {
+            phase.durations.reset();
+            phase.totalNanos.reset();
+        }
+        long[] gc = gcTotals();
+        gcCountBaseline = gc[0];
+        gcMillisBaseline = gc[1];
+        allocatedPerThread();
+    }
+
+    /**
+     * Finishes an epoch: appends its summary as a JSON line to the telemetry file, emits a
+     * JFR epoch event and resets all counters. Does nothing when telemetry is disabled.
+     * <p>
+     * Must not run concurrently with itself.
+     *
+     * @param epoch The number of the finished epoch.
+     */
+    public static synchronized void endEpoch(int epoch) {
+        if (!ENABLED) {
+            return;
+        }
+        String line = summarize(epoch);
+        Path file = Path.of(System.getProperty("nn.telemetry.file", "telemetry.jsonl"));
+        try {
+            Files.writeString(file, line + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not write telemetry to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the JSON summary of the current epoch and resets the counters.
+     *
+     * @param epoch The number of the finished epoch.
+     * @return The summary as a single-line JSON object.
+     */
+    static String summarize(int epoch) {
+        long now = System.nanoTime();
+        double seconds = (now - epochStartNanos) / 1e9;
+        epochStartNanos = now;
+        long sampleCount = samples.sumThenReset();
+        double samplesPerSecond = seconds > 0 ? sampleCount / seconds : 0.0;
+
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"epoch\":").append(epoch)
+                .append(",\"seconds\":").append(format(seconds))
+                .append(",\"samples\":").append(sampleCount)
+                .append(",\"samplesPerSecond\":").append(format(samplesPerSecond))
+                .append(",\"phases\":{");
+        boolean first = true;
+        for (Phase phase : Phase.values()) {
+            long count = phase.durations.count();
+            if (count == 0) {
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(phase.key()).append("\":{\"count\":").append(count)
+                    .append(",\"totalMillis\":").append(format(phase.totalNanos.sumThenReset() / 1e6))
+                    .append(",\"p50Nanos\":").append(phase.durations.percentile(50))
+                    .append(",\"p99Nanos\":").append(phase.durations.percentile(99))
+                    .append('}');
+            phase.durations.reset();
+        }
+        json.append('}');
+
+        long[] gc = gcTotals();
+        long gcCount = gc[0] - gcCountBaseline;
+        long gcMillis = gc[1] - gcMillisBaseline;
+        gcCountBaseline = gc[0];
+        gcMillisBaseline = gc[1];
+        json.append(",\"gcCount\":").append(gcCount).append(",\"gcMillis\":").append(gcMillis);
+
+        Map<String, Long> allocated = allocatedPerThread();
+        long allocatedTotal = 0;
+        json.append(",\"allocatedBytes\":{");
+        first = true;
+        for (Map.Entry<String, Long> entry : allocated.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(entry.getKey().replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\":").append(entry.getValue());
+            allocatedTotal += entry.getValue();
+        }
+        json.append("}}");
+
+        EpochEvent event = new EpochEvent();
+        if (event.shouldCommit()) {
+            event.epoch = epoch;
+            event.samples = sampleCount;
+            event.samplesPerSecond = samplesPerSecond;
+            event.gcMillis = gcMillis;
+            event.allocatedBytes = allocatedTotal;
+            event.commit();
+        }
+        return json.toString();
+    }
+
+    /**
+     * Returns the total number of collections and the total collection time of all collectors.
+     */
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    /**
+     * Returns the bytes allocated by every live thread since the previous call, summed per
+     * thread name, and remembers the current totals. Threads that allocated nothing are left out.
+     */
+    private static Map<String, Long> allocatedPerThread() {
+        Map<String, Long> result = new TreeMap<>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return result;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return result;
+        }
+
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = allocation.getThreadAllocatedBytes(ids);
+        ThreadInfo[] infos = threads.getThreadInfo(ids);
+        Map<Long, Long> current = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] == null || bytes[i] < 0) {
+                continue;
+            }
+            current.put(ids[i], bytes[i]);
+            long delta = bytes[i] - allocatedBaseline.getOrDefault(ids[i], 0L);
+            if (delta > 0) {
+                result.merge(infos[i].getThreadName(), delta, Long::sum);
+            }
+        }
+        allocatedBaseline.clear();
+        allocatedBaseline.putAll(current);
+        return result;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * The state of the training loop that a {@link Checkpoint} needs to resume a run where it stopped.
+ * <p>
+ * Besides the network and its optimizers, resuming needs the number of completed epochs (so the
+ * {@link EpochSampler} continues its sequence of permutations), how far validation has got, the
+ * early-stopping counter and the best weights seen so far.
+ */
+public final class TrainingProgress {
+
+    /**
+     * The number of epochs trained so far; the next epoch to train has this index.
+     */
+    public int completedEpochs;
+
+    /**
+     * The number of epochs whose validation score has been taken into account. Validation runs
+     * one epoch behind training, so this is usually {@code completedEpochs - 1}.
+     */
+    public int validatedEpochs;
+
+    /**
+     * The number of consecutive validated epochs without an improvement of the best score.
+     */
+    public int epochsWithoutImprovement;
+
+    /**
+     * Whether early stopping has ended the run.
+     */
+    public boolean stopping;
+
+    /**
+     * The best weights and score seen so far.
+     */
+    public final BestWeights bestWeights;
+
+    /**
+     * Creates the progress of a run that has not started yet.
+     *
+     * @param network The network being trained.
+     */
+    public TrainingProgress(NeuralNetwork network) {
+        this.bestWeights = new BestWeights(network);
+    }
+}
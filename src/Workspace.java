@@ -0,0 +1,112 @@
+import java.util.List;
+
+/**
+ * Preallocated buffers for propagating a single sample through a network.
+ * <p>
+ * Sized once from the layer topology and reused for every sample, so the per-sample
+ * forward and backward passes do not allocate. A workspace must not be shared between
+ * threads; every thread running inference or training needs its own.
+ * <p>
+ * A workspace for a single-precision network also holds float copies of the input, the
+ * activations and the errors, which the float kernels work on. The double activations then
+ * only receive the widened results handed back to the caller.
+ */
+public class Workspace {
+
+    /**
+     * Activations of every layer, including the input layer at index 0.
+     * The input entry only references the caller's vector and is never written to.
+     */
+    public final double[][] activations;
+
+    /**
+     * Buffer receiving the normalized input when a sample is decoded from a {@link Dataset}.
+     */
+    public final double[] input;
+
+    /**
+     * Sparse copy of the input vector, used by the first layer when the input is sparse enough.
+     */
+    public final SparseInput sparseInput;
+
+    /**
+     * Ping-pong buffers of the inference-only forward pass: layer i writes into {@code pingPong[i % 2]},
+     * sized for the widest layer. Unlike {@link #activations}, they do not keep every layer.
+     */
+    public final double[][] pingPong;
+
+    /**
+     * Errors backpropagated to every layer (excluding the input layer), or {@code null} for a
+     * single-precision workspace.
+     */
+    public final double[][] deltas;
+
+    /**
+     * Single-precision input buffer, or {@code null} for a double-precision workspace.
+     */
+    public final float[] input32;
+
+    /**
+     * Single-precision activations of every layer (index 0 is {@link #input32}), or {@code null}.
+     */
+    public final float[][] activations32;
+
+    /**
+     * Single-precision ping-pong buffers, or {@code null}.
+     */
+    public final float[][] pingPong32;
+
+    /**
+     * Single-precision errors of every layer, or {@code null}.
+     */
+    public final float[][] deltas32;
+
+    /**
+     * Allocates a double-precision workspace matching the shapes of the given layers.
+     *
+     * @param layers The layers of the network this workspace is used with.
+     */
+    public Workspace(List<Layer> layers) {
+        this(layers, Precision.FLOAT64);
+    }
+
+    /**
+     * Allocates a workspace matching the shapes and the precision of the given layers.
+     *
+     * @param layers    The layers of the network this workspace is used with.
+     * @param precision The precision of the network's parameters.
+     */
+    public Workspace(List<Layer> layers, Precision precision) {
+        boolean single = precision == Precision.FLOAT32;
+        int inputSize = layers.get(0).inputSize;
+        this.activations = new double[layers.size() + 1][];
+        this.deltas = single ? null : new double[layers.size()][];
+        this.input = new double[inputSize];
+        this.sparseInput = new SparseInput(inputSize);
+        this.input32 = single ? new float[inputSize] : null;
+        this.activations32 = single ? new float[layers.size() + 1][] : null;
+        this.deltas32 = single ? new float[layers.size()][] : null;
+
+        int widest = 0;
+        for (Layer layer : layers) {
+            widest = Math.max(widest, layer.outputSize);
+        }
+        this.pingPong = new double[2][widest];
+        this.pingPong32 = single ? new float[2][widest] : null;
+
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            int outputSize = layer.outputSize;
+            this.activations[i + 1] = new double[outputSize];
+            if (single) {
+                this.activations32[i + 1] = new float[outputSize];
+                this.deltas32[i] = new float[outputSize];
+            } else {
+                this.deltas[i] = new double[outputSize];
+            }
+        }
+        if (single) {
+            this.activations32[0] = input32;
+        }
+    }
+}